@@ -0,0 +1,111 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * SolrCloud alternative to CreateNapsterCloneCores: creates the napster_clone
+ * collection with N shards and R replicas, using the compositeId router so that
+ * all files of one owner (whose IDs start with "owner!") live on the same shard.
+ * Replication is handled by SolrCloud, so no master/slave setup is needed.
+ *
+ * Compile and run together with CreateNapsterCloneCores, which holds the schema:
+ *
+ * <pre>
+ * javac CreateNapsterCloneCores.java CreateNapsterCloneCollection.java
+ * java CreateNapsterCloneCollection [solrNodeUrl] [numShards] [replicationFactor] [performance|baseline]
+ * </pre>
+ */
+public class CreateNapsterCloneCollection {
+    private static final String DEFAULT_SOLR_URL = "http://localhost:8983/solr/";
+    private static final int DEFAULT_NUM_SHARDS = 2;
+    private static final int DEFAULT_REPLICATION_FACTOR = 2;
+
+    private static final String COLLECTION_NAME = "napster_clone";
+    // A copy of _default, so schema changes do not affect other collections
+    private static final String CONFIGSET_NAME = "napster_clone";
+    private static final String BASE_CONFIGSET = "_default";
+
+    private static final HttpClient httpClient = HttpClient.newHttpClient();
+
+    public static void main(String[] args) {
+        String solrUrl = args.length > 0 ? args[0] : DEFAULT_SOLR_URL;
+        if (!solrUrl.endsWith("/")) {
+            solrUrl += "/";
+        }
+        int numShards = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NUM_SHARDS;
+        int replicationFactor = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_REPLICATION_FACTOR;
+        String profile = args.length > 3 ? args[3] : "performance";
+        String schema = CreateNapsterCloneCores.schemaForProfile(profile);
+        if (schema == null) {
+            System.out.println("Unknown schema profile '" + profile + "', expected performance or baseline.");
+            return;
+        }
+
+        System.out.println("Starting Napster Clone SolrCloud collection setup...");
+        System.out.println("Node: " + solrUrl + ", shards: " + numShards + ", replicas: " + replicationFactor
+                + ", schema profile: " + profile);
+
+        // Step 1: Delete collection and its configset if they exist
+        call("Deleting collection if it exists", solrUrl + "admin/collections?action=DELETE&name="
+                + COLLECTION_NAME + "&wt=json");
+        call("Deleting configset if it exists", solrUrl + "admin/configs?action=DELETE&name="
+                + CONFIGSET_NAME + "&wt=json");
+
+        // Step 2: Copy the default configset
+        if (!call("Creating configset " + CONFIGSET_NAME, solrUrl + "admin/configs?action=CREATE&name="
+                + CONFIGSET_NAME + "&baseConfigSet=" + BASE_CONFIGSET + "&wt=json")) {
+            return;
+        }
+
+        // Step 3: Create the sharded collection
+        if (!call("Creating collection " + COLLECTION_NAME, solrUrl + "admin/collections?action=CREATE"
+                + "&name=" + COLLECTION_NAME
+                + "&collection.configName=" + CONFIGSET_NAME
+                + "&router.name=compositeId"
+                + "&numShards=" + numShards
+                + "&replicationFactor=" + replicationFactor
+                + "&waitForFinalState=true"
+                + "&wt=json")) {
+            return;
+        }
+
+        // Step 4: Update schema through any node; it is stored in the configset
+        CreateNapsterCloneCores.addSchema(solrUrl, COLLECTION_NAME, schema);
+
+        // Step 5: Show where the shards and replicas ended up
+        call("Cluster status", solrUrl + "admin/collections?action=CLUSTERSTATUS&collection=" + COLLECTION_NAME
+                + "&wt=json");
+
+        System.out.println("\nProcess completed. Point the client at the collection on each node, e.g. "
+                + solrUrl + COLLECTION_NAME);
+    }
+
+    /**
+     * Sends a Collections or ConfigSets API request and prints the outcome.
+     *
+     * @return true if Solr answered with HTTP 200
+     */
+    private static boolean call(String description, String url) {
+        try {
+            System.out.println("\n" + description + ": " + url);
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(url))
+                    .GET()
+                    .build();
+
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+            if (response.statusCode() == 200) {
+                System.out.println("Success: " + response.body());
+                return true;
+            } else {
+                System.out.println("Failed (HTTP " + response.statusCode() + "): " + response.body());
+                return false;
+            }
+        } catch (Exception e) {
+            System.out.println("Error: " + description + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -5,6 +5,8 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 public class CreateNapsterCloneCores {
     // Solr URLs for both instances
@@ -15,52 +17,134 @@ public class CreateNapsterCloneCores {
     private static final String CONFIGSET_PATH_8983 = "D:\\\\solr-9.8.1\\\\server\\\\solr\\\\configsets\\\\_default";
     private static final String CONFIGSET_PATH_8984 = "D:\\\\solr-9.8.1\\\\server2\\\\solr\\\\configsets\\\\_default";
 
-    // Core name
-    private static final String CORE_NAME = "napster_clone";
+    // Default core name; a second argument overrides it, e.g. for a scratch core
+    private static final String DEFAULT_CORE_NAME = "napster_clone";
 
-    // Schema definition
-    private static final String SCHEMA = "{\"add-field\":{\"name\":\"doc_type_s\",\"type\":\"string\",\"indexed\":true,\"stored\":true,\"multiValued\":false},"
+    // text_prefix indexes the edge n-grams of every word in a filename (split on
+    // anything that is not a letter or digit) so type-ahead suggestions are plain
+    // term lookups; queries are only lowercased and cut to the longest indexed
+    // gram.
+    private static final String TEXT_PREFIX_FIELD_TYPE = "\"add-field-type\":{\"name\":\"text_prefix\",\"class\":\"solr.TextField\",\"positionIncrementGap\":\"100\","
             +
-            "\"add-field\":{\"name\":\"username_s\",\"type\":\"string\",\"indexed\":true,\"stored\":true,\"multiValued\":false},"
+            "\"indexAnalyzer\":{\"tokenizer\":{\"class\":\"solr.PatternTokenizerFactory\",\"pattern\":\"[^\\\\p{L}\\\\p{N}]+\"},"
             +
-            "\"add-field\":{\"name\":\"ip_s\",\"type\":\"string\",\"indexed\":true,\"stored\":true,\"multiValued\":false},"
+            "\"filters\":[{\"class\":\"solr.LowerCaseFilterFactory\"},{\"class\":\"solr.EdgeNGramFilterFactory\",\"minGramSize\":\"1\",\"maxGramSize\":\"20\"}]},"
             +
-            "\"add-field\":{\"name\":\"port_i\",\"type\":\"pint\",\"indexed\":true,\"stored\":true,\"multiValued\":false},"
+            "\"queryAnalyzer\":{\"tokenizer\":{\"class\":\"solr.PatternTokenizerFactory\",\"pattern\":\"[^\\\\p{L}\\\\p{N}]+\"},"
             +
-            "\"add-field\":{\"name\":\"status_s\",\"type\":\"string\",\"indexed\":true,\"stored\":true,\"multiValued\":false},"
+            "\"filters\":[{\"class\":\"solr.LowerCaseFilterFactory\"},{\"class\":\"solr.TruncateTokenFilterFactory\",\"prefixLength\":\"20\"}]}},";
+
+    // The client only sends filename_s; both searchable copies are filled in by
+    // Solr
+    private static final String FILENAME_COPY_FIELDS = "\"add-copy-field\":{\"source\":\"filename_s\",\"dest\":[\"filename_txt_en\",\"filename_prefix\"]}";
+
+    // Performance profile (the default), kept in napster_clone-schema.json next
+    // to this file so the client's tests load the same schema. Fields used for
+    // filtering, faceting, sorting or the /export handler have docValues;
+    // exact-match string fields omit norms; fields that are only read back are
+    // not indexed; and the filename is stored once, in filename_s. The two
+    // scored text fields keep their norms so shorter filenames still rank first.
+    static final String SCHEMA_FILE = "napster_clone-schema.json";
+
+    // Baseline profile: every field indexed and stored without docValues, as the
+    // schema was originally defined, and the filename stored a second time in
+    // filename_txt_en. Only kept to compare against with SchemaProfileBenchmark;
+    // atomic updates of file documents do not work with it, because Solr would
+    // copy the stored filename_txt_en back in next to the copyField value.
+    static final String BASELINE_SCHEMA = "{" + TEXT_PREFIX_FIELD_TYPE
             +
-            "\"add-field\":{\"name\":\"filename_s\",\"type\":\"string\",\"indexed\":true,\"stored\":true,\"multiValued\":false},"
+            "\"add-field\":{\"name\":\"doc_type_s\",\"type\":\"string\",\"indexed\":true,\"stored\":true,\"docValues\":false,\"multiValued\":false},"
+            +
+            "\"add-field\":{\"name\":\"username_s\",\"type\":\"string\",\"indexed\":true,\"stored\":true,\"docValues\":false,\"multiValued\":false},"
+            +
+            "\"add-field\":{\"name\":\"ip_s\",\"type\":\"string\",\"indexed\":true,\"stored\":true,\"docValues\":false,\"multiValued\":false},"
+            +
+            "\"add-field\":{\"name\":\"port_i\",\"type\":\"pint\",\"indexed\":true,\"stored\":true,\"docValues\":false,\"multiValued\":false},"
+            +
+            "\"add-field\":{\"name\":\"status_s\",\"type\":\"string\",\"indexed\":true,\"stored\":true,\"docValues\":false,\"multiValued\":false},"
+            +
+            "\"add-field\":{\"name\":\"filename_s\",\"type\":\"string\",\"indexed\":true,\"stored\":true,\"docValues\":false,\"multiValued\":false},"
             +
             "\"add-field\":{\"name\":\"filename_txt_en\",\"type\":\"text_en\",\"indexed\":true,\"stored\":true,\"multiValued\":false},"
             +
-            "\"add-field\":{\"name\":\"size_l\",\"type\":\"plong\",\"indexed\":true,\"stored\":true,\"multiValued\":false},"
+            "\"add-field\":{\"name\":\"size_l\",\"type\":\"plong\",\"indexed\":true,\"stored\":true,\"docValues\":false,\"multiValued\":false},"
+            +
+            "\"add-field\":{\"name\":\"owner_username_s\",\"type\":\"string\",\"indexed\":true,\"stored\":true,\"docValues\":false,\"multiValued\":false},"
+            +
+            "\"add-field\":{\"name\":\"last_updated_dt\",\"type\":\"pdate\",\"indexed\":true,\"stored\":true,\"docValues\":false,\"multiValued\":false},"
+            +
+            "\"add-field\":{\"name\":\"last_seen_dt\",\"type\":\"pdate\",\"indexed\":true,\"stored\":true,\"docValues\":false,\"multiValued\":false},"
+            +
+            "\"add-field\":{\"name\":\"filename_prefix\",\"type\":\"text_prefix\",\"indexed\":true,\"stored\":false,\"multiValued\":false},"
+            +
+            "\"add-field\":{\"name\":\"extension_s\",\"type\":\"string\",\"indexed\":true,\"stored\":true,\"docValues\":false,\"multiValued\":false},"
+            +
+            "\"add-field\":{\"name\":\"path_s\",\"type\":\"string\",\"indexed\":true,\"stored\":true,\"docValues\":false,\"multiValued\":false},"
             +
-            "\"add-field\":{\"name\":\"owner_username_s\",\"type\":\"string\",\"indexed\":true,\"stored\":true,\"multiValued\":false}}";
+            "\"add-field\":{\"name\":\"modified_dt\",\"type\":\"pdate\",\"indexed\":true,\"stored\":true,\"docValues\":false,\"multiValued\":false},"
+            +
+            "\"add-field\":{\"name\":\"sync_version_l\",\"type\":\"plong\",\"indexed\":true,\"stored\":true,\"docValues\":false,\"multiValued\":false},"
+            +
+            FILENAME_COPY_FIELDS + "}";
 
+    /**
+     * Usage: java CreateNapsterCloneCores [performance|baseline] [coreName]
+     */
     public static void main(String[] args) {
+        String profile = args.length > 0 ? args[0] : "performance";
+        String coreName = args.length > 1 ? args[1] : DEFAULT_CORE_NAME;
+        String schema = schemaForProfile(profile);
+        if (schema == null) {
+            System.out.println("Unknown schema profile '" + profile + "', expected performance or baseline.");
+            return;
+        }
         System.out.println("Starting Napster Clone core creation and schema update process...");
+        System.out.println("Schema profile: " + profile + ", core: " + coreName);
 
         // Process for Solr instance on port 8983
         System.out.println("\n=== Processing Solr instance on port 8983 ===");
-        processSolrInstance(SOLR_URL_8983, CONFIGSET_PATH_8983);
+        processSolrInstance(SOLR_URL_8983, CONFIGSET_PATH_8983, coreName, schema);
 
         // Process for Solr instance on port 8984
         System.out.println("\n=== Processing Solr instance on port 8984 ===");
-        processSolrInstance(SOLR_URL_8984, CONFIGSET_PATH_8984);
+        processSolrInstance(SOLR_URL_8984, CONFIGSET_PATH_8984, coreName, schema);
 
         System.out.println("\nSetting up replication between instances...");
-        setupReplication();
+        setupReplication(coreName);
 
         System.out.println("\nProcess completed for both Solr instances.");
     }
 
-    private static void setupReplication() {
+    /**
+     * Reads the performance schema, from the directory the tools are run in.
+     */
+    private static String readSchemaFile() {
+        try {
+            return new String(Files.readAllBytes(Paths.get(SCHEMA_FILE)), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.out.println("Cannot read " + SCHEMA_FILE + " (run from the SolrConfig directory): " + e);
+            return null;
+        }
+    }
+
+    static String schemaForProfile(String profile) {
+        switch (profile) {
+            case "performance":
+                return readSchemaFile();
+            case "baseline":
+                return BASELINE_SCHEMA;
+            default:
+                return null;
+        }
+    }
+
+    private static void setupReplication(String coreName) {
         // Configure first server as master
-        configureAsMaster(SOLR_URL_8983 + CORE_NAME + "/replication");
+        configureAsMaster(SOLR_URL_8983 + coreName + "/replication");
 
         // Configure second server as slave pointing to master
-        configureAsSlave(SOLR_URL_8984 + CORE_NAME + "/replication",
-                "http://localhost:8983/solr/" + CORE_NAME + "/replication");
+        configureAsSlave(SOLR_URL_8984 + coreName + "/replication",
+                "http://localhost:8983/solr/" + coreName + "/replication");
     }
 
     private static void configureAsMaster(String replicationUrl) {
@@ -101,20 +185,20 @@ public class CreateNapsterCloneCores {
         }
     }
 
-    private static void processSolrInstance(String solrUrl, String configsetPath) {
+    private static void processSolrInstance(String solrUrl, String configsetPath, String coreName, String schema) {
         System.out.println("Using configset path: " + configsetPath);
 
         // Step 1: Delete core if it exists
-        deleteCoreIfExists(solrUrl, CORE_NAME);
+        deleteCoreIfExists(solrUrl, coreName);
 
         // Step 2: Create core
-        createCore(solrUrl, CORE_NAME, configsetPath);
+        createCore(solrUrl, coreName, configsetPath);
 
         // Step 3: Update schema
-        addSchema(solrUrl, CORE_NAME, SCHEMA);
+        addSchema(solrUrl, coreName, schema);
     }
 
-    private static void deleteCoreIfExists(String solrUrl, String coreName) {
+    static void deleteCoreIfExists(String solrUrl, String coreName) {
         try {
             HttpClient httpClient = HttpClient.newHttpClient();
 
@@ -145,7 +229,7 @@ public class CreateNapsterCloneCores {
         }
     }
 
-    private static void createCore(String solrUrl, String coreName, String configsetPath) {
+    static void createCore(String solrUrl, String coreName, String configsetPath) {
         try {
             HttpClient httpClient = HttpClient.newHttpClient();
 
@@ -183,7 +267,7 @@ public class CreateNapsterCloneCores {
         }
     }
 
-    private static void addSchema(String solrUrl, String coreName, String schema) {
+    static void addSchema(String solrUrl, String coreName, String schema) {
         try {
             HttpClient httpClient = HttpClient.newHttpClient();
 
@@ -214,10 +298,25 @@ public class CreateNapsterCloneCores {
     }
 
     private static void tryDeleteFields(HttpClient httpClient, String solrUrl, String coreName) throws Exception {
+        // Copy fields must go before the fields they connect
+        try {
+            String deleteJson = "{\"delete-copy-field\":{\"source\":\"filename_s\",\"dest\":[\"filename_txt_en\",\"filename_prefix\"]}}";
+            HttpRequest deleteRequest = HttpRequest.newBuilder()
+                    .uri(URI.create(solrUrl + coreName + "/schema"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(deleteJson))
+                    .build();
+
+            httpClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString());
+        } catch (Exception e) {
+            // Copy field might not exist - that's okay
+        }
+
         // Delete all fields we plan to add
         String[] fieldsToDelete = {
                 "doc_type_s", "username_s", "ip_s", "port_i", "status_s",
-                "filename_s", "filename_txt_en", "size_l", "owner_username_s"
+                "filename_s", "filename_txt_en", "size_l", "owner_username_s", "last_updated_dt",
+                "last_seen_dt", "filename_prefix", "extension_s", "path_s", "modified_dt", "sync_version_l"
         };
 
         for (String field : fieldsToDelete) {
@@ -234,5 +333,23 @@ public class CreateNapsterCloneCores {
                 // Field might not exist - that's okay
             }
         }
+
+        // Field types can only be deleted once no field uses them
+        String[] fieldTypesToDelete = { "text_prefix" };
+
+        for (String fieldType : fieldTypesToDelete) {
+            try {
+                String deleteJson = "{\"delete-field-type\":{\"name\":\"" + fieldType + "\"}}";
+                HttpRequest deleteRequest = HttpRequest.newBuilder()
+                        .uri(URI.create(solrUrl + coreName + "/schema"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(deleteJson))
+                        .build();
+
+                httpClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString());
+            } catch (Exception e) {
+                // Field type might not exist - that's okay
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,220 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the baseline and performance schema profiles of
+ * CreateNapsterCloneCores on a local Solr: both get a temporary core filled with
+ * the same synthetic users and files, then index size and the latency of the
+ * queries the client sends are printed side by side. The cores are deleted
+ * afterwards.
+ *
+ * Compile and run together with CreateNapsterCloneCores:
+ *
+ * <pre>
+ * javac CreateNapsterCloneCores.java SchemaProfileBenchmark.java
+ * java SchemaProfileBenchmark [solrUrl] [fileCount] [configSet]
+ * </pre>
+ */
+public class SchemaProfileBenchmark {
+    private static final String DEFAULT_SOLR_URL = "http://localhost:8983/solr/";
+    private static final int DEFAULT_FILE_COUNT = 200_000;
+    private static final String DEFAULT_CONFIGSET = "_default";
+
+    private static final String[] PROFILES = { "baseline", "performance" };
+    private static final int USER_COUNT = 500;
+    private static final int BATCH_SIZE = 5_000;
+    private static final int WARMUP_QUERIES = 50;
+    private static final int MEASURED_QUERIES = 300;
+    private static final long SEED = 42;
+
+    private static final String[] WORDS = { "love", "night", "live", "remix", "dance", "blue", "rain", "summer",
+            "heart", "fire", "dream", "city", "road", "home", "light", "moon", "river", "story", "wild", "gold",
+            "radio", "edit", "acoustic", "demo", "version", "part", "intro", "theme", "song", "mix" };
+    private static final String[] EXTENSIONS = { "mp3", "mp3", "mp3", "flac", "ogg", "wav", "m4a", "mp4", "avi",
+            "pdf", "zip", "txt" };
+
+    private static final Pattern SIZE_IN_BYTES = Pattern.compile("\"sizeInBytes\":(\\d+)");
+
+    private static final HttpClient httpClient = HttpClient.newHttpClient();
+
+    public static void main(String[] args) throws Exception {
+        String solrUrl = args.length > 0 ? args[0] : DEFAULT_SOLR_URL;
+        int fileCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_FILE_COUNT;
+        String configSet = args.length > 2 ? args[2] : DEFAULT_CONFIGSET;
+        if (!solrUrl.endsWith("/")) {
+            solrUrl += "/";
+        }
+
+        Map<String, Map<String, String>> results = new LinkedHashMap<>();
+        for (String profile : PROFILES) {
+            String coreName = "napster_clone_bench_" + profile;
+            System.out.println("\n=== Profile " + profile + " (core " + coreName + ") ===");
+            CreateNapsterCloneCores.deleteCoreIfExists(solrUrl, coreName);
+            CreateNapsterCloneCores.createCore(solrUrl, coreName, configSet);
+            CreateNapsterCloneCores.addSchema(solrUrl, coreName,
+                    CreateNapsterCloneCores.schemaForProfile(profile));
+            try {
+                results.put(profile, runProfile(solrUrl + coreName + "/", solrUrl, coreName, fileCount));
+            } finally {
+                CreateNapsterCloneCores.deleteCoreIfExists(solrUrl, coreName);
+            }
+        }
+        printResults(results, fileCount);
+    }
+
+    private static Map<String, String> runProfile(String coreUrl, String solrUrl, String coreName, int fileCount)
+            throws Exception {
+        Map<String, String> result = new LinkedHashMap<>();
+
+        long started = System.nanoTime();
+        indexSyntheticData(coreUrl, fileCount);
+        post(coreUrl + "update?commit=true&optimize=true&maxSegments=1", "[]");
+        result.put("index time", String.format("%,d ms", (System.nanoTime() - started) / 1_000_000));
+
+        String status = get(solrUrl + "admin/cores?action=STATUS&wt=json&core=" + coreName);
+        Matcher size = SIZE_IN_BYTES.matcher(status);
+        result.put("index size", size.find()
+                ? String.format("%,.1f MB", Long.parseLong(size.group(1)) / (1024.0 * 1024.0))
+                : "unknown");
+
+        String fl = "&fl=id,filename_s,path_s,size_l,owner_username_s";
+        result.put("text search", measure(coreUrl, i -> "select?q=filename_txt_en:" + words(i)
+                + "&fq=doc_type_s:file&rows=100" + fl));
+        result.put("facets", measure(coreUrl, i -> "select?q=filename_txt_en:" + words(i)
+                + "&fq=doc_type_s:file&rows=0&facet=true&facet.field=extension_s&facet.field=owner_username_s"
+                + "&facet.limit=20&facet.mincount=1"));
+        result.put("sort by size", measure(coreUrl, i -> "select?q=filename_txt_en:" + words(i)
+                + "&fq=doc_type_s:file&rows=100&sort=size_l+desc" + fl));
+        result.put("user files page", measure(coreUrl, i -> "select?q=owner_username_s:user" + (i % USER_COUNT)
+                + "&fq=doc_type_s:file&rows=500&sort=id+asc&cursorMark=*" + fl));
+        result.put("type-ahead", measure(coreUrl, i -> "select?q=filename_prefix:" + word(i, 0).substring(0, 3)
+                + "+AND+filename_prefix:" + word(i, 1).substring(0, 2) + "&fq=doc_type_s:file&rows=40&fl=filename_s"));
+        result.put("export user files", measure(coreUrl, i -> "export?q=owner_username_s:user" + (i % USER_COUNT)
+                + "&fl=id,size_l&sort=id+asc"));
+        return result;
+    }
+
+    private interface QueryForIteration {
+        String path(int iteration);
+    }
+
+    /**
+     * Runs a query shape with different terms each time (see
+     * {@link #word(int, int)}), so Solr's result caches do not hide the
+     * difference between the profiles.
+     *
+     * @return Median and 95th percentile latency, or why the query failed
+     */
+    private static String measure(String coreUrl, QueryForIteration query) {
+        long[] millis = new long[MEASURED_QUERIES];
+        try {
+            for (int i = 0; i < WARMUP_QUERIES + MEASURED_QUERIES; i++) {
+                long started = System.nanoTime();
+                HttpResponse<String> response = send(HttpRequest.newBuilder()
+                        .uri(URI.create(coreUrl + query.path(i) + "&wt=json")).GET().build());
+                long elapsed = (System.nanoTime() - started) / 1_000_000;
+                if (response.statusCode() != 200) {
+                    return "unsupported (HTTP " + response.statusCode() + ")";
+                }
+                if (i >= WARMUP_QUERIES) {
+                    millis[i - WARMUP_QUERIES] = elapsed;
+                }
+            }
+        } catch (Exception e) {
+            return "failed: " + e.getMessage();
+        }
+        Arrays.sort(millis);
+        return String.format("p50 %d ms, p95 %d ms", millis[millis.length / 2],
+                millis[(int) Math.ceil(0.95 * millis.length) - 1]);
+    }
+
+    private static void indexSyntheticData(String coreUrl, int fileCount) throws Exception {
+        Random random = new Random(SEED);
+        List<String> batch = new ArrayList<>();
+        for (int u = 0; u < USER_COUNT; u++) {
+            batch.add("{\"id\":\"user-user" + u + "\",\"doc_type_s\":\"user\",\"username_s\":\"user" + u
+                    + "\",\"ip_s\":\"10.0." + (u / 250) + "." + (u % 250) + "\",\"port_i\":" + (6000 + u)
+                    + ",\"status_s\":\"" + (u % 3 == 0 ? "offline" : "online")
+                    + "\",\"last_updated_dt\":\"NOW\",\"last_seen_dt\":\"NOW\"}");
+        }
+        for (int f = 0; f < fileCount; f++) {
+            String owner = "user" + random.nextInt(USER_COUNT);
+            String extension = EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+            String filename = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                    + " " + WORDS[random.nextInt(WORDS.length)] + " " + f + "." + extension;
+            String path = "folder" + random.nextInt(50) + "/" + filename;
+            long size = (long) Math.exp(8 + random.nextDouble() * 13); // ~3 KB to ~1.3 GB
+            batch.add("{\"id\":\"file-" + owner + "-" + f + "\",\"doc_type_s\":\"file\",\"owner_username_s\":\""
+                    + owner + "\",\"filename_s\":\"" + filename + "\",\"path_s\":\"" + path
+                    + "\",\"extension_s\":\"" + extension + "\",\"size_l\":" + size + "}");
+            if (batch.size() >= BATCH_SIZE) {
+                post(coreUrl + "update", "[" + String.join(",", batch) + "]");
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            post(coreUrl + "update", "[" + String.join(",", batch) + "]");
+        }
+    }
+
+    /**
+     * Picks the n-th (0 or 1) word of a query. The pair differs for the first
+     * WORDS.length squared iterations, more than are run per query shape.
+     */
+    private static String word(int iteration, int n) {
+        int index = n == 0 ? iteration : iteration + iteration / WORDS.length;
+        return WORDS[index % WORDS.length];
+    }
+
+    private static String words(int iteration) {
+        return "(" + word(iteration, 0) + "+OR+" + word(iteration, 1) + ")";
+    }
+
+    private static void printResults(Map<String, Map<String, String>> results, int fileCount) {
+        System.out.println("\n=== Schema profile comparison (" + String.format("%,d", fileCount) + " files, "
+                + USER_COUNT + " users) ===");
+        List<String> rows = new ArrayList<>(results.values().iterator().next().keySet());
+        System.out.printf("%-20s", "");
+        for (String profile : results.keySet()) {
+            System.out.printf("%-30s", profile);
+        }
+        System.out.println();
+        for (String row : rows) {
+            System.out.printf("%-20s", row);
+            for (Map<String, String> result : results.values()) {
+                System.out.printf("%-30s", result.get(row));
+            }
+            System.out.println();
+        }
+    }
+
+    private static String get(String url) throws Exception {
+        return send(HttpRequest.newBuilder().uri(URI.create(url)).GET().build()).body();
+    }
+
+    private static void post(String url, String json) throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("POST " + url + " failed: " + response.body());
+        }
+    }
+
+    private static HttpResponse<String> send(HttpRequest request) throws Exception {
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+}
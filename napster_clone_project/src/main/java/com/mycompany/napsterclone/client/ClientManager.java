@@ -1,51 +1,188 @@
 package com.mycompany.napsterclone.client;
 
-import com.mycompany.napsterclone.model.FileMetaData;
-import com.mycompany.napsterclone.model.UpdateOperation;
+import com.mycompany.napsterclone.solr.FileDocIds;
 import com.mycompany.napsterclone.solr.SolrClientManager;
 import com.mycompany.napsterclone.util.NetworkUtils;
+import com.mycompany.napsterclone.util.PathOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 public class ClientManager {
     private static final Logger log = LoggerFactory.getLogger(ClientManager.class);
 
     private final String username;
-    private final Path publishDirectory;
+    private final List<ShareRoot> shareRoots;
+    private final SharingRules sharingRules;
     private String localIpAddress;
     private int serverPort = -1; // Port the FileServer is listening on
 
-    // In-memory cache of files currently shared BY THIS client
-    private final Set<FileMetaData> localSharedFiles = new HashSet<>();
+    // Each share root is synchronized on its own sync thread, which alone holds
+    // the root's sync state; see ShareRootSync
+    private final List<ShareRootSync> rootSyncs = new ArrayList<>();
+    private final Map<String, ShareRootSync> rootSyncsByName = new HashMap<>();
 
+    // Where each root keeps the manifest of what it last published
+    private static final Path SETTINGS_DIRECTORY = Paths.get(System.getProperty("user.home"), ".napster-clone");
+    private static final Path MANIFEST_DIRECTORY = SETTINGS_DIRECTORY.resolve("manifests");
+
+    private static final int DEFAULT_MAX_SYNC_BATCHES_IN_FLIGHT = 4;
+
+    // Presence lease: heartbeats renew it, the sweeper expires other peers' leases
+    private static final long HEARTBEAT_INTERVAL_MS = SolrClientManager.PEER_LEASE_MS / 3;
+    private static final long SWEEP_INTERVAL_MS = 60000;
+    private ScheduledExecutorService presenceScheduler;
+    // Written by the presence thread and by a resync after a lease gap
+    private volatile long lastHeartbeatAckNanos;
+    private final AtomicBoolean leaseGapResyncRunning = new AtomicBoolean();
+
+    /**
+     * Receives the progress of a sync, on a sync thread. When several roots are
+     * synchronized the counts are their totals.
+     */
+    public interface SyncProgressListener {
+        /**
+         * @param filesScanned        Local files found so far
+         * @param updatesSent         Updates sent to the index so far
+         * @param updatesAcknowledged Updates the index has acknowledged so far
+         */
+        void onProgress(long filesScanned, long updatesSent, long updatesAcknowledged);
+    }
+
+    /**
+     * Creates a client manager sharing the files picked by the sharing rules in
+     * ~/.napster-clone/sharing-rules, or by {@link SharingRules#DEFAULT} if
+     * there is no such file.
+     */
     public ClientManager(String username, Path publishDirectory) {
+        this(username, publishDirectory, loadSharingRules());
+    }
+
+    /**
+     * @param username         The user sharing the files
+     * @param publishDirectory The directory whose files are shared
+     * @param sharingRules     Which files under the publish directory are shared
+     */
+    public ClientManager(String username, Path publishDirectory, SharingRules sharingRules) {
+        this(username, List.of(new ShareRoot("", publishDirectory)), sharingRules);
+    }
+
+    /**
+     * Creates a client manager sharing several directories, each scanned and
+     * synchronized on its own thread, with the sharing rules in
+     * ~/.napster-clone/sharing-rules applied to every root.
+     *
+     * @param username     The user sharing the files
+     * @param shareRoots   The directories to share; only a client's single root
+     *                     may be unnamed
+     * @param sharingRules Which files under the roots are shared
+     */
+    public ClientManager(String username, List<ShareRoot> shareRoots, SharingRules sharingRules) {
+        this(username, shareRoots, sharingRules, MANIFEST_DIRECTORY);
+    }
+
+    /**
+     * @param manifestDirectory Where the roots keep their sync manifests
+     */
+    ClientManager(String username, List<ShareRoot> shareRoots, SharingRules sharingRules, Path manifestDirectory) {
+        if (shareRoots.isEmpty()) {
+            throw new IllegalArgumentException("At least one share root is needed");
+        }
         this.username = username;
-        this.publishDirectory = publishDirectory.toAbsolutePath(); // Ensure absolute path
+        this.shareRoots = List.copyOf(shareRoots);
+        this.sharingRules = sharingRules;
+
+        // Each root owns the indexed paths from its prefix up to the next root's,
+        // the first and last without a bound, so that a full sync of some root
+        // removes every published file no current root has
+        List<ShareRoot> sorted = new ArrayList<>(this.shareRoots);
+        sorted.sort((a, b) -> PathOrder.compare(a.getPathPrefix(), b.getPathPrefix()));
+        for (int i = 0; i < sorted.size(); i++) {
+            ShareRoot root = sorted.get(i);
+            if (root.getName().isEmpty() && sorted.size() > 1) {
+                throw new IllegalArgumentException("Share roots must be named when there are several: " + root);
+            }
+            String rangeStart = i == 0 ? null : root.getPathPrefix();
+            String rangeEnd = i == sorted.size() - 1 ? null : sorted.get(i + 1).getPathPrefix();
+            ShareRootSync rootSync = new ShareRootSync(username, root, sharingRules, rangeStart, rangeEnd,
+                    manifestFileFor(manifestDirectory, username, root, rangeStart, rangeEnd),
+                    DEFAULT_MAX_SYNC_BATCHES_IN_FLIGHT);
+            if (rootSyncsByName.putIfAbsent(root.getName(), rootSync) != null) {
+                throw new IllegalArgumentException("Duplicate share root name: '" + root.getName() + "'");
+            }
+        }
+        for (ShareRoot root : this.shareRoots) {
+            rootSyncs.add(rootSyncsByName.get(root.getName()));
+        }
         try {
             this.localIpAddress = NetworkUtils.getLocalIpAddress();
         } catch (IOException e) {
             log.error("Failed to determine local IP address", e);
             this.localIpAddress = "127.0.0.1"; // Fallback, might cause issues
         }
-        log.info("ClientManager initialized for user '{}', sharing '{}', IP: {}",
-                username, this.publishDirectory, this.localIpAddress);
+        log.info("ClientManager initialized for user '{}', sharing {}, IP: {}",
+                username, describeShareRoots(), this.localIpAddress);
+    }
+
+    /**
+     * The sharing rules in ~/.napster-clone/sharing-rules, or
+     * {@link SharingRules#DEFAULT} if there is no such file.
+     */
+    public static SharingRules loadSharingRules() {
+        return SharingRules.load(SETTINGS_DIRECTORY.resolve("sharing-rules"));
+    }
+
+    /**
+     * Names a root's manifest after the user and a 128-bit hash of the root
+     * and its range, so that a root whose range changed starts over from the
+     * index. The hash covers the exact username, which the readable prefix
+     * only approximates.
+     */
+    private static Path manifestFileFor(Path manifestDirectory, String username, ShareRoot root, String rangeStart,
+            String rangeEnd) {
+        String key = username + "\0" + root.getName() + "\0" + root.getDirectory() + "\0" + rangeStart + "\0"
+                + rangeEnd;
+        return manifestDirectory.resolve(username.replaceAll("[^A-Za-z0-9._-]", "_") + "-"
+                + FileDocIds.hashHex(key) + ".manifest");
     }
 
     public String getUsername() {
         return username;
     }
 
+    /**
+     * @return The directory of the first share root
+     */
     public Path getPublishDirectory() {
-        return publishDirectory;
+        return shareRoots.get(0).getDirectory();
+    }
+
+    public List<ShareRoot> getShareRoots() {
+        return shareRoots;
+    }
+
+    /**
+     * @return The share roots' directories, for display
+     */
+    public String describeShareRoots() {
+        return shareRoots.stream().map(root -> root.getDirectory().toString()).collect(Collectors.joining(", "));
+    }
+
+    public SharingRules getSharingRules() {
+        return sharingRules;
     }
 
     public String getLocalIpAddress() {
@@ -61,103 +198,294 @@ public class ClientManager {
     }
 
     /**
-     * Scans the local publish directory, compares it with the Solr index for this
-     * user,
-     * and sends necessary add/remove updates to Solr.
+     * Sets how many batches of sync updates may await acknowledgement at once,
+     * for each share root. More hide the round trips to a distant index; fewer
+     * limit the memory and the load a large first publish puts on it.
      *
-     * @param solrManager The Solr client manager to interact with the index.
-     * @throws IOException If there's an error scanning the directory.
-     * @throws Exception   If there's an error communicating with Solr.
+     * @param maxSyncBatchesInFlight At least 1
+     */
+    public void setMaxSyncBatchesInFlight(int maxSyncBatchesInFlight) {
+        if (maxSyncBatchesInFlight < 1) {
+            throw new IllegalArgumentException("Batches in flight must be at least 1: " + maxSyncBatchesInFlight);
+        }
+        for (ShareRootSync rootSync : rootSyncs) {
+            rootSync.setMaxSyncBatchesInFlight(maxSyncBatchesInFlight);
+        }
+    }
+
+    /**
+     * Starts sending heartbeats that keep this user's presence lease alive, and
+     * periodically sweeps peers whose lease has expired. Both run on one daemon
+     * thread; the sweep is started at a random offset so that peers do not all
+     * sweep at the same moment.
+     *
+     * @param solrManager The Solr client manager to send heartbeats through
+     */
+    public synchronized void startPresence(SolrClientManager solrManager) {
+        if (presenceScheduler != null) {
+            return;
+        }
+        lastHeartbeatAckNanos = System.nanoTime();
+        presenceScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Presence-" + username);
+            t.setDaemon(true);
+            return t;
+        });
+        presenceScheduler.scheduleWithFixedDelay(() -> sendHeartbeat(solrManager),
+                HEARTBEAT_INTERVAL_MS, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        presenceScheduler.scheduleWithFixedDelay(() -> sweepExpiredPeers(solrManager),
+                ThreadLocalRandom.current().nextLong(SWEEP_INTERVAL_MS), SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        log.info("Presence heartbeats started for user '{}' every {} ms", username, HEARTBEAT_INTERVAL_MS);
+    }
+
+    /**
+     * Stops heartbeats and sweeps. Call before going offline so a late heartbeat
+     * cannot race the final status update.
      */
-    public synchronized void synchronizeFiles(SolrClientManager solrManager) throws Exception {
-        log.info("Starting file synchronization for user: {}", username);
+    public synchronized void stopPresence() {
+        if (presenceScheduler != null) {
+            presenceScheduler.shutdownNow();
+            presenceScheduler = null;
+            log.info("Presence heartbeats stopped for user '{}'", username);
+        }
+    }
 
-        // 1. Get current files from local publish directory
-        Set<FileMetaData> currentLocalFiles = scanPublishDirectory();
-        log.debug("Found {} files locally in {}", currentLocalFiles.size(), publishDirectory);
+    private void sendHeartbeat(SolrClientManager solrManager) {
+        try {
+            solrManager.heartbeat(username);
+        } catch (Exception e) {
+            log.warn("Heartbeat for user '{}' failed: {}", username, e.getMessage());
+            return;
+        }
+        long now = System.nanoTime();
+        long silentMillis = TimeUnit.NANOSECONDS.toMillis(now - lastHeartbeatAckNanos);
+        lastHeartbeatAckNanos = now;
+        if (silentMillis < SolrClientManager.PEER_LEASE_MS / 2) {
+            return;
+        }
+        // The lease may have run out while heartbeats were failing, in which case
+        // a sweeper has marked this user offline and removed its files
+        log.warn("No heartbeat acknowledged for {} ms; re-registering user '{}'", silentMillis, username);
+        try {
+            solrManager.registerUser(username, localIpAddress, serverPort);
+        } catch (Exception e) {
+            log.error("Failed to re-register user '{}' after lease gap", username, e);
+            lastHeartbeatAckNanos = now - TimeUnit.MILLISECONDS.toNanos(SolrClientManager.PEER_LEASE_MS);
+            return;
+        }
+        resyncAfterLeaseGap(solrManager);
+    }
+
+    /**
+     * Publishes again the files a sweeper may have removed while the lease had
+     * run out. The sync runs on a thread of its own, so that heartbeats go on
+     * while it does and a long sync neither looks like another lease gap nor
+     * lets the lease run out. If it fails, the next heartbeat re-registers
+     * and tries again.
+     */
+    private void resyncAfterLeaseGap(SolrClientManager solrManager) {
+        if (!leaseGapResyncRunning.compareAndSet(false, true)) {
+            return;
+        }
+        Thread resync = new Thread(() -> {
+            try {
+                synchronizeFiles(solrManager);
+                lastHeartbeatAckNanos = System.nanoTime();
+            } catch (Exception e) {
+                log.error("Failed to resynchronize files of user '{}' after lease gap", username, e);
+                lastHeartbeatAckNanos = System.nanoTime()
+                        - TimeUnit.MILLISECONDS.toNanos(SolrClientManager.PEER_LEASE_MS);
+            } finally {
+                leaseGapResyncRunning.set(false);
+            }
+        }, "Resync-" + username);
+        resync.setDaemon(true);
+        resync.start();
+    }
 
-        // 2. Get files currently indexed in Solr for THIS user
-        List<FileMetaData> indexedFilesList = solrManager.findFilesByUser(username);
-        Set<FileMetaData> currentIndexedFiles = new HashSet<>(indexedFilesList);
-        log.debug("Found {} files indexed in Solr for {}", currentIndexedFiles.size(), username);
+    private void sweepExpiredPeers(SolrClientManager solrManager) {
+        try {
+            solrManager.sweepExpiredPeers(username);
+        } catch (Exception e) {
+            log.warn("Sweeping expired peers failed: {}", e.getMessage());
+        }
+    }
 
-        // 3. Calculate differences
-        List<UpdateOperation> updates = new ArrayList<>();
+    /**
+     * Scans the share roots, compares them with what was last published for
+     * this user, and sends necessary add/update/remove updates to Solr. A file
+     * counts as modified when its size or modification time differs from the
+     * published one; modified files are sent as atomic updates of just those
+     * fields. Only files the sharing rules pick are published, so files they
+     * leave out are removed from the index, as are files of roots no longer
+     * shared.
+     *
+     * @param solrManager The Solr client manager to interact with the index.
+     * @throws IOException If there's an error scanning the directory.
+     * @throws Exception   If there's an error communicating with Solr.
+     * @see #synchronizeFiles(SolrClientManager, SyncProgressListener)
+     */
+    public void synchronizeFiles(SolrClientManager solrManager) throws Exception {
+        synchronizeFiles(solrManager, null);
+    }
 
-        // Files to ADD: Present locally but not in index
-        for (FileMetaData localFile : currentLocalFiles) {
-            if (!currentIndexedFiles.contains(localFile)) {
-                updates.add(new UpdateOperation(UpdateOperation.Type.ADD, localFile));
+    /**
+     * Synchronizes the share roots with the index as
+     * {@link #synchronizeFiles(SolrClientManager)} does, reporting progress.
+     * What was last published from a root comes from its local sync manifest
+     * while the sync version stamped for the root on the user document matches
+     * it, and from the index otherwise, so a sync without changes reads nothing
+     * from Solr but those versions.
+     * <p>
+     * Both sides are streamed in path order and merge-joined, and updates are
+     * sent in batches while the diff runs, so apart from the local cache itself
+     * memory use does not grow with the number of files shared. The cache
+     * only takes in updates once Solr has acknowledged them. If the sync fails
+     * or the client stops, what was acknowledged is kept: a sync diffing
+     * against the manifest leaves it up to date with those updates, and one
+     * rebuilding it from the index saves a checkpoint the next sync resumes
+     * from, so a large first publish is not sent again from the start.
+     * <p>
+     * The roots are synchronized at the same time, each on its own sync
+     * thread after any sync or live sync update already queued there; the
+     * caller waits for all of them. A root that fails does not stop the others.
+     *
+     * @param solrManager The Solr client manager to interact with the index.
+     * @param progress    Receives progress while the sync runs, or null
+     * @throws IOException If there's an error scanning the directory.
+     * @throws Exception   If there's an error communicating with Solr; the
+     *                     first root's failure, with any others suppressed
+     */
+    public void synchronizeFiles(SolrClientManager solrManager, SyncProgressListener progress) throws Exception {
+        long[][] rootProgress = new long[rootSyncs.size()][3];
+        List<Future<Void>> syncs = new ArrayList<>();
+        for (int i = 0; i < rootSyncs.size(); i++) {
+            int root = i;
+            syncs.add(rootSyncs.get(i).synchronize(solrManager, progress == null ? null
+                    : (scanned, sent, acknowledged) -> reportTotalProgress(progress, rootProgress, root, scanned,
+                            sent, acknowledged)));
+        }
+        Exception failure = null;
+        for (Future<Void> sync : syncs) {
+            try {
+                ShareRootSync.await(sync);
+            } catch (InterruptedException e) {
+                syncs.forEach(s -> s.cancel(true));
+                throw e;
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
             }
         }
+        if (failure != null) {
+            throw failure;
+        }
+    }
 
-        // Files to REMOVE: Present in index but not locally
-        for (FileMetaData indexedFile : currentIndexedFiles) {
-            // Need to find the corresponding Solr ID for deletion
-            String fileId = indexedFile.getId(); // Assuming findFilesByUser returns full FileMetaData with ID
-            if (fileId == null) {
-                log.warn("Indexed file '{}' missing Solr ID, cannot generate remove operation.",
-                        indexedFile.getFilename());
-                continue; // Skip if we don't have the ID
+    private static void reportTotalProgress(SyncProgressListener progress, long[][] rootProgress, int root,
+            long scanned, long sent, long acknowledged) {
+        long totalScanned = 0;
+        long totalSent = 0;
+        long totalAcknowledged = 0;
+        synchronized (rootProgress) {
+            rootProgress[root][0] = scanned;
+            rootProgress[root][1] = sent;
+            rootProgress[root][2] = acknowledged;
+            for (long[] counts : rootProgress) {
+                totalScanned += counts[0];
+                totalSent += counts[1];
+                totalAcknowledged += counts[2];
             }
-            // Recreate a comparable FileMetaData object without IP/Port/ID for comparison
-            // based on name/owner
-            FileMetaData comparableIndexedFile = new FileMetaData(indexedFile.getFilename(), indexedFile.getSize(),
-                    indexedFile.getOwnerUsername());
-            if (!currentLocalFiles.contains(comparableIndexedFile)) {
-                // Important: Use the indexedFile object which contains the Solr ID for removal
-                updates.add(new UpdateOperation(UpdateOperation.Type.REMOVE, indexedFile));
+            // Reported under the lock, so totals never go backwards
+            progress.onProgress(totalScanned, totalSent, totalAcknowledged);
+        }
+    }
+
+    /**
+     * Starts live sync: the share roots are watched, and each burst of file
+     * changes is turned into only the matching add/update/remove updates, so
+     * adding one file costs one Solr update instead of a full rescan. Each
+     * root is still fully synchronized at its scan interval, and whenever
+     * change events were lost or could not be applied. Expects an initial full
+     * sync to have run. Updates are applied on the root's sync thread, in turn
+     * with its syncs.
+     *
+     * @param solrManager The Solr client manager to send updates through
+     * @throws IOException If a share root cannot be watched; live sync still
+     *                     runs for the others
+     */
+    public synchronized void startLiveSync(SolrClientManager solrManager) throws IOException {
+        List<String> failures = new ArrayList<>();
+        for (ShareRootSync rootSync : rootSyncs) {
+            try {
+                rootSync.startLiveSync(solrManager);
+            } catch (IOException e) {
+                log.warn("Cannot watch {}: {}", rootSync.getRoot().getDirectory(), e.getMessage());
+                failures.add(rootSync.getRoot().getDirectory() + ": " + e.getMessage());
             }
         }
+        if (!failures.isEmpty()) {
+            throw new IOException("Cannot watch " + String.join("; ", failures));
+        }
+    }
 
-        // 4. Apply updates to Solr
-        if (!updates.isEmpty()) {
-            log.info("Applying {} updates to Solr index for user {}", updates.size(), username);
-            solrManager.applyFileUpdates(username, updates);
-            log.info("Solr index updates applied successfully.");
-        } else {
-            log.info("No changes detected. Local directory and Solr index are synchronized for {}", username);
+    /**
+     * Stops watching the share roots. Changes made afterwards are only picked
+     * up by a manual sync. Live sync work already queued on the sync threads is
+     * dropped, but an update or sync running there is left to finish.
+     */
+    public synchronized void stopLiveSync() {
+        for (ShareRootSync rootSync : rootSyncs) {
+            rootSync.stopLiveSync();
         }
+    }
 
-        // 5. Update local cache (replace entirely with the latest scan)
-        localSharedFiles.clear();
-        localSharedFiles.addAll(currentLocalFiles);
-        log.info("Synchronization complete. Local cache updated with {} files.", localSharedFiles.size());
+    /**
+     * @return Whether live sync runs for any share root
+     */
+    public synchronized boolean isLiveSyncRunning() {
+        for (ShareRootSync rootSync : rootSyncs) {
+            if (rootSync.isLiveSyncRunning()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Scans the publish directory recursively and returns a set of FileMetaData
-     * objects.
+     * Finds the local file published under a path, across all share roots, for
+     * the file server. Only regular files the sharing rules share are found.
      *
-     * @return A Set of FileMetaData representing files in the publish directory.
-     * @throws IOException If an I/O error occurs during directory scanning.
-     */
-    private Set<FileMetaData> scanPublishDirectory() throws IOException {
-        Set<FileMetaData> files = new HashSet<>();
-        if (!Files.isDirectory(publishDirectory)) {
-            log.warn("Publish directory {} does not exist or is not a directory. Cannot scan.", publishDirectory);
-            return files; // Return empty set
-        }
-
-        Files.walkFileTree(publishDirectory, new SimpleFileVisitor<>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if (attrs.isRegularFile()) {
-                    // Use relative path for filename to keep it consistent? No, use just the name.
-                    String filename = file.getFileName().toString();
-                    long size = attrs.size();
-                    files.add(new FileMetaData(filename, size, username)); // ID, IP, Port are set later by SolrManager
-                                                                           // when adding
-                }
-                return FileVisitResult.CONTINUE;
-            }
+     * @param relativePath The path the file was published under
+     * @return The file, or null if no shared file has that path
+     */
+    public Path findSharedFile(String relativePath) {
+        if (rootSyncs.size() == 1 && shareRoots.get(0).getName().isEmpty()) {
+            return rootSyncs.get(0).findSharedFile(relativePath);
+        }
+        int slash = relativePath.indexOf('/');
+        if (slash <= 0 || slash == relativePath.length() - 1) {
+            return null;
+        }
+        ShareRootSync rootSync = rootSyncsByName.get(relativePath.substring(0, slash));
+        return rootSync != null ? rootSync.findSharedFile(relativePath.substring(slash + 1)) : null;
+    }
 
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-                log.warn("Failed to access file during scan: {} ({})", file, exc.getMessage());
-                return FileVisitResult.CONTINUE; // Skip problematic files
+    /**
+     * Joins the elements of a path relative to a share root with '/',
+     * so the same file gets the same path (and Solr ID) on every platform.
+     */
+    static String toRelativePath(Path relative) {
+        StringBuilder sb = new StringBuilder();
+        for (Path element : relative) {
+            if (sb.length() > 0) {
+                sb.append('/');
             }
-        });
-        return files;
+            sb.append(element);
+        }
+        return sb.toString();
     }
-}
\ No newline at end of file
+}
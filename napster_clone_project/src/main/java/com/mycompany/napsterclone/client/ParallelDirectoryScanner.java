@@ -0,0 +1,374 @@
+package com.mycompany.napsterclone.client;
+
+import com.mycompany.napsterclone.util.PathOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Walks a directory tree with one fork/join task per directory, so directories
+ * are listed and their entries stat'ed in parallel. On network-mounted shares
+ * nearly all of a scan is waiting for round trips, which this overlaps; at most
+ * {@code parallelism} directories are read at once, so a NAS is not flooded.
+ * Tasks never wait on each other (each completes its parent when its subtree
+ * is done), so the pool never adds threads beyond that bound.
+ * <p>
+ * {@link #scan} passes regular files to a visitor as they are found, from the
+ * worker threads and in no particular order. {@link #scanInPathOrder} returns
+ * them sorted by relative path instead, reading ahead of the caller. Symbolic
+ * links are not followed, and unreadable directories are logged and skipped,
+ * as with {@link Files#walkFileTree}. Files and directories left out by the
+ * scanner's {@link SharingRules} are skipped on the worker threads, and
+ * excluded directories are not listed at all.
+ */
+public final class ParallelDirectoryScanner {
+    private static final Logger log = LoggerFactory.getLogger(ParallelDirectoryScanner.class);
+
+    /**
+     * Receives the files found by a scan. Called concurrently from several
+     * threads, so implementations must be thread-safe.
+     */
+    public interface FileVisitor {
+        /**
+         * @param relativePath The path relative to the scanned root, with '/'
+         *                     separators
+         * @param file         The file
+         * @param attrs        The file's attributes
+         */
+        void visitFile(String relativePath, Path file, BasicFileAttributes attrs);
+    }
+
+    /**
+     * A regular file found by {@link #scanInPathOrder(Path)}.
+     */
+    public static final class ScannedFile {
+        private final String relativePath;
+        private final Path file;
+        private final BasicFileAttributes attrs;
+
+        ScannedFile(String relativePath, Path file, BasicFileAttributes attrs) {
+            this.relativePath = relativePath;
+            this.file = file;
+            this.attrs = attrs;
+        }
+
+        /**
+         * @return The path relative to the scanned root, with '/' separators
+         */
+        public String getRelativePath() {
+            return relativePath;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public BasicFileAttributes getAttributes() {
+            return attrs;
+        }
+    }
+
+    // Directory listings read ahead of an ordered scan, per unit of parallelism
+    private static final int PREFETCH_PER_THREAD = 4;
+
+    private final int parallelism;
+    private final SharingRules rules;
+
+    /**
+     * Creates a scanner that visits every regular file.
+     *
+     * @param parallelism The most directories read at the same time
+     */
+    public ParallelDirectoryScanner(int parallelism) {
+        this(parallelism, SharingRules.EVERYTHING);
+    }
+
+    /**
+     * @param parallelism The most directories read at the same time
+     * @param rules       Which files and directories the scan takes in
+     */
+    public ParallelDirectoryScanner(int parallelism, SharingRules rules) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.rules = rules;
+    }
+
+    /**
+     * Scans a directory tree and waits for the scan to finish.
+     *
+     * @param root    The directory to scan
+     * @param visitor Receives every regular file under root
+     * @return The number of files visited
+     */
+    public long scan(Path root, FileVisitor visitor) {
+        AtomicLong fileCount = new AtomicLong();
+        ForkJoinPool pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("DirectoryScanner-" + t.getPoolIndex());
+            return t;
+        }, null, false);
+        try {
+            pool.invoke(new DirectoryTask(null, root, "", rules, visitor, fileCount));
+        } finally {
+            pool.shutdown();
+        }
+        return fileCount.get();
+    }
+
+    /**
+     * Starts a scan that returns the regular files under root sorted by
+     * relative path in {@link PathOrder}, which is also the order of
+     * {@link com.mycompany.napsterclone.solr.SolrClientManager#streamFilesByUserInPathOrder}.
+     * Directories are still read in parallel: while the caller works through
+     * one, the listings of the directories it will reach next are read ahead.
+     * Memory is bounded by those listings and the directories above the
+     * current one, whatever the size of the tree.
+     * <p>
+     * The returned scan must be closed, and is not thread-safe.
+     *
+     * @param root The directory to scan
+     * @return The files, in path order
+     */
+    public OrderedScan scanInPathOrder(Path root) {
+        return new OrderedScan(root);
+    }
+
+    /**
+     * A directory tree walked depth-first with each directory's entries sorted,
+     * which yields paths in PathOrder when a subdirectory sorts as its name
+     * followed by '/': everything in "a b" comes before "a/x", which comes
+     * before "a0".
+     */
+    public final class OrderedScan implements Iterator<ScannedFile>, AutoCloseable {
+        private final ExecutorService executor;
+        private final int maxPrefetched = parallelism * PREFETCH_PER_THREAD;
+        private final Deque<Frame> stack = new ArrayDeque<>();
+        private int prefetched;
+        private ScannedFile next;
+
+        private OrderedScan(Path root) {
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(parallelism, r -> {
+                Thread t = new Thread(r, "DirectoryScanner-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            stack.push(new Frame(list(root, "", rules)));
+            prefetch();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public ScannedFile next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ScannedFile file = next;
+            next = null;
+            return file;
+        }
+
+        @Override
+        public void close() {
+            executor.shutdownNow();
+        }
+
+        private ScannedFile advance() {
+            while (!stack.isEmpty()) {
+                Frame frame = stack.peek();
+                if (frame.position == frame.entries.size()) {
+                    stack.pop();
+                    continue;
+                }
+                Entry entry = frame.entries.get(frame.position);
+                frame.entries.set(frame.position++, null); // Let consumed entries go
+                if (!entry.isDirectory) {
+                    return entry.file;
+                }
+                List<Entry> listing;
+                if (entry.directoryListing != null) {
+                    prefetched--;
+                    listing = await(entry.directoryListing);
+                } else {
+                    // Not reached by prefetch yet
+                    listing = list(entry.file.getFile(), entry.file.getRelativePath(), rules);
+                }
+                stack.push(new Frame(listing));
+                prefetch();
+            }
+            return null;
+        }
+
+        /**
+         * Starts reading the directories the scan reaches next: the current
+         * directory's subdirectories first, then those of the directories
+         * above it, up to the read-ahead limit.
+         */
+        private void prefetch() {
+            for (Frame frame : stack) { // Top of the stack first
+                frame.prefetchPosition = Math.max(frame.prefetchPosition, frame.position);
+                while (frame.prefetchPosition < frame.entries.size()) {
+                    if (prefetched >= maxPrefetched) {
+                        return;
+                    }
+                    Entry entry = frame.entries.get(frame.prefetchPosition++);
+                    if (entry.isDirectory) {
+                        ScannedFile directory = entry.file;
+                        entry.directoryListing = executor.submit(
+                                () -> list(directory.getFile(), directory.getRelativePath(), rules));
+                        prefetched++;
+                    }
+                }
+            }
+        }
+
+        private List<Entry> await(Future<List<Entry>> listing) {
+            try {
+                return listing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException("Interrupted while scanning"));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException("Directory listing failed", cause);
+            }
+        }
+    }
+
+    /**
+     * Lists a directory's shared subdirectories and regular files, sorted so
+     * that a depth-first walk yields paths in PathOrder.
+     */
+    private static List<Entry> list(Path directory, String relativePath, SharingRules rules) {
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    log.warn("Failed to access file during scan: {} ({})", path, e.getMessage());
+                    continue;
+                }
+                String entryPath = relativePath.isEmpty() ? name : relativePath + "/" + name;
+                if (attrs.isDirectory() ? rules.isDirectoryShared(entryPath, name, attrs)
+                        : attrs.isRegularFile() && rules.isFileShared(entryPath, name, attrs)) {
+                    entries.add(new Entry(name, attrs.isDirectory(), new ScannedFile(entryPath, path, attrs)));
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to access directory during scan: {} ({})", directory, e.getMessage());
+        }
+        entries.sort((a, b) -> PathOrder.compare(a.sortKey, b.sortKey));
+        return entries;
+    }
+
+    private static final class Entry {
+        final String sortKey;
+        final boolean isDirectory;
+        final ScannedFile file;
+        Future<List<Entry>> directoryListing; // Set once read ahead
+
+        Entry(String name, boolean isDirectory, ScannedFile file) {
+            this.sortKey = isDirectory ? name + "/" : name;
+            this.isDirectory = isDirectory;
+            this.file = file;
+        }
+    }
+
+    private static final class Frame {
+        final List<Entry> entries;
+        int position;
+        int prefetchPosition;
+
+        Frame(List<Entry> entries) {
+            this.entries = entries;
+        }
+    }
+
+    private static final class DirectoryTask extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final String relativePath;
+        private final SharingRules rules;
+        private final FileVisitor visitor;
+        private final AtomicLong fileCount;
+
+        DirectoryTask(DirectoryTask parent, Path directory, String relativePath, SharingRules rules,
+                FileVisitor visitor, AtomicLong fileCount) {
+            super(parent);
+            this.directory = directory;
+            this.relativePath = relativePath;
+            this.rules = rules;
+            this.visitor = visitor;
+            this.fileCount = fileCount;
+        }
+
+        @Override
+        public void compute() {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    String entryPath = relativePath.isEmpty() ? name : relativePath + "/" + name;
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        log.warn("Failed to access file during scan: {} ({})", entry, e.getMessage());
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        if (rules.isDirectoryShared(entryPath, name, attrs)) {
+                            addToPendingCount(1);
+                            // Listed by another worker while this one carries on
+                            new DirectoryTask(this, entry, entryPath, rules, visitor, fileCount).fork();
+                        }
+                    } else if (attrs.isRegularFile() && rules.isFileShared(entryPath, name, attrs)) {
+                        visitor.visitFile(entryPath, entry, attrs);
+                        fileCount.incrementAndGet();
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Failed to access directory during scan: {} ({})", directory, e.getMessage());
+            }
+            tryComplete();
+        }
+    }
+}
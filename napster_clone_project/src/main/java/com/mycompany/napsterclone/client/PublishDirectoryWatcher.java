@@ -0,0 +1,254 @@
+package com.mycompany.napsterclone.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a publish directory and all its subdirectories for created, modified
+ * and deleted files. Events are collected until the directory has been quiet
+ * for the debounce delay (or a burst has gone on for the maximum delay), then
+ * the distinct paths involved are handed to the listener in one batch, so
+ * copying an album in results in one update instead of hundreds. Directories
+ * the sharing rules exclude are not watched.
+ */
+class PublishDirectoryWatcher {
+    private static final Logger log = LoggerFactory.getLogger(PublishDirectoryWatcher.class);
+
+    /**
+     * Receives debounced changes on the watcher thread.
+     */
+    interface Listener {
+        /**
+         * @param changedPaths Absolute paths of files that were created, modified
+         *                     or deleted, and of deleted directories. Files inside
+         *                     a newly created directory are listed individually.
+         */
+        void onChanges(Set<Path> changedPaths);
+
+        /**
+         * Called when events were lost, e.g. because the OS event queue
+         * overflowed. The listener should fall back to a full rescan.
+         */
+        void onOverflow();
+    }
+
+    private final Path root;
+    private final SharingRules rules;
+    private final long debounceMillis;
+    private final long maxDelayMillis;
+    private final Listener listener;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private WatchService watchService;
+    private Thread thread;
+
+    /**
+     * @param root           The publish directory
+     * @param rules          Which directories under root are watched
+     * @param debounceMillis Quiet period after the last event before a batch is
+     *                       delivered
+     * @param maxDelayMillis Longest a batch is held back during a continuous
+     *                       burst of events
+     * @param listener       Receives the batches
+     */
+    PublishDirectoryWatcher(Path root, SharingRules rules, long debounceMillis, long maxDelayMillis,
+            Listener listener) {
+        this.root = root;
+        this.rules = rules;
+        this.debounceMillis = debounceMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Registers the directory tree and starts the watcher thread.
+     *
+     * @throws IOException If the watch service cannot be created or the root
+     *                     cannot be registered
+     */
+    synchronized void start(String threadName) throws IOException {
+        if (thread != null) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            registerTree(root, null);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        log.info("Watching {} ({} directories)", root, watchedDirectories.size());
+        thread = new Thread(this::run, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("Error closing watch service for {}: {}", root, e.getMessage());
+        }
+        thread = null;
+        log.info("Stopped watching {}", root);
+    }
+
+    private void run() {
+        Set<Path> pending = new LinkedHashSet<>();
+        long batchStartedNanos = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key;
+                if (pending.isEmpty()) {
+                    key = watchService.take();
+                    batchStartedNanos = System.nanoTime();
+                } else {
+                    long heldMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStartedNanos);
+                    long wait = Math.min(debounceMillis, maxDelayMillis - heldMillis);
+                    key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+                }
+                if (key == null) {
+                    deliver(pending);
+                    pending = new LinkedHashSet<>();
+                    continue;
+                }
+                if (!collect(key, pending)) {
+                    pending.clear();
+                    reregisterTree();
+                    notifyOverflow();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * Adds the paths of one key's events to the pending batch.
+     *
+     * @return false if events were lost
+     */
+    private boolean collect(WatchKey key, Set<Path> pending) {
+        Path directory = watchedDirectories.get(key);
+        boolean complete = true;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            WatchEvent.Kind<?> kind = event.kind();
+            if (kind == StandardWatchEventKinds.OVERFLOW) {
+                complete = false;
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            boolean isDirectory = Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+            if (kind == StandardWatchEventKinds.ENTRY_CREATE && isDirectory) {
+                // Files may have landed in it before it was registered
+                try {
+                    registerTree(path, pending);
+                } catch (IOException e) {
+                    log.warn("Could not watch new directory {}: {}", path, e.getMessage());
+                    complete = false;
+                }
+            } else if (!isDirectory) {
+                // A modified directory only means its entries changed, which
+                // have events of their own
+                pending.add(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key); // Directory is gone; its files were reported
+        }
+        return complete;
+    }
+
+    /**
+     * Registers any directory whose creation event may have been lost.
+     * Directories already registered keep their key.
+     */
+    private void reregisterTree() {
+        try {
+            registerTree(root, null);
+        } catch (IOException e) {
+            log.warn("Could not re-register watches under {}: {}", root, e.getMessage());
+        }
+    }
+
+    /**
+     * Registers a directory and its shared subdirectories.
+     *
+     * @param found If not null, receives every regular file already present
+     */
+    private void registerTree(Path start, Set<Path> found) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(root) && !rules.isDirectoryShared(ClientManager.toRelativePath(root.relativize(dir)),
+                        dir.getFileName().toString(), attrs)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirectories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (found != null && attrs.isRegularFile()) {
+                    found.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                log.warn("Failed to access {} while registering watches: {}", file, exc.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void notifyOverflow() {
+        log.warn("Change events under {} were lost", root);
+        try {
+            listener.onOverflow();
+        } catch (RuntimeException e) {
+            log.error("Failed to handle lost change events under {}", root, e);
+        }
+    }
+
+    private void deliver(Set<Path> pending) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        log.debug("Delivering {} changed paths under {}", pending.size(), root);
+        try {
+            listener.onChanges(pending);
+        } catch (RuntimeException e) {
+            log.error("Failed to handle changes under {}", root, e);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.mycompany.napsterclone.client;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A directory whose files are shared, with how it is scanned. Each root is
+ * synchronized on its own thread at its own interval, so a slow disk does not
+ * hold up the others. Immutable.
+ * <p>
+ * Files are published under their path relative to the root, prefixed with
+ * the root's name: "Music/Artist/Song.mp3" for a root named "Music". A client
+ * sharing a single directory uses one root with an empty name and publishes
+ * plain relative paths, as it always has.
+ */
+public final class ShareRoot {
+    /**
+     * How often a root is fully rescanned while live sync runs, in case change
+     * events were missed.
+     */
+    public static final long DEFAULT_SCAN_INTERVAL_MS = 15 * 60 * 1000;
+
+    /**
+     * Directories listed at once while scanning. Scans mostly wait on the disk
+     * or network, so more than the number of cores pays off.
+     */
+    public static final int DEFAULT_SCAN_PARALLELISM = 16;
+
+    private final String name;
+    private final Path directory;
+    private final long scanIntervalMillis;
+    private final int scanParallelism;
+
+    /**
+     * Creates a root scanned with the default interval and parallelism.
+     *
+     * @param name      The name published paths start with, or "" for the only
+     *                  root of a client
+     * @param directory The directory to share
+     */
+    public ShareRoot(String name, Path directory) {
+        this(name, directory, DEFAULT_SCAN_INTERVAL_MS, DEFAULT_SCAN_PARALLELISM);
+    }
+
+    private ShareRoot(String name, Path directory, long scanIntervalMillis, int scanParallelism) {
+        if (name.indexOf('/') >= 0 || name.indexOf('\\') >= 0 || name.equals(".") || name.equals("..")) {
+            throw new IllegalArgumentException("Invalid share root name: '" + name + "'");
+        }
+        if (scanIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Scan interval must be positive: " + scanIntervalMillis);
+        }
+        if (scanParallelism < 1) {
+            throw new IllegalArgumentException("Scan parallelism must be at least 1: " + scanParallelism);
+        }
+        this.name = name;
+        this.directory = directory.toAbsolutePath();
+        this.scanIntervalMillis = scanIntervalMillis;
+        this.scanParallelism = scanParallelism;
+    }
+
+    /**
+     * Creates a root for each directory, named after the directory, with a
+     * number added where names repeat. A single directory gets the empty name,
+     * so its files keep the paths they were published under before.
+     *
+     * @param directories The directories to share
+     */
+    public static List<ShareRoot> forDirectories(List<Path> directories) {
+        List<ShareRoot> roots = new ArrayList<>();
+        if (directories.size() == 1) {
+            roots.add(new ShareRoot("", directories.get(0)));
+            return roots;
+        }
+        Set<String> names = new HashSet<>();
+        for (Path directory : directories) {
+            Path absolute = directory.toAbsolutePath();
+            Path fileName = absolute.getFileName();
+            String base = fileName != null ? fileName.toString() : "Share"; // A drive or file system root
+            String name = base;
+            for (int i = 2; !names.add(name); i++) {
+                name = base + " (" + i + ")";
+            }
+            roots.add(new ShareRoot(name, absolute));
+        }
+        return roots;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getScanIntervalMillis() {
+        return scanIntervalMillis;
+    }
+
+    public int getScanParallelism() {
+        return scanParallelism;
+    }
+
+    /**
+     * The start of the published paths of this root's files: the name and a
+     * '/', or "" for an unnamed root.
+     */
+    public String getPathPrefix() {
+        return name.isEmpty() ? "" : name + "/";
+    }
+
+    /**
+     * @param scanIntervalMillis How often the root is fully rescanned while
+     *                           live sync runs
+     */
+    public ShareRoot withScanInterval(long scanIntervalMillis) {
+        return new ShareRoot(name, directory, scanIntervalMillis, scanParallelism);
+    }
+
+    /**
+     * @param scanParallelism The most directories read at once while scanning;
+     *                        lower for a disk that slows down under concurrent
+     *                        reads, such as a USB hard disk
+     */
+    public ShareRoot withScanParallelism(int scanParallelism) {
+        return new ShareRoot(name, directory, scanIntervalMillis, scanParallelism);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        ShareRoot that = (ShareRoot) o;
+        return scanIntervalMillis == that.scanIntervalMillis &&
+                scanParallelism == that.scanParallelism &&
+                name.equals(that.name) &&
+                directory.equals(that.directory);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, directory, scanIntervalMillis, scanParallelism);
+    }
+
+    @Override
+    public String toString() {
+        return "ShareRoot{" +
+                "name='" + name + '\'' +
+                ", directory=" + directory +
+                ", scanIntervalMillis=" + scanIntervalMillis +
+                ", scanParallelism=" + scanParallelism +
+                '}';
+    }
+}
@@ -0,0 +1,758 @@
+package com.mycompany.napsterclone.client;
+
+import com.mycompany.napsterclone.model.FileMetaData;
+import com.mycompany.napsterclone.model.UpdateOperation;
+import com.mycompany.napsterclone.solr.FileDocIds;
+import com.mycompany.napsterclone.solr.SolrClientManager;
+import com.mycompany.napsterclone.util.PathOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synchronizes one {@link ShareRoot} with the index. Full syncs, live sync
+ * updates and the periodic rescan of the root all run on the root's own sync
+ * thread, which alone reads and writes the root's sync state, so nothing
+ * there needs locking, and a slow root holds up neither the other roots nor
+ * the caller of a lifecycle method. The thread exits when idle.
+ * <p>
+ * The root owns a range of the user's indexed paths: its own, and any left
+ * between it and the next root, such as those of a root no longer shared,
+ * which its full syncs remove.
+ */
+final class ShareRootSync {
+    private static final Logger log = LoggerFactory.getLogger(ShareRootSync.class);
+
+    private static final long SYNC_THREAD_KEEP_ALIVE_MS = 60000;
+
+    // Sync updates are sent while the diff runs, this many to a batch, with a
+    // configurable number of batches awaiting acknowledgement
+    private static final int SYNC_BATCH_SIZE = 1000;
+    // How often a sync that rebuilds the cache saves how far it got, and how
+    // many scanned files go by between progress reports
+    private static final long SYNC_CHECKPOINT_INTERVAL_MS = 30000;
+    private static final int SCAN_PROGRESS_INTERVAL = 10000;
+
+    // Live sync: file system events are debounced into small updates, with a
+    // periodic full sync in case events were missed
+    private static final long LIVE_SYNC_DEBOUNCE_MS = 1000;
+    private static final long LIVE_SYNC_MAX_DELAY_MS = 10000;
+    private static final long RECONCILE_RETRY_DELAY_MS = 30000;
+
+    private final String username;
+    private final ShareRoot root;
+    private final Path directory;
+    private final String pathPrefix;
+    private final SharingRules sharingRules;
+    // The indexed paths this root's full syncs read, null for no bound
+    private final String rangeStart;
+    private final String rangeEnd;
+    private final ScheduledThreadPoolExecutor syncExecutor;
+    private volatile Thread syncThread;
+    private volatile int maxSyncBatchesInFlight;
+
+    // In-memory cache of the root's files currently shared, by relative path.
+    // Sorted like the index sorts paths, so a sync can merge-join the two and
+    // everything under a deleted directory is one range.
+    private final NavigableMap<String, FileMetaData> localSharedFiles = new TreeMap<>(PathOrder.COMPARATOR);
+
+    // Persisted copy of localSharedFiles and the sync version it was published
+    // under, so a sync only reads the index when the version stamped there differs
+    private final Path manifestFile;
+    private boolean manifestLoaded;
+    private Long syncVersion;
+    // Set while a sync that rebuilt the cache was interrupted: the cache then only
+    // holds the published files before this path, and the next sync resumes here
+    private String resumeFrom;
+
+    private PublishDirectoryWatcher directoryWatcher;
+    private ScheduledFuture<?> periodicReconcile;
+
+    /**
+     * @param username               The user sharing the files
+     * @param root                   The root to synchronize
+     * @param sharingRules           Which files under the root are shared
+     * @param rangeStart             The first indexed path the root owns
+     *                               (inclusive), or null
+     * @param rangeEnd               The indexed path its range ends at
+     *                               (exclusive), or null
+     * @param manifestFile           Where the root's sync manifest is kept
+     * @param maxSyncBatchesInFlight Batches of updates that may await
+     *                               acknowledgement at once
+     */
+    ShareRootSync(String username, ShareRoot root, SharingRules sharingRules, String rangeStart, String rangeEnd,
+            Path manifestFile, int maxSyncBatchesInFlight) {
+        this.username = username;
+        this.root = root;
+        this.directory = root.getDirectory();
+        this.pathPrefix = root.getPathPrefix();
+        this.sharingRules = sharingRules;
+        this.rangeStart = rangeStart;
+        this.rangeEnd = rangeEnd;
+        this.manifestFile = manifestFile;
+        this.maxSyncBatchesInFlight = maxSyncBatchesInFlight;
+        this.syncExecutor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "Sync-" + threadSuffix());
+            t.setDaemon(true);
+            syncThread = t;
+            return t;
+        });
+        this.syncExecutor.setKeepAliveTime(SYNC_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+        this.syncExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    ShareRoot getRoot() {
+        return root;
+    }
+
+    void setMaxSyncBatchesInFlight(int maxSyncBatchesInFlight) {
+        this.maxSyncBatchesInFlight = maxSyncBatchesInFlight;
+    }
+
+    /**
+     * Queues a full sync of the root on its sync thread, after any sync or live
+     * sync update already queued there, or runs it right away if called on that
+     * thread.
+     *
+     * @param solrManager The Solr client manager to interact with the index
+     * @param progress    Receives progress while the sync runs, or null
+     * @return The sync, done when it is
+     */
+    Future<Void> synchronize(SolrClientManager solrManager, ClientManager.SyncProgressListener progress) {
+        if (Thread.currentThread() == syncThread) {
+            CompletableFuture<Void> sync = new CompletableFuture<>();
+            try {
+                runSync(solrManager, progress);
+                sync.complete(null);
+            } catch (Exception e) {
+                sync.completeExceptionally(e);
+            }
+            return sync;
+        }
+        return syncExecutor.submit(() -> {
+            runSync(solrManager, progress);
+            return null;
+        });
+    }
+
+    /**
+     * Waits for a sync started by {@link #synchronize}, cancelling it if the
+     * wait is interrupted.
+     *
+     * @throws Exception What the sync failed with
+     */
+    static void await(Future<Void> sync) throws Exception {
+        try {
+            sync.get();
+        } catch (InterruptedException e) {
+            sync.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Scans the root, diffs it with what was last published and sends the
+     * updates, as described at
+     * {@link ClientManager#synchronizeFiles(SolrClientManager, ClientManager.SyncProgressListener)}.
+     * Runs on the sync thread only.
+     */
+    private void runSync(SolrClientManager solrManager, ClientManager.SyncProgressListener progress)
+            throws Exception {
+        log.info("Starting file synchronization of {} for user: {}", directory, username);
+        if (!manifestLoaded) {
+            loadManifest();
+        }
+
+        // 1. Diff against the manifest if the index still holds exactly its files,
+        // or else against the files indexed in Solr for THIS root: all of them, or
+        // those from where an interrupted sync stopped
+        Long indexedVersion = solrManager.getSyncVersion(username, root.getName());
+        boolean versionMatches = syncVersion != null && syncVersion.equals(indexedVersion);
+        boolean manifestCurrent = versionMatches && resumeFrom == null;
+        String indexFrom = versionMatches ? resumeFrom : null;
+        List<FileMetaData> manifestFiles;
+        if (manifestCurrent) {
+            log.debug("Sync manifest matches the index (version {}); not fetching indexed files", syncVersion);
+            manifestFiles = new ArrayList<>(localSharedFiles.values()); // The cache changes during the diff
+        } else if (indexFrom != null) {
+            log.info("Resuming an interrupted sync (version {}); fetching indexed files from '{}'", syncVersion,
+                    indexFrom);
+            manifestFiles = new ArrayList<>(localSharedFiles.values());
+        } else {
+            log.info("Sync manifest version {} does not match the index ({}); fetching indexed files",
+                    syncVersion, indexedVersion);
+            // The cache is rebuilt from the scan as the diff runs. The index is
+            // stamped first, so that checkpoints saved on the way can be trusted.
+            syncVersion = null;
+            resumeFrom = null;
+            localSharedFiles.clear();
+            manifestFiles = List.of();
+            long newVersion = ThreadLocalRandom.current().nextLong();
+            solrManager.setSyncVersion(username, root.getName(), newVersion);
+            syncVersion = newVersion;
+        }
+
+        // 2 & 3. Merge the sorted local scan with the sorted published files,
+        // sending updates as they are found
+        UpdateBatcher batcher = new UpdateBatcher(solrManager, progress, !manifestCurrent, indexFrom);
+        Set<String> invalidatedRoots = new HashSet<>();
+        boolean completed = false;
+        try (ParallelDirectoryScanner.OrderedScan scan = scanRoot()) {
+            Iterator<FileMetaData> localFiles = new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return scan.hasNext();
+                }
+
+                @Override
+                public FileMetaData next() {
+                    ParallelDirectoryScanner.ScannedFile file = scan.next();
+                    batcher.fileScanned();
+                    BasicFileAttributes attrs = file.getAttributes();
+                    return new FileMetaData(file.getFile().getFileName().toString(),
+                            toPublishedPath(file.getRelativePath()), attrs.size(),
+                            attrs.lastModifiedTime().toMillis(), username); // ID is added by the diff
+                }
+            };
+            SortedFileDiff diff = new SortedFileDiff(localFiles, new SortedFileDiff.Listener() {
+                @Override
+                public void localOnly(FileMetaData localFile) {
+                    // Files to ADD: Present locally but not published
+                    batcher.add(new UpdateOperation(UpdateOperation.Type.ADD,
+                            localFile.withId(FileDocIds.forFile(username, localFile.getRelativePath()))));
+                }
+
+                @Override
+                public void publishedOnly(FileMetaData publishedFile) {
+                    // Files to REMOVE: Published but not present locally
+                    if (!manifestCurrent) {
+                        invalidateOtherRoots(solrManager, publishedFile.getRelativePath(), invalidatedRoots);
+                    }
+                    if (publishedFile.getId() == null) {
+                        publishedFile = publishedFile.withId(
+                                FileDocIds.forFile(username, publishedFile.getRelativePath()));
+                    }
+                    batcher.add(new UpdateOperation(UpdateOperation.Type.REMOVE, publishedFile));
+                }
+
+                @Override
+                public void both(FileMetaData localFile, FileMetaData publishedFile) {
+                    // Keep the indexed ID for the manifest and any update
+                    localFile = localFile.withId(publishedFile.getId());
+                    if (localFile.isModifiedComparedTo(publishedFile)) {
+                        // Files to UPDATE: Published, but changed since
+                        batcher.add(new UpdateOperation(UpdateOperation.Type.UPDATE, localFile));
+                    } else if (!manifestCurrent) {
+                        localSharedFiles.put(localFile.getRelativePath(), localFile);
+                    }
+                }
+            });
+
+            for (FileMetaData publishedFile : manifestFiles) {
+                diff.acceptPublished(publishedFile);
+            }
+            if (!manifestCurrent) {
+                long indexedCount = solrManager.streamFilesByUserInPathOrder(username,
+                        indexFrom != null ? indexFrom : rangeStart, rangeEnd, diff::acceptPublished);
+                log.debug("Found {} files indexed in Solr for {} in {}", indexedCount, username, directory);
+            }
+            diff.finish();
+            log.debug("Found {} files locally in {}", batcher.getScannedCount(), directory);
+
+            // 4. Send the last batch and wait for all of them
+            batcher.finish();
+            completed = true;
+        } catch (CompletionException e) {
+            // A batch failed while the diff was running
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            if (!completed) {
+                keepAcknowledgedUpdates(batcher, manifestCurrent);
+            }
+        }
+
+        if (batcher.getSentCount() > 0) {
+            log.info("Applied {} updates to Solr index for user {} from {}", batcher.getSentCount(), username,
+                    directory);
+        } else {
+            log.info("No changes detected. {} and Solr index are synchronized for {}", directory, username);
+        }
+
+        // 5. Save the manifest, complete again if this sync rebuilt the cache
+        if (!manifestCurrent || batcher.getSentCount() > 0) {
+            resumeFrom = null;
+            saveManifest();
+        }
+        log.info("Synchronization of {} complete. Local cache updated with {} files.", directory,
+                localSharedFiles.size());
+    }
+
+    /**
+     * Clears the sync versions of the roots, shared now or before, that a file
+     * about to be removed may have been published from, so that such a root
+     * shared again does not trust its old manifest. Only a change of roots
+     * leaves files of another root in this root's range, and such a change
+     * always makes the sync rebuild the cache, so this is only called then.
+     *
+     * @throws CompletionException If a version cannot be cleared
+     */
+    private void invalidateOtherRoots(SolrClientManager solrManager, String relativePath,
+            Set<String> invalidatedRoots) {
+        if (!pathPrefix.isEmpty() && relativePath.startsWith(pathPrefix)) {
+            return; // This root's own file
+        }
+        int slash = relativePath.indexOf('/');
+        List<String> owners = new ArrayList<>(2);
+        if (slash > 0) {
+            owners.add(relativePath.substring(0, slash));
+        }
+        if (!pathPrefix.isEmpty()) {
+            owners.add(""); // An unnamed root publishes paths without a prefix
+        }
+        for (String owner : owners) {
+            if (!owner.equals(root.getName()) && invalidatedRoots.add(owner)) {
+                try {
+                    solrManager.setSyncVersion(username, owner, null);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps what a failed or interrupted sync got done. The updates Solr
+     * acknowledged are in the cache already. Diffing against the manifest, the
+     * cache now matches the index but for the unacknowledged updates, which
+     * the next sync finds again. Rebuilding the cache, it only matches the
+     * index before the last acknowledged path, which the next sync resumes
+     * from.
+     */
+    private void keepAcknowledgedUpdates(UpdateBatcher batcher, boolean manifestCurrent) {
+        if (manifestCurrent) {
+            if (batcher.getAcknowledgedCount() > 0) {
+                saveManifest();
+            }
+            return;
+        }
+        String checkpoint = batcher.getCheckpoint();
+        if (checkpoint == null) {
+            syncVersion = null; // Nothing acknowledged to resume from
+            return;
+        }
+        resumeFrom = checkpoint;
+        localSharedFiles.tailMap(checkpoint, true).clear();
+        saveManifest();
+        log.info("Sync of {} for user '{}' stopped after {} acknowledged updates; the next sync resumes from '{}'",
+                directory, username, batcher.getAcknowledgedCount(), checkpoint);
+    }
+
+    /**
+     * Sends the updates found by a sync in batches while the diff is still
+     * running, with a bounded number of batches awaiting acknowledgement. Each
+     * batch is retried by the update queue; one that still fails surfaces as a
+     * CompletionException from {@link #add(UpdateOperation)} or
+     * {@link #finish()}. Acknowledged updates are applied to the cache in the
+     * order they were found, and a sync that rebuilds the cache saves a
+     * checkpoint now and then.
+     */
+    private final class UpdateBatcher {
+        private final SolrClientManager solrManager;
+        private final ClientManager.SyncProgressListener progress;
+        private final boolean rebuildingCache;
+        private final Deque<PendingBatch> inFlight = new ArrayDeque<>();
+        private List<UpdateOperation> batch = new ArrayList<>();
+        private long scannedCount;
+        private long sentCount;
+        private long acknowledgedCount;
+        private String checkpoint;
+        private long lastCheckpointNanos = System.nanoTime();
+
+        /**
+         * @param checkpoint The path the sync resumes from, or null
+         */
+        UpdateBatcher(SolrClientManager solrManager, ClientManager.SyncProgressListener progress,
+                boolean rebuildingCache, String checkpoint) {
+            this.solrManager = solrManager;
+            this.progress = progress;
+            this.rebuildingCache = rebuildingCache;
+            this.checkpoint = checkpoint;
+        }
+
+        void fileScanned() {
+            if (++scannedCount % SCAN_PROGRESS_INTERVAL == 0) {
+                reportProgress();
+            }
+        }
+
+        void add(UpdateOperation op) {
+            batch.add(op);
+            if (batch.size() >= SYNC_BATCH_SIZE) {
+                send();
+            }
+        }
+
+        void finish() {
+            send();
+            while (!inFlight.isEmpty()) {
+                awaitOldest();
+            }
+            reportProgress();
+        }
+
+        long getScannedCount() {
+            return scannedCount;
+        }
+
+        long getSentCount() {
+            return sentCount;
+        }
+
+        long getAcknowledgedCount() {
+            return acknowledgedCount;
+        }
+
+        /**
+         * @return The path before which the cache matches the index, for a sync
+         *         rebuilding the cache, or null if there is none yet
+         */
+        String getCheckpoint() {
+            return checkpoint;
+        }
+
+        private void send() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            inFlight.add(new PendingBatch(batch, solrManager.applyFileUpdatesAsync(username, batch)));
+            sentCount += batch.size();
+            batch = new ArrayList<>();
+            reportProgress();
+            while (inFlight.size() > maxSyncBatchesInFlight) {
+                awaitOldest();
+            }
+        }
+
+        private void awaitOldest() {
+            PendingBatch oldest = inFlight.peek();
+            oldest.acknowledged.join();
+            inFlight.poll();
+            for (UpdateOperation op : oldest.updates) {
+                FileMetaData file = op.getFileMetaData();
+                if (op.getType() != UpdateOperation.Type.REMOVE) {
+                    localSharedFiles.put(file.getRelativePath(), file);
+                } else {
+                    FileMetaData cached = localSharedFiles.get(file.getRelativePath());
+                    if (cached != null && Objects.equals(cached.getId(), file.getId())) {
+                        localSharedFiles.remove(file.getRelativePath()); // Not a duplicate of a kept file
+                    }
+                }
+            }
+            acknowledgedCount += oldest.updates.size();
+            reportProgress();
+            if (rebuildingCache) {
+                // Updates are found in path order, so everything before the last
+                // acknowledged one is settled
+                String lastPath = oldest.updates.get(oldest.updates.size() - 1).getFileMetaData().getRelativePath();
+                if (checkpoint == null || PathOrder.compare(lastPath, checkpoint) > 0) {
+                    checkpoint = lastPath;
+                }
+                if (System.nanoTime() - lastCheckpointNanos >= TimeUnit.MILLISECONDS.toNanos(
+                        SYNC_CHECKPOINT_INTERVAL_MS)) {
+                    saveManifest(checkpoint, localSharedFiles.headMap(checkpoint, false).values());
+                    lastCheckpointNanos = System.nanoTime();
+                }
+            }
+        }
+
+        private void reportProgress() {
+            if (progress != null) {
+                progress.onProgress(scannedCount, sentCount, acknowledgedCount);
+            }
+        }
+    }
+
+    private static final class PendingBatch {
+        final List<UpdateOperation> updates;
+        final CompletableFuture<Void> acknowledged;
+
+        PendingBatch(List<UpdateOperation> updates, CompletableFuture<Void> acknowledged) {
+            this.updates = updates;
+            this.acknowledged = acknowledged;
+        }
+    }
+
+    private void loadManifest() {
+        SyncManifest manifest = SyncManifest.load(manifestFile, username);
+        localSharedFiles.clear();
+        for (FileMetaData file : manifest.getFiles()) {
+            localSharedFiles.put(file.getRelativePath(), file);
+        }
+        syncVersion = manifest.getSyncVersion();
+        resumeFrom = manifest.getResumeFrom();
+        manifestLoaded = true;
+    }
+
+    /**
+     * Saves localSharedFiles as the sync manifest. Failing to save is not fatal;
+     * the next sync may just have to read the index.
+     */
+    private void saveManifest() {
+        saveManifest(resumeFrom, localSharedFiles.values());
+    }
+
+    private void saveManifest(String resumeFrom, Collection<FileMetaData> files) {
+        try {
+            SyncManifest.save(manifestFile, username, syncVersion, resumeFrom, files);
+        } catch (IOException e) {
+            log.warn("Failed to save sync manifest {}: {}", manifestFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Starts watching the root; see
+     * {@link ClientManager#startLiveSync(SolrClientManager)}. The root is also
+     * rescanned at its scan interval.
+     *
+     * @throws IOException If the root cannot be watched
+     */
+    synchronized void startLiveSync(SolrClientManager solrManager) throws IOException {
+        if (directoryWatcher != null) {
+            return;
+        }
+        PublishDirectoryWatcher watcher = new PublishDirectoryWatcher(directory, sharingRules,
+                LIVE_SYNC_DEBOUNCE_MS, LIVE_SYNC_MAX_DELAY_MS, new PublishDirectoryWatcher.Listener() {
+                    @Override
+                    public void onChanges(Set<Path> changedPaths) {
+                        syncExecutor.execute(() -> {
+                            if (isLiveSyncRunning()) {
+                                applyLocalChanges(changedPaths, solrManager);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onOverflow() {
+                        scheduleReconcile(solrManager, 0);
+                    }
+                });
+        watcher.start("PublishWatcher-" + threadSuffix());
+        directoryWatcher = watcher;
+        periodicReconcile = syncExecutor.scheduleWithFixedDelay(() -> reconcile(solrManager),
+                root.getScanIntervalMillis(), root.getScanIntervalMillis(), TimeUnit.MILLISECONDS);
+        log.info("Live sync started for {} of user '{}'", directory, username);
+    }
+
+    /**
+     * Stops watching the root. Live sync work already queued on the sync
+     * thread is dropped, but an update or sync running there is left to finish.
+     */
+    synchronized void stopLiveSync() {
+        if (directoryWatcher != null) {
+            directoryWatcher.stop();
+            periodicReconcile.cancel(false);
+            directoryWatcher = null;
+            periodicReconcile = null;
+            log.info("Live sync stopped for {} of user '{}'", directory, username);
+        }
+    }
+
+    synchronized boolean isLiveSyncRunning() {
+        return directoryWatcher != null;
+    }
+
+    private String threadSuffix() {
+        return root.getName().isEmpty() ? username : username + "-" + root.getName();
+    }
+
+    /**
+     * Turns a debounced batch of changed paths into updates, diffing each path
+     * against the local cache only. Runs on the sync thread.
+     */
+    private void applyLocalChanges(Set<Path> changedPaths, SolrClientManager solrManager) {
+        if (resumeFrom != null) {
+            // The cache only covers part of the share until the interrupted sync is resumed
+            log.debug("Live sync: {} changed paths, resuming the interrupted sync first", changedPaths.size());
+            scheduleReconcile(solrManager, 0);
+            return;
+        }
+        List<UpdateOperation> updates = new ArrayList<>();
+        Map<String, FileMetaData> added = new HashMap<>();
+        Set<String> removed = new HashSet<>();
+
+        for (Path path : changedPaths) {
+            if (!path.startsWith(directory) || path.equals(directory)) {
+                continue;
+            }
+            String rootRelativePath = ClientManager.toRelativePath(directory.relativize(path));
+            String relativePath = toPublishedPath(rootRelativePath);
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                attrs = null;
+            } catch (IOException e) {
+                log.warn("Failed to read attributes of {}: {}", path, e.getMessage());
+                continue;
+            }
+
+            if (attrs != null && !attrs.isRegularFile()) {
+                continue; // Directories report their new files individually
+            }
+            if (attrs != null && sharingRules.isShared(rootRelativePath, attrs)) {
+                FileMetaData existing = localSharedFiles.get(relativePath);
+                FileMetaData file = new FileMetaData(
+                        existing != null ? existing.getId() : FileDocIds.forFile(username, relativePath),
+                        path.getFileName().toString(), relativePath, attrs.size(), attrs.lastModifiedTime().toMillis(),
+                        username, null, 0);
+                if (existing == null) {
+                    updates.add(new UpdateOperation(UpdateOperation.Type.ADD, file));
+                } else if (file.isModifiedComparedTo(existing)) {
+                    updates.add(new UpdateOperation(UpdateOperation.Type.UPDATE, file));
+                } else {
+                    continue; // Unchanged as far as the index is concerned
+                }
+                added.put(relativePath, file);
+            } else {
+                // A deleted or no longer shared file, or a deleted directory with
+                // everything under it
+                List<FileMetaData> gone = new ArrayList<>();
+                FileMetaData file = localSharedFiles.get(relativePath);
+                if (file != null) {
+                    gone.add(file);
+                } else {
+                    String prefix = relativePath + "/";
+                    gone.addAll(localSharedFiles.subMap(prefix, true, PathOrder.endOfPrefix(prefix), false).values());
+                }
+                for (FileMetaData goneFile : gone) {
+                    if (goneFile.getId() == null) {
+                        goneFile = goneFile.withId(FileDocIds.forFile(username, goneFile.getRelativePath()));
+                    }
+                    updates.add(new UpdateOperation(UpdateOperation.Type.REMOVE, goneFile));
+                    removed.add(goneFile.getRelativePath());
+                }
+            }
+        }
+
+        if (updates.isEmpty()) {
+            log.debug("Live sync: {} changed paths, no index updates needed", changedPaths.size());
+            return;
+        }
+        try {
+            solrManager.applyFileUpdates(username, updates);
+        } catch (Exception e) {
+            log.warn("Live sync failed to apply {} updates, scheduling a full sync: {}", updates.size(),
+                    e.getMessage());
+            scheduleReconcile(solrManager, RECONCILE_RETRY_DELAY_MS);
+            return;
+        }
+        removed.forEach(localSharedFiles::remove);
+        localSharedFiles.putAll(added);
+        saveManifest();
+        log.info("Live sync applied {} updates ({} added or changed, {} removed)", updates.size(), added.size(),
+                removed.size());
+    }
+
+    private void scheduleReconcile(SolrClientManager solrManager, long delayMillis) {
+        if (isLiveSyncRunning()) {
+            syncExecutor.schedule(() -> reconcile(solrManager), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs a full sync for live sync, on the sync thread, unless live sync has
+     * been stopped since it was scheduled.
+     */
+    private void reconcile(SolrClientManager solrManager) {
+        if (!isLiveSyncRunning()) {
+            return;
+        }
+        try {
+            log.info("Live sync: running full reconciliation of {} for user '{}'", directory, username);
+            runSync(solrManager, null);
+        } catch (Exception e) {
+            log.warn("Full reconciliation of {} for user '{}' failed: {}", directory, username, e.getMessage());
+            scheduleReconcile(solrManager, RECONCILE_RETRY_DELAY_MS);
+        }
+    }
+
+    /**
+     * Finds a file of this root to serve, if the sharing rules share it.
+     *
+     * @param rootRelativePath The path relative to the root, with '/'
+     *                         separators
+     * @return The file, or null if it is not shared
+     */
+    Path findSharedFile(String rootRelativePath) {
+        Path file = directory.resolve(rootRelativePath).normalize();
+        if (!file.startsWith(directory) || file.equals(directory)) {
+            return null;
+        }
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+            String normalized = ClientManager.toRelativePath(directory.relativize(file));
+            return attrs.isRegularFile() && sharingRules.isShared(normalized, attrs) ? file : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts a scan of the root that returns the regular files the sharing
+     * rules pick, sorted by relative path, reading directories in parallel
+     * ahead of the caller. Excluded directories are not read. The scan must
+     * be closed.
+     */
+    private ParallelDirectoryScanner.OrderedScan scanRoot() {
+        if (!Files.isDirectory(directory)) {
+            log.warn("Share directory {} does not exist or is not a directory. Cannot scan.", directory);
+        }
+        return new ParallelDirectoryScanner(root.getScanParallelism(), sharingRules).scanInPathOrder(directory);
+    }
+
+    /**
+     * The path a file is published under, from its path relative to the root.
+     * Prefixing keeps the scan's path order.
+     */
+    private String toPublishedPath(String rootRelativePath) {
+        return pathPrefix.isEmpty() ? rootRelativePath : pathPrefix + rootRelativePath;
+    }
+}
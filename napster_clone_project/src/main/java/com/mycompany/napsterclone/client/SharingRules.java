@@ -0,0 +1,472 @@
+package com.mycompany.napsterclone.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which files under the publish directory are shared. Immutable; the
+ * include and exclude globs are compiled when the rules are created, so that
+ * checking a file during a scan costs a few string comparisons in the common
+ * case.
+ * <p>
+ * Globs are matched against relative paths with '/' separators, ignoring case:
+ * <ul>
+ * <li>A glob without '/' matches the name of a file or directory at any
+ * depth, e.g. "*.part" or "Thumbs.db".</li>
+ * <li>A glob with '/' matches the whole relative path, e.g.
+ * "incoming/**".</li>
+ * <li>A trailing '/' makes a glob match directories only, e.g.
+ * "$RECYCLE.BIN/".</li>
+ * <li>'*' and '?' match within one path element, '**' across elements, and
+ * "[abc]" or "[!abc]" one character of a set.</li>
+ * </ul>
+ * A directory matched by an exclude is not read at all. A file is shared if
+ * no exclude matches it or a directory above it, it matches an include (when
+ * there are any), its size is in range, and it is not hidden, unless hidden
+ * files are shared. Hidden means a name starting with '.', or the hidden
+ * attribute on Windows.
+ * <p>
+ * Rules can be read from a text file with one rule per line:
+ *
+ * <pre>
+ * # Comments and blank lines are ignored
+ * exclude *.iso
+ * exclude Downloads/Incomplete/
+ * include *.mp3
+ * min-size 1
+ * max-size 4G
+ * hidden share
+ * </pre>
+ *
+ * Rules from a file are added to {@link #DEFAULT}.
+ */
+public final class SharingRules {
+    private static final Logger log = LoggerFactory.getLogger(SharingRules.class);
+
+    private static final List<String> DEFAULT_EXCLUDES = List.of(
+            // Downloads in progress and temporary files
+            "*.part", "*.partial", "*.crdownload", "*.download", "*.tmp", "*.temp", "*.swp", "*~", "~$*",
+            // Operating system files
+            "Thumbs.db", "desktop.ini", "$RECYCLE.BIN/", "System Volume Information/", "lost+found/");
+
+    /**
+     * Shares every regular file.
+     */
+    public static final SharingRules EVERYTHING = new SharingRules(List.of(), List.of(), 0, Long.MAX_VALUE,
+            true);
+
+    /**
+     * Leaves out downloads in progress, temporary files, operating system
+     * files and hidden files.
+     */
+    public static final SharingRules DEFAULT = new SharingRules(List.of(), DEFAULT_EXCLUDES, 0, Long.MAX_VALUE,
+            false);
+
+    private final List<String> includes;
+    private final List<String> excludes;
+    private final long minSize;
+    private final long maxSize;
+    private final boolean shareHidden;
+    private final GlobSet includeSet;
+    private final GlobSet excludeSet;
+
+    private SharingRules(List<String> includes, List<String> excludes, long minSize, long maxSize,
+            boolean shareHidden) {
+        this.includes = Collections.unmodifiableList(new ArrayList<>(includes));
+        this.excludes = Collections.unmodifiableList(new ArrayList<>(excludes));
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.shareHidden = shareHidden;
+        this.includeSet = new GlobSet(includes);
+        this.excludeSet = new GlobSet(excludes);
+    }
+
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    public long getMinSize() {
+        return minSize;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public boolean isShareHidden() {
+        return shareHidden;
+    }
+
+    /**
+     * @param glob Files to share; once there are includes, only files
+     *             matching one of them are shared
+     * @throws IllegalArgumentException If the glob is malformed
+     */
+    public SharingRules withInclude(String glob) {
+        List<String> newIncludes = new ArrayList<>(includes);
+        newIncludes.add(glob);
+        return new SharingRules(newIncludes, excludes, minSize, maxSize, shareHidden);
+    }
+
+    /**
+     * @param glob Files or directories not to share
+     * @throws IllegalArgumentException If the glob is malformed
+     */
+    public SharingRules withExclude(String glob) {
+        List<String> newExcludes = new ArrayList<>(excludes);
+        newExcludes.add(glob);
+        return new SharingRules(includes, newExcludes, minSize, maxSize, shareHidden);
+    }
+
+    /**
+     * @param minSize The smallest file size shared, in bytes
+     * @param maxSize The largest file size shared, in bytes
+     */
+    public SharingRules withSizeRange(long minSize, long maxSize) {
+        if (minSize < 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid size range: " + minSize + " to " + maxSize);
+        }
+        return new SharingRules(includes, excludes, minSize, maxSize, shareHidden);
+    }
+
+    /**
+     * @param shareHidden Whether hidden files and directories are shared
+     */
+    public SharingRules withHiddenFiles(boolean shareHidden) {
+        return new SharingRules(includes, excludes, minSize, maxSize, shareHidden);
+    }
+
+    /**
+     * Whether a directory is read by a scan.
+     *
+     * @param relativePath The directory's path relative to the publish
+     *                     directory
+     * @param name         The directory's name, the last element of the path
+     * @param attrs        The directory's attributes, or null if not known
+     */
+    public boolean isDirectoryShared(String relativePath, String name, BasicFileAttributes attrs) {
+        return (shareHidden || !isHidden(name, attrs)) && !excludeSet.matches(relativePath, name, true);
+    }
+
+    /**
+     * Whether a regular file in a shared directory is shared.
+     *
+     * @param relativePath The file's path relative to the publish directory
+     * @param name         The file's name, the last element of the path
+     * @param attrs        The file's attributes
+     */
+    public boolean isFileShared(String relativePath, String name, BasicFileAttributes attrs) {
+        long size = attrs.size();
+        return size >= minSize && size <= maxSize
+                && (shareHidden || !isHidden(name, attrs))
+                && (includeSet.isEmpty() || includeSet.matches(relativePath, name, false))
+                && !excludeSet.matches(relativePath, name, false);
+    }
+
+    /**
+     * Whether a regular file is shared, checking the directories above it as
+     * well, for a file not reached by a scan.
+     *
+     * @param relativePath The file's path relative to the publish directory
+     * @param attrs        The file's attributes
+     */
+    public boolean isShared(String relativePath, BasicFileAttributes attrs) {
+        int start = 0;
+        for (int slash = relativePath.indexOf('/'); slash >= 0; slash = relativePath.indexOf('/', start)) {
+            if (!isDirectoryShared(relativePath.substring(0, slash), relativePath.substring(start, slash), null)) {
+                return false;
+            }
+            start = slash + 1;
+        }
+        return isFileShared(relativePath, relativePath.substring(start), attrs);
+    }
+
+    private static boolean isHidden(String name, BasicFileAttributes attrs) {
+        return name.startsWith(".") || attrs instanceof DosFileAttributes && ((DosFileAttributes) attrs).isHidden();
+    }
+
+    /**
+     * Reads rules from a file and adds them to {@link #DEFAULT}. A missing
+     * file yields the default rules; lines that cannot be parsed are logged
+     * and skipped.
+     *
+     * @param file The rules file
+     */
+    public static SharingRules load(Path file) {
+        SharingRules rules = DEFAULT;
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return rules;
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable sharing rules {}: {}", file, e.getMessage());
+            return rules;
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+", 2);
+            String value = parts.length > 1 ? parts[1] : "";
+            try {
+                switch (parts[0].toLowerCase(Locale.ROOT)) {
+                    case "include":
+                        rules = rules.withInclude(value);
+                        break;
+                    case "exclude":
+                        rules = rules.withExclude(value);
+                        break;
+                    case "min-size":
+                        rules = rules.withSizeRange(parseSize(value), rules.maxSize);
+                        break;
+                    case "max-size":
+                        rules = rules.withSizeRange(rules.minSize, parseSize(value));
+                        break;
+                    case "hidden":
+                        if (!value.equals("share") && !value.equals("skip")) {
+                            throw new IllegalArgumentException("Expected 'share' or 'skip': " + value);
+                        }
+                        rules = rules.withHiddenFiles(value.equals("share"));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown rule: " + parts[0]);
+                }
+            } catch (IllegalArgumentException e) {
+                log.warn("Ignoring line {} of sharing rules {}: {}", i + 1, file, e.getMessage());
+            }
+        }
+        log.info("Loaded sharing rules from {}: {}", file, rules);
+        return rules;
+    }
+
+    /**
+     * Parses a byte count with an optional K, M, G or T suffix (powers of 1024).
+     */
+    private static long parseSize(String value) {
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException("Missing size");
+        }
+        int shift;
+        switch (Character.toUpperCase(value.charAt(value.length() - 1))) {
+            case 'K':
+                shift = 10;
+                break;
+            case 'M':
+                shift = 20;
+                break;
+            case 'G':
+                shift = 30;
+                break;
+            case 'T':
+                shift = 40;
+                break;
+            default:
+                shift = 0;
+        }
+        long number = Long.parseLong(shift == 0 ? value : value.substring(0, value.length() - 1));
+        if (number < 0 || number > Long.MAX_VALUE >> shift) {
+            throw new IllegalArgumentException("Size out of range: " + value);
+        }
+        return number << shift;
+    }
+
+    @Override
+    public String toString() {
+        return "SharingRules{" +
+                "includes=" + includes +
+                ", excludes=" + excludes +
+                ", minSize=" + minSize +
+                ", maxSize=" + maxSize +
+                ", shareHidden=" + shareHidden +
+                '}';
+    }
+
+    /**
+     * A set of globs compiled for matching. Globs of the forms "name", "*.ext"
+     * and "prefix*" (the common ones) are compared with the name directly,
+     * which is cheaper than hashing since the name would have to be lowercased
+     * first; the rest are combined into one regular expression for names and
+     * one for whole paths, matched in lowercase. Directories are matched with
+     * a '/' appended, so that only directory-only globs, which end in '/', need
+     * to tell them apart.
+     */
+    private static final class GlobSet {
+        private final Literals literals = new Literals();
+        private final Literals directoryLiterals = new Literals();
+        private final Pattern namePattern;
+        private final Pattern pathPattern;
+
+        GlobSet(List<String> globs) {
+            List<String> nameRegexes = new ArrayList<>();
+            List<String> pathRegexes = new ArrayList<>();
+            for (String glob : globs) {
+                String trimmed = glob.trim();
+                boolean directoryOnly = trimmed.endsWith("/");
+                String body = directoryOnly ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+                boolean inPath = body.indexOf('/') >= 0;
+                if (body.startsWith("/")) {
+                    body = body.substring(1); // Anchored to the publish directory, as any glob with '/' is
+                }
+                if (body.isEmpty()) {
+                    throw new IllegalArgumentException("Empty glob: '" + glob + "'");
+                }
+                body = body.toLowerCase(Locale.ROOT);
+                Literals target = directoryOnly ? directoryLiterals : literals;
+                if (inPath) {
+                    pathRegexes.add(toRegex(body) + (directoryOnly ? "/" : "/?"));
+                } else if (!hasWildcard(body)) {
+                    target.exact.add(body);
+                } else if (body.startsWith("*") && !hasWildcard(body.substring(1))) {
+                    target.suffixes.add(body.substring(1));
+                } else if (body.endsWith("*") && !hasWildcard(body.substring(0, body.length() - 1))) {
+                    target.prefixes.add(body.substring(0, body.length() - 1));
+                } else {
+                    nameRegexes.add(toRegex(body) + (directoryOnly ? "/" : "/?"));
+                }
+            }
+            namePattern = compile(nameRegexes);
+            pathPattern = compile(pathRegexes);
+        }
+
+        boolean isEmpty() {
+            return literals.isEmpty() && directoryLiterals.isEmpty() && namePattern == null && pathPattern == null;
+        }
+
+        boolean matches(String relativePath, String name, boolean directory) {
+            if (literals.matches(name) || directory && directoryLiterals.matches(name)) {
+                return true;
+            }
+            if (namePattern != null && namePattern.matcher(toMatchKey(name, directory)).matches()) {
+                return true;
+            }
+            return pathPattern != null && pathPattern.matcher(toMatchKey(relativePath, directory)).matches();
+        }
+
+        private static String toMatchKey(String path, boolean directory) {
+            String lower = path.toLowerCase(Locale.ROOT);
+            return directory ? lower + "/" : lower;
+        }
+
+        private static boolean hasWildcard(String glob) {
+            return glob.indexOf('*') >= 0 || glob.indexOf('?') >= 0 || glob.indexOf('[') >= 0;
+        }
+
+        private static Pattern compile(List<String> regexes) {
+            if (regexes.isEmpty()) {
+                return null;
+            }
+            return Pattern.compile("(?:" + String.join(")|(?:", regexes) + ")");
+        }
+
+        private static String toRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*') {
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        i++;
+                        if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                            i++;
+                            regex.append("(?:.*/)?"); // "**/" also matches no directory at all
+                        } else {
+                            regex.append(".*");
+                        }
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else if (c == '[') {
+                    int end = glob.indexOf(']', i + 2);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unclosed '[' in glob: '" + glob + "'");
+                    }
+                    String set = glob.substring(i + 1, end);
+                    regex.append('[');
+                    if (set.startsWith("!")) {
+                        regex.append('^');
+                        set = set.substring(1);
+                    }
+                    for (char s : set.toCharArray()) {
+                        if (s == '\\' || s == '[' || s == ']' || s == '^' || s == '&') {
+                            regex.append('\\');
+                        }
+                        regex.append(s);
+                    }
+                    regex.append(']');
+                    i = end;
+                } else {
+                    if ("\\.^$|+(){}[]".indexOf(c) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+                }
+            }
+            return regex.toString();
+        }
+    }
+
+    /**
+     * Names, name prefixes and name suffixes (such as ".part"), compared
+     * ignoring case.
+     */
+    private static final class Literals {
+        final List<String> exact = new ArrayList<>();
+        final List<String> prefixes = new ArrayList<>();
+        final List<String> suffixes = new ArrayList<>();
+
+        boolean isEmpty() {
+            return exact.isEmpty() && prefixes.isEmpty() && suffixes.isEmpty();
+        }
+
+        boolean matches(String name) {
+            for (int i = 0; i < exact.size(); i++) {
+                if (name.equalsIgnoreCase(exact.get(i))) {
+                    return true;
+                }
+            }
+            if (name.isEmpty()) {
+                return false;
+            }
+            // Most names differ from a prefix in the first character and from a
+            // suffix in the last, so those are compared before the rest
+            char first = Character.toLowerCase(name.charAt(0));
+            for (int i = 0; i < prefixes.size(); i++) {
+                String prefix = prefixes.get(i);
+                if ((prefix.isEmpty() || prefix.charAt(0) == first)
+                        && name.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                    return true;
+                }
+            }
+            char last = Character.toLowerCase(name.charAt(name.length() - 1));
+            for (int i = 0; i < suffixes.size(); i++) {
+                String suffix = suffixes.get(i);
+                int start = name.length() - suffix.length();
+                if (start >= 0 && (suffix.isEmpty() || suffix.charAt(suffix.length() - 1) == last)
+                        && name.regionMatches(true, start, suffix, 0, suffix.length())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
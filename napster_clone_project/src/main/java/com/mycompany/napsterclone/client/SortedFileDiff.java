@@ -0,0 +1,100 @@
+package com.mycompany.napsterclone.client;
+
+import com.mycompany.napsterclone.model.FileMetaData;
+import com.mycompany.napsterclone.util.PathOrder;
+
+import java.util.Iterator;
+
+/**
+ * Merge-joins the local files with the published ones (from the index or the
+ * sync manifest), both sorted by relative path in {@link PathOrder}. The local
+ * side is pulled from an iterator and the published side pushed in, one file at
+ * a time, so only the current file of each side is held, however many files
+ * are shared.
+ */
+final class SortedFileDiff {
+
+    /**
+     * Receives the outcome for every path, in path order.
+     */
+    interface Listener {
+        /**
+         * A local file that is not published.
+         */
+        void localOnly(FileMetaData localFile);
+
+        /**
+         * A published file that no longer exists locally, or a second published
+         * file with the same path.
+         */
+        void publishedOnly(FileMetaData publishedFile);
+
+        /**
+         * A file that exists locally and is published.
+         */
+        void both(FileMetaData localFile, FileMetaData publishedFile);
+    }
+
+    private final Iterator<FileMetaData> localFiles;
+    private final Listener listener;
+    private FileMetaData nextLocal;
+    private String lastPublishedPath;
+
+    /**
+     * @param localFiles The local files, in path order
+     * @param listener   Receives the outcome for each path
+     */
+    SortedFileDiff(Iterator<FileMetaData> localFiles, Listener listener) {
+        this.localFiles = localFiles;
+        this.listener = listener;
+        advanceLocal();
+    }
+
+    /**
+     * Takes the next published file.
+     *
+     * @throws IllegalStateException If the file sorts before the previous one,
+     *                               in which case earlier outcomes may be wrong
+     */
+    void acceptPublished(FileMetaData publishedFile) {
+        String path = publishedFile.getRelativePath();
+        if (lastPublishedPath != null) {
+            int order = PathOrder.compare(path, lastPublishedPath);
+            if (order < 0) {
+                throw new IllegalStateException(
+                        "Published files out of path order: '" + path + "' after '" + lastPublishedPath + "'");
+            }
+            if (order == 0) {
+                listener.publishedOnly(publishedFile);
+                return;
+            }
+        }
+        lastPublishedPath = path;
+
+        while (nextLocal != null && PathOrder.compare(nextLocal.getRelativePath(), path) < 0) {
+            listener.localOnly(nextLocal);
+            advanceLocal();
+        }
+        if (nextLocal != null && nextLocal.getRelativePath().equals(path)) {
+            listener.both(nextLocal, publishedFile);
+            advanceLocal();
+        } else {
+            listener.publishedOnly(publishedFile);
+        }
+    }
+
+    /**
+     * Reports the local files after the last published one. Call once all
+     * published files have been passed in.
+     */
+    void finish() {
+        while (nextLocal != null) {
+            listener.localOnly(nextLocal);
+            advanceLocal();
+        }
+    }
+
+    private void advanceLocal() {
+        nextLocal = localFiles.hasNext() ? localFiles.next() : null;
+    }
+}
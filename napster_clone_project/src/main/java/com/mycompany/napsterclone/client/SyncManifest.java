@@ -0,0 +1,158 @@
+package com.mycompany.napsterclone.client;
+
+import com.mycompany.napsterclone.model.FileMetaData;
+import com.mycompany.napsterclone.solr.FileDocIds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The list of files a client last published, saved next to a sync version that
+ * is also stamped on the user's Solr document. While the two versions agree,
+ * the index holds exactly these files and a sync can diff the local scan
+ * against the manifest instead of fetching the user's files from Solr.
+ * <p>
+ * A sync that rebuilds the manifest from the index and is interrupted saves a
+ * partial one with a resume point: the files before that path are exactly
+ * those published, and the next sync only fetches the index from there on.
+ * <p>
+ * Stored as a small binary file: a header with the version and resume point,
+ * then relative path, size, modification time and Solr ID per file. IDs that
+ * follow the current scheme are derived again on load instead of being
+ * written out.
+ */
+final class SyncManifest {
+    private static final Logger log = LoggerFactory.getLogger(SyncManifest.class);
+
+    private static final int MAGIC = 0x4e434d46; // "NCMF"
+    private static final int FORMAT_VERSION = 3; // 2 added modification times, 3 the resume point
+
+    private final Long syncVersion;
+    private final String resumeFrom;
+    private final List<FileMetaData> files;
+
+    SyncManifest(Long syncVersion, String resumeFrom, List<FileMetaData> files) {
+        this.syncVersion = syncVersion;
+        this.resumeFrom = resumeFrom;
+        this.files = files;
+    }
+
+    /**
+     * @return The version the index was stamped with when this manifest was
+     *         saved, or null if it cannot be trusted
+     */
+    Long getSyncVersion() {
+        return syncVersion;
+    }
+
+    /**
+     * @return The path an interrupted sync resumes from, or null if the
+     *         manifest is complete
+     */
+    String getResumeFrom() {
+        return resumeFrom;
+    }
+
+    List<FileMetaData> getFiles() {
+        return files;
+    }
+
+    /**
+     * Reads a manifest. A missing or unreadable file yields an empty manifest
+     * without a version, which makes the next sync fetch the index.
+     *
+     * @param file  The manifest file
+     * @param owner The user the files belong to
+     */
+    static SyncManifest load(Path file, String owner) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int format = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (format != 2 && format != FORMAT_VERSION) {
+                log.warn("Ignoring sync manifest {} in an unknown format", file);
+                return new SyncManifest(null, null, new ArrayList<>());
+            }
+            Long syncVersion = in.readBoolean() ? in.readLong() : null;
+            String resumeFrom = format >= 3 && in.readBoolean() ? in.readUTF() : null;
+            int count = in.readInt();
+            List<FileMetaData> files = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String relativePath = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                String id = in.readUTF();
+                files.add(new FileMetaData(id.isEmpty() ? FileDocIds.forFile(owner, relativePath) : id,
+                        fileName(relativePath), relativePath, size, lastModified, owner, null, 0));
+            }
+            log.info("Loaded sync manifest {} with {} files (version {}, resume from {})", file, count,
+                    syncVersion, resumeFrom);
+            return new SyncManifest(syncVersion, resumeFrom, files);
+        } catch (NoSuchFileException e) {
+            return new SyncManifest(null, null, new ArrayList<>());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring unreadable sync manifest {}: {}", file, e.getMessage());
+            return new SyncManifest(null, null, new ArrayList<>());
+        }
+    }
+
+    /**
+     * Writes a manifest, replacing the previous one only once the new one is
+     * complete.
+     *
+     * @param file        The manifest file
+     * @param owner       The user the files belong to
+     * @param syncVersion The version stamped on the index, or null
+     * @param resumeFrom  The path an interrupted sync resumes from, or null
+     * @param files       The published files (before resumeFrom, if set)
+     * @throws IOException If the manifest cannot be written
+     */
+    static void save(Path file, String owner, Long syncVersion, String resumeFrom, Collection<FileMetaData> files)
+            throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeBoolean(syncVersion != null);
+            if (syncVersion != null) {
+                out.writeLong(syncVersion);
+            }
+            out.writeBoolean(resumeFrom != null);
+            if (resumeFrom != null) {
+                out.writeUTF(resumeFrom);
+            }
+            out.writeInt(files.size());
+            for (FileMetaData fileMetaData : files) {
+                String relativePath = fileMetaData.getRelativePath();
+                String id = fileMetaData.getId();
+                out.writeUTF(relativePath);
+                out.writeLong(fileMetaData.getSize());
+                out.writeLong(fileMetaData.getLastModified());
+                out.writeUTF(id == null || id.equals(FileDocIds.forFile(owner, relativePath)) ? "" : id);
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        log.debug("Saved sync manifest {} with {} files (version {}, resume from {})", file, files.size(),
+                syncVersion, resumeFrom);
+    }
+
+    private static String fileName(String relativePath) {
+        return relativePath.substring(relativePath.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,45 @@
+package com.mycompany.napsterclone.main;
+
+import com.mycompany.napsterclone.solr.SolrClientManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Command line tool that rewrites file documents indexed with the old
+ * filename-hash IDs to the path-based IDs, so clients do not have to re-add
+ * every file on their next sync. Safe to run while clients are online and to
+ * run more than once.
+ *
+ * <pre>
+ * java -cp napster-clone-jar-with-dependencies.jar com.mycompany.napsterclone.main.MigrateFileDocIds [solrUrl ...]
+ * </pre>
+ */
+public class MigrateFileDocIds {
+    private static final Logger log = LoggerFactory.getLogger(MigrateFileDocIds.class);
+
+    private static final String[] DEFAULT_SOLR_URLS = {
+            "http://localhost:8983/solr/napster_clone",
+            "http://localhost:8984/solr/napster_clone"
+    };
+    private static final long PROGRESS_INTERVAL = 10_000;
+
+    public static void main(String[] args) {
+        String[] solrUrls = args.length > 0 ? args : DEFAULT_SOLR_URLS;
+        SolrClientManager solrManager = new SolrClientManager(solrUrls);
+        try {
+            solrManager.connect();
+            long started = System.nanoTime();
+            long migrated = solrManager.migrateFileDocIds(examined -> {
+                if (examined % PROGRESS_INTERVAL == 0) {
+                    log.info("Examined {} file documents...", examined);
+                }
+            });
+            log.info("Migrated {} file documents in {} ms", migrated, (System.nanoTime() - started) / 1_000_000);
+        } catch (Exception e) {
+            log.error("File document ID migration failed: {}", e.getMessage(), e);
+            System.exit(1);
+        } finally {
+            solrManager.shutdown();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.mycompany.napsterclone.model;
+
+import java.util.Objects;
+
+/**
+ * Immutable set of facet values a search is narrowed to. Each dimension is
+ * either unset (null) or restricted to a single value.
+ */
+public final class FacetSelection {
+    public static final FacetSelection NONE = new FacetSelection(null, null, null);
+
+    private final String extension;
+    private final SizeBucket sizeBucket;
+    private final String owner;
+
+    private FacetSelection(String extension, SizeBucket sizeBucket, String owner) {
+        this.extension = extension;
+        this.sizeBucket = sizeBucket;
+        this.owner = owner;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public SizeBucket getSizeBucket() {
+        return sizeBucket;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public boolean isEmpty() {
+        return extension == null && sizeBucket == null && owner == null;
+    }
+
+    /**
+     * @param extension The extension to narrow to, or null to clear it
+     */
+    public FacetSelection withExtension(String extension) {
+        return new FacetSelection(extension, sizeBucket, owner);
+    }
+
+    /**
+     * @param sizeBucket The size range to narrow to, or null to clear it
+     */
+    public FacetSelection withSizeBucket(SizeBucket sizeBucket) {
+        return new FacetSelection(extension, sizeBucket, owner);
+    }
+
+    /**
+     * @param owner The owner to narrow to, or null to clear it
+     */
+    public FacetSelection withOwner(String owner) {
+        return new FacetSelection(extension, sizeBucket, owner);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        FacetSelection that = (FacetSelection) o;
+        return Objects.equals(extension, that.extension) &&
+                sizeBucket == that.sizeBucket &&
+                Objects.equals(owner, that.owner);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(extension, sizeBucket, owner);
+    }
+
+    @Override
+    public String toString() {
+        return "FacetSelection{" +
+                "extension='" + extension + '\'' +
+                ", sizeBucket=" + sizeBucket +
+                ", owner='" + owner + '\'' +
+                '}';
+    }
+}
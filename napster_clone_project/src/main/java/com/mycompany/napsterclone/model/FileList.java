@@ -0,0 +1,381 @@
+package com.mycompany.napsterclone.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Compact list of files, stored by column instead of as one FileMetaData per
+ * file, for large search results. Owners are interned: each distinct
+ * owner/IP/port is held once as a {@link PeerInfo} and files refer to it by
+ * index. Relative paths share one UTF-8 byte array and a file's name is the
+ * last segment of its path. IDs in the path-based scheme (owner + "!file-" +
+ * 32 hex digits) are kept as two longs, sizes and modification times in long
+ * arrays. Other filenames and IDs, left by older documents, are kept as they
+ * are on the side.
+ * <p>
+ * The per-file getters, such as {@link #getFilename(int)}, read the columns
+ * without creating a FileMetaData, and are what the results table renders
+ * from. {@link #get(int)}, and with it iteration, creates a new FileMetaData
+ * per call; it is meant for the odd file picked for download, not for
+ * walking a whole list. Copying into another FileList copies columns and
+ * creates none. Every file must have an owner. The list only grows at the
+ * end and is not thread-safe; {@link #copyOf(Collection)} makes a read-only
+ * copy that can be shared between threads.
+ */
+public final class FileList extends AbstractList<FileMetaData> implements RandomAccess {
+    private static final String ID_INFIX = "!file-";
+    private static final int ID_HEX_LENGTH = 32;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final boolean readOnly;
+
+    private PeerInfo[] owners = new PeerInfo[4];
+    private int ownerCount;
+    private final Map<PeerInfo, Integer> ownerIndexes = new HashMap<>();
+
+    private int size;
+    private int[] fileOwners;
+    private int[] pathEnds; // Path i spans pathBytes[pathEnds[i - 1] (or 0) .. pathEnds[i])
+    private byte[] pathBytes;
+    private int pathLength;
+    private long[] idHashes; // Two per file, when the ID follows the path-based scheme
+    private long[] sizes;
+    private long[] lastModified;
+    private Map<Integer, String> otherIds; // IDs in any other scheme, by file index
+    private Map<Integer, String> otherFilenames; // Names that are not the last path segment
+
+    public FileList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize The number of files the list is expected to hold
+     */
+    public FileList(int expectedSize) {
+        this(Math.max(expectedSize, 1), false);
+    }
+
+    private FileList(int capacity, boolean readOnly) {
+        this.readOnly = readOnly;
+        fileOwners = new int[capacity];
+        pathEnds = new int[capacity];
+        pathBytes = new byte[capacity * 32];
+        idHashes = new long[capacity * 2];
+        sizes = new long[capacity];
+        lastModified = new long[capacity];
+    }
+
+    /**
+     * Makes a read-only copy holding exactly the given files, with no spare
+     * capacity. Copying another FileList copies its columns.
+     *
+     * @param files The files to copy
+     * @return The copy
+     */
+    public static FileList copyOf(Collection<? extends FileMetaData> files) {
+        FileList copy = new FileList(Math.max(files.size(), 1), true);
+        if (files instanceof FileList) {
+            copy.appendColumns((FileList) files);
+        } else {
+            for (FileMetaData file : files) {
+                copy.append(file);
+            }
+        }
+        copy.pathBytes = Arrays.copyOf(copy.pathBytes, copy.pathLength);
+        return copy;
+    }
+
+    @Override
+    public boolean add(FileMetaData file) {
+        checkWritable();
+        append(file);
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends FileMetaData> files) {
+        checkWritable();
+        if (files instanceof FileList) {
+            appendColumns((FileList) files);
+        } else {
+            for (FileMetaData file : files) {
+                append(file);
+            }
+        }
+        return !files.isEmpty();
+    }
+
+    /**
+     * Creates a FileMetaData for one file, such as the one a user picked for
+     * download. Each call creates a new object, so code going over many files
+     * should use the per-file getters instead.
+     */
+    @Override
+    public FileMetaData get(int index) {
+        checkIndex(index);
+        PeerInfo owner = owners[fileOwners[index]];
+        return new FileMetaData(getId(index), getFilename(index), getRelativePath(index), sizes[index],
+                lastModified[index], owner.getUsername(), owner.getIp(), owner.getPort());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public String getId(int index) {
+        checkIndex(index);
+        if (otherIds != null && otherIds.containsKey(index)) {
+            return otherIds.get(index);
+        }
+        String username = owners[fileOwners[index]].getUsername();
+        char[] id = new char[username.length() + ID_INFIX.length() + ID_HEX_LENGTH];
+        username.getChars(0, username.length(), id, 0);
+        ID_INFIX.getChars(0, ID_INFIX.length(), id, username.length());
+        int pos = username.length() + ID_INFIX.length();
+        for (int half = 0; half < 2; half++) {
+            long value = idHashes[index * 2 + half];
+            for (int shift = 60; shift >= 0; shift -= 4) {
+                id[pos++] = HEX_DIGITS[(int) (value >>> shift) & 0xf];
+            }
+        }
+        return new String(id);
+    }
+
+    public String getFilename(int index) {
+        checkIndex(index);
+        if (otherFilenames != null) {
+            String filename = otherFilenames.get(index);
+            if (filename != null) {
+                return filename;
+            }
+        }
+        int start = pathStart(index);
+        int end = pathEnds[index];
+        int nameStart = end;
+        while (nameStart > start && pathBytes[nameStart - 1] != '/') {
+            nameStart--;
+        }
+        return new String(pathBytes, nameStart, end - nameStart, StandardCharsets.UTF_8);
+    }
+
+    public String getRelativePath(int index) {
+        checkIndex(index);
+        int start = pathStart(index);
+        return new String(pathBytes, start, pathEnds[index] - start, StandardCharsets.UTF_8);
+    }
+
+    public long getSize(int index) {
+        checkIndex(index);
+        return sizes[index];
+    }
+
+    public long getLastModified(int index) {
+        checkIndex(index);
+        return lastModified[index];
+    }
+
+    /**
+     * @return The owner and the address their files are served from, shared by
+     *         all of the owner's files in this list
+     */
+    public PeerInfo getOwner(int index) {
+        checkIndex(index);
+        return owners[fileOwners[index]];
+    }
+
+    public String getOwnerUsername(int index) {
+        return getOwner(index).getUsername();
+    }
+
+    public String getOwnerIp(int index) {
+        return getOwner(index).getIp();
+    }
+
+    public int getOwnerPort(int index) {
+        return getOwner(index).getPort();
+    }
+
+    /**
+     * @return A rough estimate of the heap used by this list
+     */
+    public long estimatedSizeBytes() {
+        long bytes = 64 + pathBytes.length + 4L * (fileOwners.length + pathEnds.length)
+                + 8L * (idHashes.length + sizes.length + lastModified.length);
+        for (int i = 0; i < ownerCount; i++) {
+            bytes += 96 + owners[i].getUsername().length()
+                    + (owners[i].getIp() == null ? 0 : owners[i].getIp().length());
+        }
+        bytes += sideEntriesSize(otherIds) + sideEntriesSize(otherFilenames);
+        return bytes;
+    }
+
+    private static long sideEntriesSize(Map<Integer, String> strings) {
+        long bytes = 0;
+        if (strings != null) {
+            for (String value : strings.values()) {
+                bytes += 88 + (value == null ? 0 : value.length());
+            }
+        }
+        return bytes;
+    }
+
+    private void append(FileMetaData file) {
+        if (file.getOwnerUsername() == null || file.getOwnerUsername().trim().isEmpty()) {
+            throw new IllegalArgumentException("File '" + file.getRelativePath() + "' has no owner.");
+        }
+        ensureCapacity(size + 1);
+        int index = size;
+        fileOwners[index] = internOwner(file.getOwnerUsername(), file.getOwnerIp(), file.getOwnerPort());
+        String relativePath = file.getRelativePath();
+        appendPath(relativePath.getBytes(StandardCharsets.UTF_8));
+        pathEnds[index] = pathLength;
+        if (!isLastSegment(file.getFilename(), relativePath)) {
+            otherFilenames = put(otherFilenames, index, file.getFilename());
+        }
+        if (!storeIdHash(index, file.getOwnerUsername(), file.getId())) {
+            otherIds = put(otherIds, index, file.getId());
+        }
+        sizes[index] = file.getSize();
+        lastModified[index] = file.getLastModified();
+        size++;
+    }
+
+    private static boolean isLastSegment(String filename, String relativePath) {
+        int nameStart = relativePath.length() - filename.length();
+        return relativePath.endsWith(filename) && filename.indexOf('/') < 0
+                && (nameStart == 0 || relativePath.charAt(nameStart - 1) == '/');
+    }
+
+    private void appendColumns(FileList other) {
+        ensureCapacity(size + other.size);
+        int[] ownerMapping = new int[other.ownerCount];
+        for (int i = 0; i < other.ownerCount; i++) {
+            PeerInfo owner = other.owners[i];
+            ownerMapping[i] = internOwner(owner.getUsername(), owner.getIp(), owner.getPort());
+        }
+        int pathOffset = pathLength;
+        int otherPathLength = other.size == 0 ? 0 : other.pathEnds[other.size - 1];
+        ensurePathCapacity(pathLength + otherPathLength);
+        System.arraycopy(other.pathBytes, 0, pathBytes, pathLength, otherPathLength);
+        pathLength += otherPathLength;
+        for (int i = 0; i < other.size; i++) {
+            fileOwners[size + i] = ownerMapping[other.fileOwners[i]];
+            pathEnds[size + i] = other.pathEnds[i] + pathOffset;
+        }
+        System.arraycopy(other.idHashes, 0, idHashes, size * 2, other.size * 2);
+        System.arraycopy(other.sizes, 0, sizes, size, other.size);
+        System.arraycopy(other.lastModified, 0, lastModified, size, other.size);
+        if (other.otherIds != null) {
+            for (Map.Entry<Integer, String> id : other.otherIds.entrySet()) {
+                otherIds = put(otherIds, size + id.getKey(), id.getValue());
+            }
+        }
+        if (other.otherFilenames != null) {
+            for (Map.Entry<Integer, String> filename : other.otherFilenames.entrySet()) {
+                otherFilenames = put(otherFilenames, size + filename.getKey(), filename.getValue());
+            }
+        }
+        size += other.size;
+    }
+
+    private int internOwner(String username, String ip, int port) {
+        // Results come grouped by owner more often than not
+        if (ownerCount > 0) {
+            PeerInfo last = owners[ownerCount - 1];
+            if (last.getUsername().equals(username) && last.getPort() == port
+                    && (last.getIp() == null ? ip == null : last.getIp().equals(ip))) {
+                return ownerCount - 1;
+            }
+        }
+        PeerInfo owner = new PeerInfo(username, ip, port);
+        Integer index = ownerIndexes.get(owner);
+        if (index != null) {
+            return index;
+        }
+        if (ownerCount == owners.length) {
+            owners = Arrays.copyOf(owners, ownerCount * 2);
+        }
+        owners[ownerCount] = owner;
+        ownerIndexes.put(owner, ownerCount);
+        return ownerCount++;
+    }
+
+    /**
+     * Stores the hash of an ID of the form owner + "!file-" + 32 hex digits.
+     *
+     * @return false if the ID has another form
+     */
+    private boolean storeIdHash(int index, String username, String id) {
+        int hexStart = username.length() + ID_INFIX.length();
+        if (id == null || id.length() != hexStart + ID_HEX_LENGTH || !id.startsWith(username)
+                || !id.startsWith(ID_INFIX, username.length())) {
+            return false;
+        }
+        long[] halves = new long[2];
+        for (int i = 0; i < ID_HEX_LENGTH; i++) {
+            char c = id.charAt(hexStart + i);
+            int digit = c >= '0' && c <= '9' ? c - '0' : c >= 'a' && c <= 'f' ? c - 'a' + 10 : -1;
+            if (digit < 0) {
+                return false;
+            }
+            halves[i / 16] = (halves[i / 16] << 4) | digit;
+        }
+        idHashes[index * 2] = halves[0];
+        idHashes[index * 2 + 1] = halves[1];
+        return true;
+    }
+
+    private void appendPath(byte[] path) {
+        ensurePathCapacity(pathLength + path.length);
+        System.arraycopy(path, 0, pathBytes, pathLength, path.length);
+        pathLength += path.length;
+    }
+
+    private int pathStart(int index) {
+        return index == 0 ? 0 : pathEnds[index - 1];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > sizes.length) {
+            int newCapacity = Math.max(capacity, sizes.length * 2);
+            fileOwners = Arrays.copyOf(fileOwners, newCapacity);
+            pathEnds = Arrays.copyOf(pathEnds, newCapacity);
+            idHashes = Arrays.copyOf(idHashes, newCapacity * 2);
+            sizes = Arrays.copyOf(sizes, newCapacity);
+            lastModified = Arrays.copyOf(lastModified, newCapacity);
+        }
+    }
+
+    private void ensurePathCapacity(int capacity) {
+        if (capacity > pathBytes.length) {
+            pathBytes = Arrays.copyOf(pathBytes, Math.max(capacity, pathBytes.length * 2));
+        }
+    }
+
+    private static Map<Integer, String> put(Map<Integer, String> strings, int index, String value) {
+        if (strings == null) {
+            strings = new HashMap<>();
+        }
+        strings.put(index, value);
+        return strings;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("File list is read-only.");
+        }
+    }
+}
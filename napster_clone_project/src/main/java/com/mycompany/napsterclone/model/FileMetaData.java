@@ -1,30 +1,47 @@
 package com.mycompany.napsterclone.model;
 
+import java.util.Locale;
 import java.util.Objects;
 
-public class FileMetaData {
-    private String id; // Solr document ID (e.g., file-<owner>-<filename_hash>)
-    private String filename;
-    private long size;
-    private String ownerUsername;
-    private String ownerIp; // IP of the user hosting the file
-    private int ownerPort; // Port of the user's FileServer
+/**
+ * A shared file as it is scanned, published and found by searches. Immutable,
+ * so the same instance can be held by the local cache, queued for Solr and
+ * shown in a table without copying; {@link #withId} returns a copy that shares
+ * every other field.
+ */
+public final class FileMetaData {
+    private final String id; // Solr document ID (e.g., file-<owner>-<path_hash>)
+    private final String filename;
+    private final String relativePath; // Path under the publish directory, '/' separated
+    private final long size;
+    private final long lastModified; // Epoch milliseconds, 0 if unknown
+    private final String ownerUsername;
+    private final String ownerIp; // IP of the user hosting the file
+    private final int ownerPort; // Port of the user's FileServer
 
     /**
      * Full constructor.
      * 
      * @param id            Solr document ID
      * @param filename      Name of the file
+     * @param relativePath  Path of the file relative to the owner's publish
+     *                      directory, using '/' separators
      * @param size          Size of the file in bytes
+     * @param lastModified  Last modification time in epoch milliseconds, or 0 if
+     *                      unknown
      * @param ownerUsername Username of the file owner
      * @param ownerIp       IP address of the file owner
      * @param ownerPort     Port of the file owner's server
      */
-    public FileMetaData(String id, String filename, long size, String ownerUsername, String ownerIp, int ownerPort) {
+    public FileMetaData(String id, String filename, String relativePath, long size, long lastModified,
+            String ownerUsername, String ownerIp, int ownerPort) {
         // Basic validation
         if (filename == null || filename.trim().isEmpty()) {
             throw new IllegalArgumentException("Filename cannot be null or empty.");
         }
+        if (relativePath == null || relativePath.trim().isEmpty()) {
+            throw new IllegalArgumentException("Relative path cannot be null or empty.");
+        }
         if (ownerUsername == null || ownerUsername.trim().isEmpty()) {
             // Allow null owner for local scans before association, but Solr entries should
             // have it.
@@ -43,22 +60,85 @@ public class FileMetaData {
 
         this.id = id;
         this.filename = filename;
+        this.relativePath = relativePath;
         this.size = size;
+        this.lastModified = lastModified;
         this.ownerUsername = ownerUsername;
         this.ownerIp = ownerIp;
         this.ownerPort = ownerPort;
     }
 
+    /**
+     * Constructor for a file whose modification time is not known.
+     * 
+     * @param id            Solr document ID
+     * @param filename      Name of the file
+     * @param relativePath  Path of the file relative to the owner's publish
+     *                      directory, using '/' separators
+     * @param size          Size of the file in bytes
+     * @param ownerUsername Username of the file owner
+     * @param ownerIp       IP address of the file owner
+     * @param ownerPort     Port of the file owner's server
+     */
+    public FileMetaData(String id, String filename, String relativePath, long size, String ownerUsername,
+            String ownerIp, int ownerPort) {
+        this(id, filename, relativePath, size, 0L, ownerUsername, ownerIp, ownerPort);
+    }
+
+    /**
+     * Constructor for a file at the top of the publish directory, whose
+     * relative path is its filename.
+     * 
+     * @param id            Solr document ID
+     * @param filename      Name of the file
+     * @param size          Size of the file in bytes
+     * @param ownerUsername Username of the file owner
+     * @param ownerIp       IP address of the file owner
+     * @param ownerPort     Port of the file owner's server
+     */
+    public FileMetaData(String id, String filename, long size, String ownerUsername, String ownerIp, int ownerPort) {
+        this(id, filename, filename, size, ownerUsername, ownerIp, ownerPort);
+    }
+
+    /**
+     * Constructor for a scanned local file before Solr ID or full owner details
+     * are known.
+     * 
+     * @param filename      Name of the file
+     * @param relativePath  Path of the file relative to the publish directory,
+     *                      using '/' separators
+     * @param size          Size of the file in bytes
+     * @param lastModified  Last modification time in epoch milliseconds
+     * @param ownerUsername Username of the file owner (current client)
+     */
+    public FileMetaData(String filename, String relativePath, long size, long lastModified, String ownerUsername) {
+        this(null, filename, relativePath, size, lastModified, ownerUsername, null, 0);
+    }
+
     /**
      * Constructor for local file representation before Solr ID or full owner
      * details are known.
      * 
      * @param filename      Name of the file
+     * @param relativePath  Path of the file relative to the publish directory,
+     *                      using '/' separators
+     * @param size          Size of the file in bytes
+     * @param ownerUsername Username of the file owner (current client)
+     */
+    public FileMetaData(String filename, String relativePath, long size, String ownerUsername) {
+        this(null, filename, relativePath, size, ownerUsername, null, 0); // ID, IP, Port are added later
+    }
+
+    /**
+     * Constructor for local file representation of a file at the top of the
+     * publish directory.
+     * 
+     * @param filename      Name of the file
      * @param size          Size of the file in bytes
      * @param ownerUsername Username of the file owner (current client)
      */
     public FileMetaData(String filename, long size, String ownerUsername) {
-        this(null, filename, size, ownerUsername, null, 0); // ID, IP, Port are set later
+        this(filename, filename, size, ownerUsername);
     }
 
     // Getters
@@ -70,10 +150,34 @@ public class FileMetaData {
         return filename;
     }
 
+    /**
+     * The path to request from the owner's file server and the input of the
+     * document ID, e.g. "albums/live/Song.mp3".
+     */
+    public String getRelativePath() {
+        return relativePath;
+    }
+
     public long getSize() {
         return size;
     }
 
+    /**
+     * The last modification time in epoch milliseconds, or 0 if unknown.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Whether this file's content differs from another version of the same
+     * file, judged by size and modification time, as a quick check that does
+     * not read the content. A time known on one side only counts as different.
+     */
+    public boolean isModifiedComparedTo(FileMetaData other) {
+        return size != other.size || lastModified != other.lastModified;
+    }
+
     public String getOwnerUsername() {
         return ownerUsername;
     }
@@ -86,17 +190,27 @@ public class FileMetaData {
         return ownerPort;
     }
 
-    // Setters (use judiciously, prefer immutability where possible after creation)
-    public void setId(String id) {
-        this.id = id;
-    }
-
-    public void setOwnerIp(String ownerIp) {
-        this.ownerIp = ownerIp;
+    /**
+     * The lowercase extension of the filename without the dot, e.g. "mp3" for
+     * "Song.MP3". Empty if the name has no extension or only a leading dot.
+     */
+    public String getExtension() {
+        int dot = filename.lastIndexOf('.');
+        if (dot <= 0 || dot == filename.length() - 1) {
+            return "";
+        }
+        return filename.substring(dot + 1).toLowerCase(Locale.ROOT);
     }
 
-    public void setOwnerPort(int ownerPort) {
-        this.ownerPort = ownerPort;
+    /**
+     * This file with the given Solr document ID, or this file itself if it
+     * already has that ID.
+     */
+    public FileMetaData withId(String id) {
+        if (Objects.equals(this.id, id)) {
+            return this;
+        }
+        return new FileMetaData(id, filename, relativePath, size, lastModified, ownerUsername, ownerIp, ownerPort);
     }
 
     @Override
@@ -106,10 +220,11 @@ public class FileMetaData {
         if (o == null || getClass() != o.getClass())
             return false;
         FileMetaData that = (FileMetaData) o;
-        // For synchronization, primarily compare based on owner and filename.
-        // Size could also be included if versioning or changes are important.
+        // For synchronization, compare based on owner and relative path, the same
+        // inputs as the document ID. Two files with the same name in different
+        // folders are distinct.
         return Objects.equals(ownerUsername, that.ownerUsername) &&
-                Objects.equals(filename, that.filename);
+                Objects.equals(relativePath, that.relativePath);
         // If ID is always present and unique, comparing by ID might be simpler for some
         // cases:
         // return Objects.equals(id, that.id);
@@ -118,7 +233,7 @@ public class FileMetaData {
     @Override
     public int hashCode() {
         // Consistent with the equals method for sync purposes.
-        return Objects.hash(ownerUsername, filename);
+        return Objects.hash(ownerUsername, relativePath);
         // If using ID for equals: return Objects.hash(id);
     }
 
@@ -127,7 +242,9 @@ public class FileMetaData {
         return "FileMetaData{" +
                 "id='" + id + '\'' +
                 ", filename='" + filename + '\'' +
+                ", relativePath='" + relativePath + '\'' +
                 ", size=" + size +
+                ", lastModified=" + lastModified +
                 ", ownerUsername='" + ownerUsername + '\'' +
                 ", ownerIp='" + ownerIp + '\'' +
                 ", ownerPort=" + ownerPort +
@@ -0,0 +1,42 @@
+package com.mycompany.napsterclone.model;
+
+import java.util.List;
+
+/**
+ * Distinct filenames suggested for a partially typed query, and whether they
+ * are all the filenames matching it. Only a complete list can be narrowed
+ * locally for a longer query; a list cut short, whether by the suggestion
+ * limit, by the rows fetched or by Solr's time limit, may lack matches the
+ * longer query would find.
+ */
+public final class FilenameSuggestions {
+    public static final FilenameSuggestions EMPTY = new FilenameSuggestions(List.of(), true);
+
+    private final List<String> filenames;
+    private final boolean complete;
+
+    /**
+     * @param filenames The suggested filenames, best first
+     * @param complete  Whether no other filename matches the query
+     */
+    public FilenameSuggestions(List<String> filenames, boolean complete) {
+        this.filenames = List.copyOf(filenames);
+        this.complete = complete;
+    }
+
+    public List<String> getFilenames() {
+        return filenames;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public String toString() {
+        return "FilenameSuggestions{" +
+                "filenames=" + filenames +
+                ", complete=" + complete +
+                '}';
+    }
+}
@@ -0,0 +1,72 @@
+package com.mycompany.napsterclone.model;
+
+import java.util.Objects;
+
+/**
+ * Immutable connection details of an online peer, as published in its Solr user
+ * document.
+ */
+public final class PeerInfo {
+    private final String username;
+    private final String ip;
+    private final int port;
+
+    /**
+     * @param username Username of the peer
+     * @param ip       IP address of the peer's FileServer
+     * @param port     Port of the peer's FileServer
+     */
+    public PeerInfo(String username, String ip, int port) {
+        if (username == null || username.trim().isEmpty()) {
+            throw new IllegalArgumentException("Peer username cannot be null or empty.");
+        }
+        this.username = username;
+        this.ip = ip;
+        this.port = port;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return true if the peer published an address that can be connected to
+     */
+    public boolean isReachable() {
+        return ip != null && port > 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        PeerInfo that = (PeerInfo) o;
+        return port == that.port &&
+                username.equals(that.username) &&
+                Objects.equals(ip, that.ip);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(username, ip, port);
+    }
+
+    @Override
+    public String toString() {
+        return "PeerInfo{" +
+                "username='" + username + '\'' +
+                ", ip='" + ip + '\'' +
+                ", port=" + port +
+                '}';
+    }
+}
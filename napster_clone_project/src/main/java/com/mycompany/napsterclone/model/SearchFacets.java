@@ -0,0 +1,63 @@
+package com.mycompany.napsterclone.model;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Facet counts for a search: how many matching files fall under each
+ * extension, size range and owner. Counts for a dimension ignore the filter
+ * selected on that same dimension, so the other values stay available for
+ * switching. Maps iterate in descending count order (size ranges in size
+ * order).
+ */
+public final class SearchFacets {
+    public static final SearchFacets EMPTY = new SearchFacets(0, Map.of(), Map.of(), Map.of());
+
+    private final long totalMatches;
+    private final Map<String, Long> extensions;
+    private final Map<SizeBucket, Long> sizeBuckets;
+    private final Map<String, Long> owners;
+
+    /**
+     * @param totalMatches Number of files matching the query and the selection
+     * @param extensions   Count per file extension
+     * @param sizeBuckets  Count per size range
+     * @param owners       Count per owner
+     */
+    public SearchFacets(long totalMatches, Map<String, Long> extensions, Map<SizeBucket, Long> sizeBuckets,
+            Map<String, Long> owners) {
+        this.totalMatches = totalMatches;
+        this.extensions = Collections.unmodifiableMap(new LinkedHashMap<>(extensions));
+        this.sizeBuckets = sizeBuckets.isEmpty() ? Map.of()
+                : Collections.unmodifiableMap(new EnumMap<>(sizeBuckets));
+        this.owners = Collections.unmodifiableMap(new LinkedHashMap<>(owners));
+    }
+
+    public long getTotalMatches() {
+        return totalMatches;
+    }
+
+    public Map<String, Long> getExtensions() {
+        return extensions;
+    }
+
+    public Map<SizeBucket, Long> getSizeBuckets() {
+        return sizeBuckets;
+    }
+
+    public Map<String, Long> getOwners() {
+        return owners;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchFacets{" +
+                "totalMatches=" + totalMatches +
+                ", extensions=" + extensions +
+                ", sizeBuckets=" + sizeBuckets +
+                ", owners=" + owners +
+                '}';
+    }
+}
@@ -0,0 +1,42 @@
+package com.mycompany.napsterclone.model;
+
+/**
+ * File size ranges offered as search facets. Each bucket covers
+ * [minBytes, maxBytes); the last one is open-ended.
+ */
+public enum SizeBucket {
+    UNDER_1_MB("< 1 MB", 0, 1L << 20),
+    MB_1_TO_10("1 - 10 MB", 1L << 20, 10L << 20),
+    MB_10_TO_100("10 - 100 MB", 10L << 20, 100L << 20),
+    MB_100_TO_1_GB("100 MB - 1 GB", 100L << 20, 1L << 30),
+    OVER_1_GB("> 1 GB", 1L << 30, Long.MAX_VALUE);
+
+    private final String label;
+    private final long minBytes;
+    private final long maxBytes;
+
+    SizeBucket(String label, long minBytes, long maxBytes) {
+        this.label = label;
+        this.minBytes = minBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public long getMinBytes() {
+        return minBytes;
+    }
+
+    /**
+     * @return The exclusive upper bound, or Long.MAX_VALUE for the last bucket
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public boolean isOpenEnded() {
+        return maxBytes == Long.MAX_VALUE;
+    }
+}
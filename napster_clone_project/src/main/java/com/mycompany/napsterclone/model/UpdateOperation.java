@@ -2,7 +2,9 @@ package com.mycompany.napsterclone.model;
 
 public class UpdateOperation {
     public enum Type {
-        ADD, REMOVE
+        ADD, // New file: the whole document is indexed
+        UPDATE, // Changed content: only the size and modification time are updated in place
+        REMOVE
     }
 
     private final Type type;
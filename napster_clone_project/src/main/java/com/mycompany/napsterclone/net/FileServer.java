@@ -17,16 +17,45 @@ public class FileServer implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(FileServer.class);
 
     private final int port;
-    private final Path publishDirectory;
+    private final FileLookup fileLookup;
     private final ExecutorService executorService;
     private volatile boolean running = false;
     private volatile boolean acceptingConnections = true; // Added for graceful shutdown
 
+    /**
+     * Finds the local file for a requested path.
+     */
+    public interface FileLookup {
+        /**
+         * @param requestedPath The path the file was published under, with '/'
+         *                      separators
+         * @return The file to send, or null if no shared file has that path
+         */
+        Path find(String requestedPath);
+    }
+
+    /**
+     * Creates a server for the files under a single directory, requested by
+     * their path relative to it.
+     */
     public FileServer(int port, Path publishDirectory) {
+        this(port, requestedPath -> {
+            // Ensure the resolved path is still within the publish directory
+            Path filePath = publishDirectory.resolve(requestedPath).normalize();
+            return filePath.startsWith(publishDirectory) ? filePath : null;
+        });
+        log.info("FileServer serves publish dir {}", publishDirectory);
+    }
+
+    /**
+     * Creates a server for the files a lookup finds, such as those of several
+     * share roots, resolved through one merged lookup.
+     */
+    public FileServer(int port, FileLookup fileLookup) {
         this.port = port;
-        this.publishDirectory = publishDirectory;
+        this.fileLookup = fileLookup;
         this.executorService = Executors.newFixedThreadPool(5); // Limit concurrent file transfers
-        log.info("FileServer initialized with port {} and publish dir {}", port, publishDirectory);
+        log.info("FileServer initialized with port {}", port);
     }
 
     /**
@@ -131,13 +160,11 @@ public class FileServer implements Runnable {
                 return;
             }
 
-            // Resolve the file path within the publish directory
-            Path filePath = publishDirectory.resolve(requestedFile).normalize();
-
-            // Ensure the resolved path is still within the publish directory
-            if (!filePath.startsWith(publishDirectory)) {
-                log.warn("Path traversal attempt detected from {}: {}", clientAddress, requestedFile);
-                dataOut.writeUTF("ERROR: Invalid filename");
+            // Resolve the file path within the shared files
+            Path filePath = fileLookup.find(requestedFile);
+            if (filePath == null) {
+                log.warn("Requested file is not shared: {}", requestedFile);
+                dataOut.writeUTF("ERROR: File not found or not readable");
                 return;
             }
 
@@ -0,0 +1,127 @@
+package com.mycompany.napsterclone.solr;
+
+import org.apache.solr.common.util.Hash;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Builds Solr document IDs for shared files. An ID is derived from the owner
+ * and the file's path relative to the owner's publish directory only, so it
+ * stays the same when the file's content or size changes, and uses a 128-bit
+ * MurmurHash3 of the path so that owners sharing millions of files do not run
+ * into collisions, e.g. alice!file-3f0c...e91a (32 hex digits).
+ * <p>
+ * The owner comes first, followed by '!', which is the compositeId router's
+ * shard key separator: in SolrCloud all files of one owner land on the same
+ * shard, and per-owner requests can be limited to it with
+ * {@link #routeKey(String)}. Standalone Solr treats the '!' as plain text.
+ * Characters the router would parse in a username are percent-escaped.
+ */
+public final class FileDocIds {
+    private static final String FILE_ID_PREFIX = "file-";
+    private static final char ROUTE_SEPARATOR = '!';
+
+    private static final int HASH_SEED = 0;
+    private static final int HASH_HEX_LENGTH = 32;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private FileDocIds() {
+    }
+
+    /**
+     * @param ownerUsername The username of the file owner
+     * @param relativePath  The file's path relative to the publish directory,
+     *                      with '/' separators
+     * @return The document ID
+     */
+    public static String forFile(String ownerUsername, String relativePath) {
+        if (relativePath == null || relativePath.trim().isEmpty()) {
+            throw new IllegalArgumentException("Path cannot be null or empty for generating file document ID.");
+        }
+        String routeKey = routeKey(ownerUsername);
+        char[] id = new char[routeKey.length() + FILE_ID_PREFIX.length() + HASH_HEX_LENGTH];
+        int pos = 0;
+        routeKey.getChars(0, routeKey.length(), id, pos);
+        pos += routeKey.length();
+        FILE_ID_PREFIX.getChars(0, FILE_ID_PREFIX.length(), id, pos);
+        pos += FILE_ID_PREFIX.length();
+        appendHash(relativePath, id, pos);
+        return new String(id);
+    }
+
+    /**
+     * The 128-bit MurmurHash3 of a string, as used in file IDs, for other
+     * names derived from arbitrary text that must not collide.
+     *
+     * @param text The text to hash
+     * @return 32 hex digits
+     */
+    public static String hashHex(String text) {
+        char[] hex = new char[HASH_HEX_LENGTH];
+        appendHash(text, hex, 0);
+        return new String(hex);
+    }
+
+    private static void appendHash(String text, char[] out, int pos) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        Hash.LongPair hash = new Hash.LongPair();
+        Hash.murmurhash3_x64_128(bytes, 0, bytes.length, HASH_SEED, hash);
+        pos = appendHex(hash.val1, out, pos);
+        appendHex(hash.val2, out, pos);
+    }
+
+    /**
+     * The compositeId shard key shared by all files of an owner, usable as the
+     * _route_ parameter of queries and deletes that only concern that owner.
+     * A '!' would end the shard key early and a '/' would be read as a bit
+     * count, so both are percent-escaped, as is '%' itself to keep keys
+     * distinct; usernames without these characters are used as they are.
+     *
+     * @param ownerUsername The username of the file owner
+     * @return The route key, e.g. "alice!"
+     */
+    public static String routeKey(String ownerUsername) {
+        if (ownerUsername == null || ownerUsername.trim().isEmpty()) {
+            throw new IllegalArgumentException("Owner username cannot be null or empty.");
+        }
+        StringBuilder key = new StringBuilder(ownerUsername.length() + 1);
+        for (int i = 0; i < ownerUsername.length(); i++) {
+            char c = ownerUsername.charAt(i);
+            if (c == ROUTE_SEPARATOR || c == '/' || c == '%') {
+                key.append('%').append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xf]);
+            } else {
+                key.append(c);
+            }
+        }
+        return key.append(ROUTE_SEPARATOR).toString();
+    }
+
+    /**
+     * @param id A document ID
+     * @return true if it is the ID of a file document under the current or a
+     *         legacy scheme
+     */
+    public static boolean isFileDocId(String id) {
+        return id != null && (id.startsWith(FILE_ID_PREFIX) || id.contains(ROUTE_SEPARATOR + FILE_ID_PREFIX));
+    }
+
+    /**
+     * The ID scheme used before path-based IDs, a 32-bit hash of the bare
+     * filename. Kept so the benchmark can compare.
+     *
+     * @param ownerUsername The username of the file owner
+     * @param filename      The filename
+     * @return The legacy document ID
+     */
+    public static String legacyForFile(String ownerUsername, String filename) {
+        return FILE_ID_PREFIX + ownerUsername + "-" + Objects.hash(filename);
+    }
+
+    private static int appendHex(long value, char[] out, int pos) {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            out[pos++] = HEX_DIGITS[(int) (value >>> shift) & 0xf];
+        }
+        return pos;
+    }
+}
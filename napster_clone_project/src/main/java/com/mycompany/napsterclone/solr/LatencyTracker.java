@@ -0,0 +1,57 @@
+package com.mycompany.napsterclone.solr;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window of recent request latencies, used to decide when a read has
+ * been slow enough to send a hedge request to another replica. Until enough
+ * samples have been seen a fixed default is used, and the derived threshold is
+ * clamped so a burst of very fast or very slow responses cannot make hedging
+ * either constant or useless.
+ */
+class LatencyTracker {
+    private static final int WINDOW_SIZE = 256;
+    private static final int MIN_SAMPLES = 20;
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    private final long defaultMillis;
+    private final long minMillis;
+    private final long maxMillis;
+
+    private final long[] samples = new long[WINDOW_SIZE];
+    private int next = 0;
+    private int count = 0;
+
+    /**
+     * @param defaultMillis Threshold used until enough samples are recorded
+     * @param minMillis     Lower bound of the derived threshold
+     * @param maxMillis     Upper bound of the derived threshold
+     */
+    LatencyTracker(long defaultMillis, long minMillis, long maxMillis) {
+        this.defaultMillis = defaultMillis;
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % WINDOW_SIZE;
+        if (count < WINDOW_SIZE) {
+            count++;
+        }
+    }
+
+    /**
+     * @return The 95th percentile of recent latencies, clamped to the
+     *         configured bounds
+     */
+    synchronized long hedgeThresholdMillis() {
+        if (count < MIN_SAMPLES) {
+            return defaultMillis;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        long p95 = sorted[(int) Math.ceil(HEDGE_PERCENTILE * count) - 1];
+        return Math.max(minMillis, Math.min(maxMillis, p95));
+    }
+}
@@ -0,0 +1,172 @@
+package com.mycompany.napsterclone.solr;
+
+import com.mycompany.napsterclone.model.PeerInfo;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Long-lived, in-process directory of online peers (username to IP/port).
+ * A background thread keeps it current by asking Solr only for user documents
+ * modified since the previous refresh, with a periodic full reload as a safety
+ * net. Readers get an immutable snapshot through a volatile read, so searches
+ * never block on a refresh.
+ */
+public class PeerDirectory {
+    private static final Logger log = LoggerFactory.getLogger(PeerDirectory.class);
+
+    /**
+     * Supplies peer changes from the index.
+     */
+    interface ChangeSource {
+        /**
+         * Delivers user documents to the sink.
+         *
+         * @param since Only users modified at or after this instant, or null for
+         *              every online user
+         * @param sink  Receives each peer and whether it is online
+         */
+        void fetch(Instant since, BiConsumer<PeerInfo, Boolean> sink) throws SolrServerException, IOException;
+    }
+
+    private final ChangeSource source;
+    private final long refreshIntervalMillis;
+    private final long fullRefreshIntervalMillis;
+    private final Duration overlap;
+    private final Consumer<Map<String, PeerInfo>> changeListener;
+    private final Object refreshLock = new Object();
+    private ScheduledExecutorService scheduler;
+
+    private volatile Map<String, PeerInfo> snapshot; // null until the first refresh
+    // Only touched by the refreshing thread, under the refresh lock
+    private Instant lastRefreshStarted;
+    private long lastFullRefreshNanos;
+
+    /**
+     * @param source                    Fetches user documents from Solr
+     * @param refreshIntervalMillis     Delay between incremental refreshes
+     * @param fullRefreshIntervalMillis Delay between full reloads
+     * @param overlap                   How far before the previous refresh each
+     *                                  incremental query reaches back, to cover
+     *                                  commitWithin visibility delay and clock
+     *                                  skew between peers
+     * @param changeListener            Called with the new snapshot whenever it
+     *                                  changes
+     */
+    PeerDirectory(ChangeSource source, long refreshIntervalMillis, long fullRefreshIntervalMillis,
+            Duration overlap, Consumer<Map<String, PeerInfo>> changeListener) {
+        this.source = source;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.fullRefreshIntervalMillis = fullRefreshIntervalMillis;
+        this.overlap = overlap;
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * Loads the directory once and starts background refreshes. Calling it
+     * again has no effect.
+     *
+     * @throws SolrServerException If the initial load fails
+     * @throws IOException         If an I/O error occurs
+     */
+    public synchronized void start() throws SolrServerException, IOException {
+        if (scheduler != null) {
+            return;
+        }
+        refresh();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "PeerDirectory-Refresher");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (Exception e) {
+                log.warn("Peer directory refresh failed, keeping previous snapshot: {}", e.getMessage());
+            }
+        }, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+        log.info("Peer directory started with {} online peers", snapshot.size());
+    }
+
+    /**
+     * Stops background refreshes. The last snapshot stays readable.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            log.info("Peer directory stopped");
+        }
+    }
+
+    /**
+     * @return The current immutable map of online peers, or null if the
+     *         directory has not been loaded yet
+     */
+    public Map<String, PeerInfo> snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Refreshes the directory now: a full reload if none has been done recently,
+     * otherwise an incremental update.
+     *
+     * @throws SolrServerException If a Solr-specific error occurs
+     * @throws IOException         If an I/O error occurs
+     */
+    public void refresh() throws SolrServerException, IOException {
+        synchronized (refreshLock) {
+            Instant started = Instant.now();
+            Map<String, PeerInfo> current = snapshot;
+            boolean full = current == null || lastRefreshStarted == null
+                    || System.nanoTime() - lastFullRefreshNanos >= TimeUnit.MILLISECONDS.toNanos(fullRefreshIntervalMillis);
+
+            Map<String, PeerInfo> updated;
+            int[] changes = { 0 };
+            if (full) {
+                updated = new HashMap<>();
+                source.fetch(null, (peer, online) -> {
+                    if (online) {
+                        updated.put(peer.getUsername(), peer);
+                    }
+                });
+                lastFullRefreshNanos = System.nanoTime();
+            } else {
+                updated = new HashMap<>(current);
+                source.fetch(lastRefreshStarted.minus(overlap), (peer, online) -> {
+                    changes[0]++;
+                    if (online) {
+                        updated.put(peer.getUsername(), peer);
+                    } else {
+                        updated.remove(peer.getUsername());
+                    }
+                });
+            }
+            lastRefreshStarted = started;
+
+            if (!updated.equals(current)) {
+                Map<String, PeerInfo> next = Map.copyOf(updated);
+                snapshot = next;
+                log.debug("Peer directory {} refresh: {} online peers", full ? "full" : "incremental", next.size());
+                if (current != null) {
+                    changeListener.accept(next);
+                }
+            } else {
+                log.trace("Peer directory {} refresh: no changes ({} user docs examined)",
+                        full ? "full" : "incremental", changes[0]);
+            }
+        }
+    }
+}
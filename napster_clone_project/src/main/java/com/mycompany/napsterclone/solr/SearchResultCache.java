@@ -0,0 +1,274 @@
+package com.mycompany.napsterclone.solr;
+
+import com.mycompany.napsterclone.model.FacetSelection;
+import com.mycompany.napsterclone.model.FileList;
+import com.mycompany.napsterclone.model.FileMetaData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded LRU cache of search results keyed by normalized query text and
+ * requesting user. Entries expire after a fixed TTL, eviction is driven by the
+ * estimated heap size of the cached results, and the whole cache is dropped
+ * whenever the set of online peers is seen to change.
+ */
+public class SearchResultCache {
+    private static final Logger log = LoggerFactory.getLogger(SearchResultCache.class);
+
+    // Rough per-object overheads used for size estimation
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    private static final class Entry {
+        final List<FileMetaData> results;
+        final long sizeBytes;
+        final long expiresAtNanos;
+
+        Entry(List<FileMetaData> results, long sizeBytes, long expiresAtNanos) {
+            this.results = results;
+            this.sizeBytes = sizeBytes;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private final long ttlNanos;
+    private final long maxBytes;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes = 0;
+    // Bumped on every invalidation so searches started earlier cannot store stale results
+    private long generation = 0;
+    private long onlinePeersFingerprint = 0;
+    private boolean onlinePeersSeen = false;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+    private long invalidations = 0;
+
+    /**
+     * @param ttlMillis How long a cached result stays valid
+     * @param maxBytes  Upper bound on the estimated size of all cached results
+     */
+    SearchResultCache(long ttlMillis, long maxBytes) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Builds the cache key for a search. Whitespace and case are normalized the
+     * same way the text_en analyzer treats them, so "Foo  Bar" and "foo bar"
+     * share an entry. Capped and uncapped searches are kept apart so a capped
+     * list is never served as a complete one, and so are different facet
+     * selections.
+     *
+     * @param maxResults The row cap of the search, or -1 if uncapped
+     * @param selection  The facet values the search is narrowed to
+     */
+    static String key(String queryString, String requestingUsername, int maxResults, FacetSelection selection) {
+        String normalized = queryString == null ? ""
+                : queryString.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        String key = normalized + '\u0000' + requestingUsername + '\u0000' + maxResults;
+        if (!selection.isEmpty()) {
+            key += '\u0000' + String.valueOf(selection.getExtension())
+                    + '\u0000' + selection.getSizeBucket()
+                    + '\u0000' + selection.getOwner();
+        }
+        return key;
+    }
+
+    /**
+     * @return The cached results, or null on a miss or expired entry
+     */
+    public synchronized List<FileMetaData> get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAtNanos >= 0) {
+            removeEntry(key, entry);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.results;
+    }
+
+    /**
+     * @return The current generation, to be passed back to {@link #put}
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Caches a result list unless the cache was invalidated since the search
+     * started or the list alone would exceed the size budget.
+     *
+     * @param key              The cache key
+     * @param results          Results to cache; stored as a read-only
+     *                         {@link FileList}
+     * @param searchGeneration The generation observed when the search started
+     * @return The list as stored (or the given list if it was not cached)
+     */
+    public synchronized List<FileMetaData> put(String key, List<FileMetaData> results, long searchGeneration) {
+        if (searchGeneration != generation) {
+            log.debug("Not caching results for stale search generation {}", searchGeneration);
+            return results;
+        }
+        FileList stored = FileList.copyOf(results);
+        long sizeBytes = ENTRY_OVERHEAD_BYTES + stringSize(key) + stored.estimatedSizeBytes();
+        if (sizeBytes > maxBytes) {
+            log.debug("Search result of {} files ({} bytes) exceeds cache budget, not cached",
+                    results.size(), sizeBytes);
+            return results;
+        }
+        Entry previous = entries.put(key, new Entry(stored, sizeBytes, System.nanoTime() + ttlNanos));
+        if (previous != null) {
+            currentBytes -= previous.sizeBytes;
+        }
+        currentBytes += sizeBytes;
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Entry> victim = eldest.next();
+            eldest.remove();
+            currentBytes -= victim.getValue().sizeBytes;
+            evictions++;
+        }
+        return stored;
+    }
+
+    /**
+     * Records the online peers seen by a fresh lookup. If they differ from the
+     * previous lookup, every cached result may point at a peer that left or miss
+     * one that joined, so the cache is cleared.
+     *
+     * @param onlineUserDetails Map of online username to user document fields
+     */
+    public synchronized void onOnlinePeersObserved(Map<String, ?> onlineUserDetails) {
+        long fingerprint = onlineUserDetails.size();
+        for (Map.Entry<String, ?> peer : onlineUserDetails.entrySet()) {
+            // Order-independent combination of each peer's identity and address
+            fingerprint += 31L * peer.getKey().hashCode() + String.valueOf(peer.getValue()).hashCode();
+        }
+        if (onlinePeersSeen && fingerprint != onlinePeersFingerprint) {
+            invalidateAll("online peers changed");
+        }
+        onlinePeersFingerprint = fingerprint;
+        onlinePeersSeen = true;
+    }
+
+    /**
+     * Drops every cached result.
+     *
+     * @param reason Why the cache is being invalidated (for logging)
+     */
+    public synchronized void invalidateAll(String reason) {
+        generation++;
+        if (!entries.isEmpty()) {
+            log.debug("Invalidating {} cached search results: {}", entries.size(), reason);
+            entries.clear();
+            currentBytes = 0;
+            invalidations++;
+        }
+    }
+
+    private void removeEntry(String key, Entry entry) {
+        entries.remove(key);
+        currentBytes -= entry.sizeBytes;
+    }
+
+    private static long stringSize(String value) {
+        return value == null ? 0 : STRING_OVERHEAD_BYTES + value.length();
+    }
+
+    /**
+     * @return A snapshot of the cache metrics
+     */
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, evictions, expirations, invalidations, entries.size(), currentBytes);
+    }
+
+    /**
+     * Immutable snapshot of the search cache metrics.
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long expirations;
+        private final long invalidations;
+        private final int entries;
+        private final long sizeBytes;
+
+        Stats(long hits, long misses, long evictions, long expirations, long invalidations, int entries,
+                long sizeBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.expirations = expirations;
+            this.invalidations = invalidations;
+            this.entries = entries;
+            this.sizeBytes = sizeBytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public double getHitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public long getExpirations() {
+            return expirations;
+        }
+
+        public long getInvalidations() {
+            return invalidations;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "SearchCacheStats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", hitRatio=" + String.format("%.2f", getHitRatio()) +
+                    ", evictions=" + evictions +
+                    ", expirations=" + expirations +
+                    ", invalidations=" + invalidations +
+                    ", entries=" + entries +
+                    ", sizeBytes=" + sizeBytes +
+                    '}';
+        }
+    }
+}
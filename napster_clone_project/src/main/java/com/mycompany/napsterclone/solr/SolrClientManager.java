@@ -1,32 +1,88 @@
 package com.mycompany.napsterclone.solr;
 
+import com.mycompany.napsterclone.model.FacetSelection;
+import com.mycompany.napsterclone.model.FileList;
 import com.mycompany.napsterclone.model.FileMetaData;
+import com.mycompany.napsterclone.model.FilenameSuggestions;
+import com.mycompany.napsterclone.model.PeerInfo;
+import com.mycompany.napsterclone.model.SearchFacets;
+import com.mycompany.napsterclone.model.SizeBucket;
 import com.mycompany.napsterclone.model.UpdateOperation;
+import com.mycompany.napsterclone.util.FilenameTokens;
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.Http2SolrClient;
 import org.apache.solr.client.solrj.impl.BaseHttpSolrClient.RemoteSolrException;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.client.solrj.util.AsyncListener;
+import org.apache.solr.client.solrj.util.Cancellable;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.ShardParams;
+import org.apache.solr.common.util.NamedList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
  * Manages communication with Solr for the Napster Clone application.
  * This implementation works with the load-balanced napster_clone core.
  * Enhanced with robust failover support for high availability.
+ * <p>
+ * The same URLs may instead name the napster_clone collection on several
+ * SolrCloud nodes (e.g. http://node1:8983/solr/napster_clone), which acts as
+ * the static node list: whichever node receives a request fans searches out to
+ * all shards in parallel and forwards updates to the shard leader chosen by the
+ * compositeId router. File IDs start with their owner's route key (see
+ * {@link FileDocIds}), so per-user syncs and deletes pass it as _route_ and
+ * touch a single shard.
  */
 public class SolrClientManager {
     private static final Logger log = LoggerFactory.getLogger(SolrClientManager.class);
@@ -37,6 +93,117 @@ public class SolrClientManager {
     private int currentSolrUrlIndex = 0;
     private int maxRetries = 3;
 
+    // Bounds the number of asynchronous requests on the wire at once; the rest
+    // wait in pendingAsyncRequests until a permit is released.
+    private static final int DEFAULT_MAX_ASYNC_IN_FLIGHT = 8;
+    private final Semaphore asyncPermits;
+    private final Queue<Runnable> pendingAsyncRequests = new ConcurrentLinkedQueue<>();
+
+    // Write-behind queue for file and status updates. Batches are made visible via
+    // commitWithin rather than explicit commits, so searchers are not reopened on
+    // every peer join/leave.
+    private static final int UPDATE_QUEUE_MAX_BATCH = 1000;
+    private static final long UPDATE_QUEUE_LINGER_MS = 200;
+    private static final int COMMIT_WITHIN_MS = 10000;
+    private static final long UPDATE_QUEUE_SHUTDOWN_TIMEOUT_MS = 15000;
+    private final SolrUpdateQueue updateQueue;
+    // Queues of managers not shut down yet; one hook per process flushes them
+    // if the JVM exits without shutdown()
+    private static final Set<SolrUpdateQueue> LIVE_UPDATE_QUEUES = ConcurrentHashMap.newKeySet();
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (SolrUpdateQueue queue : LIVE_UPDATE_QUEUES) {
+                queue.shutdown(UPDATE_QUEUE_SHUTDOWN_TIMEOUT_MS);
+            }
+        }, "SolrUpdateQueue-ShutdownHook"));
+    }
+    // applyFileUpdates queues large lists this many at a time, with at most
+    // this many chunks awaiting acknowledgement
+    private static final int FILE_UPDATE_CHUNK_SIZE = UPDATE_QUEUE_MAX_BATCH;
+    private static final int MAX_FILE_UPDATE_CHUNKS_IN_FLIGHT = 4;
+
+    // Page size for cursorMark deep paging over large result sets
+    private static final int CURSOR_PAGE_SIZE = 1000;
+    // Smaller pages for interactive searches so the first results show up quickly
+    private static final int SEARCH_PAGE_SIZE = 100;
+
+    // Facet value lists are cut to the most frequent values
+    private static final int FACET_LIMIT = 20;
+    // Local-params tags, so each facet's counts ignore its own filter
+    private static final String TAG_EXTENSION = "ext";
+    private static final String TAG_SIZE = "size";
+    private static final String TAG_OWNER = "owner";
+
+    // Per-operation limits for reads. timeAllowed makes Solr stop collecting and
+    // return what it has (flagged partialResults); the deadline bounds the whole
+    // call on the client, hedge included, well below the 15s idle timeout.
+    private static final int SEARCH_TIME_ALLOWED_MS = 2000;
+    private static final long SEARCH_DEADLINE_MS = 5000;
+    private static final int SUGGEST_TIME_ALLOWED_MS = 250;
+    private static final long SUGGEST_DEADLINE_MS = 1000;
+    private static final long LOOKUP_DEADLINE_MS = 3000;
+    private static final String PARAM_PARTIAL_RESULTS = "partialResults";
+
+    // Hedged reads: a read not answered within the recent p95 latency of its kind
+    // is sent again to the next replica in solrUrls and the first answer wins
+    private final LatencyTracker searchLatency = new LatencyTracker(300, 50, 2000);
+    private final LatencyTracker suggestLatency = new LatencyTracker(100, 20, 500);
+    private final LatencyTracker lookupLatency = new LatencyTracker(200, 30, 1500);
+    // Shared by all managers; the timer thread exits after a minute without hedged reads
+    private static final long HEDGE_TIMER_KEEP_ALIVE_MS = 60000;
+    private static final ScheduledThreadPoolExecutor HEDGE_SCHEDULER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "SolrHedgeTimer");
+        t.setDaemon(true);
+        return t;
+    });
+    static {
+        HEDGE_SCHEDULER.setKeepAliveTime(HEDGE_TIMER_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+        HEDGE_SCHEDULER.allowCoreThreadTimeOut(true);
+        HEDGE_SCHEDULER.setRemoveOnCancelPolicy(true); // Most timers are cancelled by a timely answer
+    }
+
+    // Type-ahead suggestions fetch a few extra rows so duplicates can be dropped
+    private static final int SUGGESTION_OVERFETCH = 4;
+
+    // Client-side cache of search results, keyed by normalized query and user
+    private static final int SEARCH_RESULT_LIMIT = 500;
+    private static final int MAX_CACHED_STREAMING_RESULTS = 20000;
+    private static final long SEARCH_CACHE_TTL_MS = 30000;
+    private static final long SEARCH_CACHE_MAX_BYTES = 16L * 1024 * 1024;
+    private final SearchResultCache searchCache = new SearchResultCache(SEARCH_CACHE_TTL_MS,
+            SEARCH_CACHE_MAX_BYTES);
+
+    // In-process directory of online peers, refreshed incrementally from user
+    // documents whose last_updated_dt changed since the previous refresh
+    private static final long PEER_DIRECTORY_REFRESH_MS = 5000;
+    private static final long PEER_DIRECTORY_FULL_REFRESH_MS = 5 * 60 * 1000;
+    // Covers commitWithin visibility delay plus clock skew between peers
+    private static final Duration PEER_DIRECTORY_OVERLAP = Duration.ofMillis(COMMIT_WITHIN_MS + 50000);
+    private final PeerDirectory peerDirectory = new PeerDirectory(this::fetchPeerChanges,
+            PEER_DIRECTORY_REFRESH_MS, PEER_DIRECTORY_FULL_REFRESH_MS, PEER_DIRECTORY_OVERLAP,
+            peers -> searchCache.invalidateAll("peer directory changed"));
+    private volatile boolean peerDirectoryStarted = false;
+    // The directory snapshot without the requesting user, rebuilt only when the
+    // snapshot changes rather than on every search
+    private volatile DirectoryPeersView directoryPeersView;
+
+    /**
+     * How long a peer counts as online after its last heartbeat. Peers send
+     * heartbeats well within this window; searches ignore peers whose lease has
+     * run out, and the sweeper marks them offline and drops their files.
+     */
+    public static final long PEER_LEASE_MS = 90000;
+    // Matches user docs whose lease is still valid, judged by Solr's clock
+    private static final String LIVE_LEASE_FILTER = "last_seen_dt:[NOW-" + PEER_LEASE_MS / 1000 + "SECONDS TO *]";
+    // Lets Solr stamp heartbeats with its own clock, so peers' clock skew does not matter
+    private static final String SOLR_NOW = "NOW";
+
+    // Cleared the first time Solr rejects a deleteByQuery as not permitted,
+    // after which bulk removals page through IDs instead
+    private volatile boolean deleteByQueryAllowed = true;
+    private static final Pattern DELETE_BY_QUERY_DISABLED_MESSAGE = Pattern.compile(
+            "delete[ _-]?by[ _-]?query.*(disabled|not (allowed|permitted|supported))", Pattern.CASE_INSENSITIVE);
+
     // Field names (ensure these match your Solr schema)
     private static final String FIELD_ID = "id";
     private static final String FIELD_DOC_TYPE = "doc_type_s";
@@ -47,15 +214,26 @@ public class SolrClientManager {
     private static final String FIELD_PORT = "port_i";
     private static final String FIELD_STATUS = "status_s";
     private static final String FIELD_FILENAME = "filename_s";
-    private static final String FIELD_FILENAME_SEARCH = "filename_txt_en";
+    private static final String FIELD_FILENAME_SEARCH = "filename_txt_en"; // copyField from filename_s
+    private static final String FIELD_FILENAME_PREFIX = "filename_prefix"; // copyField from filename_s
+    private static final String FIELD_PATH = "path_s";
+    private static final String FIELD_MODIFIED = "modified_dt";
     private static final String FIELD_SIZE = "size_l";
     private static final String FIELD_OWNER_USERNAME = "owner_username_s";
+    private static final String FIELD_EXTENSION = "extension_s";
+    private static final String FIELD_LAST_UPDATED = "last_updated_dt";
+    private static final String FIELD_LAST_SEEN = "last_seen_dt";
+    private static final String FIELD_SYNC_VERSION = "sync_version_l";
+    // Share roots other than the default one each keep their version in a field
+    // of the *_l dynamic field of the _default configset
+    private static final String FIELD_ROOT_SYNC_VERSION_PREFIX = "sync_version_";
+    private static final String FIELD_ROOT_SYNC_VERSION_SUFFIX = "_l";
+    private static final String FIELD_VERSION = "_version_";
 
     private static final String STATUS_ONLINE = "online";
     private static final String STATUS_OFFLINE = "offline";
 
     private static final String USER_ID_PREFIX = "user-";
-    private static final String FILE_ID_PREFIX = "file-";
 
     /**
      * Creates a new SolrClientManager that connects to the specified Solr URLs.
@@ -66,10 +244,29 @@ public class SolrClientManager {
      * @param solrUrls Array of Solr server URLs to connect to
      */
     public SolrClientManager(String[] solrUrls) {
+        this(solrUrls, DEFAULT_MAX_ASYNC_IN_FLIGHT);
+    }
+
+    /**
+     * Creates a new SolrClientManager with an explicit limit on concurrent
+     * asynchronous requests.
+     *
+     * @param solrUrls         Array of Solr server URLs to connect to
+     * @param maxAsyncInFlight Maximum number of asynchronous requests sent to Solr
+     *                         at the same time
+     */
+    public SolrClientManager(String[] solrUrls, int maxAsyncInFlight) {
         if (solrUrls == null || solrUrls.length == 0 || solrUrls[0] == null || solrUrls[0].trim().isEmpty()) {
             throw new IllegalArgumentException("Solr URLs cannot be null or empty.");
         }
+        if (maxAsyncInFlight < 1) {
+            throw new IllegalArgumentException("Max async in-flight requests must be at least 1.");
+        }
         this.solrUrls = solrUrls;
+        this.asyncPermits = new Semaphore(maxAsyncInFlight);
+        this.updateQueue = new SolrUpdateQueue(this::sendQueuedBatch, UPDATE_QUEUE_MAX_BATCH,
+                UPDATE_QUEUE_LINGER_MS, COMMIT_WITHIN_MS);
+        LIVE_UPDATE_QUEUES.add(updateQueue);
     }
 
     /**
@@ -182,6 +379,20 @@ public class SolrClientManager {
         }
     }
 
+    /**
+     * Flushes all queued updates and disconnects. Call this once when the
+     * application exits; unlike {@link #disconnect()}, the manager cannot be
+     * used for updates afterwards.
+     */
+    public void shutdown() {
+        log.info("Shutting down SolrClientManager");
+        peerDirectoryStarted = false;
+        peerDirectory.stop();
+        updateQueue.shutdown(UPDATE_QUEUE_SHUTDOWN_TIMEOUT_MS);
+        LIVE_UPDATE_QUEUES.remove(updateQueue);
+        disconnect();
+    }
+
     /**
      * Ensures a connection to Solr exists, attempting to reconnect if necessary.
      * 
@@ -234,6 +445,16 @@ public class SolrClientManager {
                 // Try the operation
                 return operation.execute();
             } catch (Exception e) {
+                if (isDeadlineExceeded(e)) {
+                    // A hedged read has already tried another replica, and retrying
+                    // would stretch its deadline several times over
+                    log.warn("Operation '{}' exceeded its deadline; not retrying", operationName);
+                    throw (SolrServerException) e;
+                }
+                if (e instanceof SolrException && ((SolrException) e).code() == 400) {
+                    // Every replica rejects a bad request the same way
+                    throw new SolrServerException("Operation failed: " + operationName, e);
+                }
                 attemptsRemaining--;
                 lastException = e;
 
@@ -277,6 +498,346 @@ public class SolrClientManager {
         }
     }
 
+    /**
+     * Sends one coalesced batch from the update queue, with failover.
+     *
+     * @param request The batched update request
+     * @throws SolrServerException If a Solr-specific error occurs
+     * @throws IOException         If an I/O error occurs
+     */
+    private void sendQueuedBatch(UpdateRequest request) throws SolrServerException, IOException {
+        int docCount = request.getDocuments() == null ? 0 : request.getDocuments().size();
+        int deleteCount = request.getDeleteById() == null ? 0 : request.getDeleteById().size();
+        executeWithRetryAndFailover(() -> {
+            UpdateResponse response = request.process(solrClient);
+            handleUpdateResponse(response, "queued batch of " + docCount + " adds, " + deleteCount + " deletes");
+            return null;
+        }, "sendQueuedBatch(" + docCount + " adds, " + deleteCount + " deletes)");
+    }
+
+    /**
+     * Waits for the futures of queued updates, throwing the first failure.
+     */
+    private static void awaitUpdates(Set<CompletableFuture<Void>> updateFutures)
+            throws SolrServerException, IOException {
+        for (CompletableFuture<Void> updateFuture : updateFutures) {
+            SolrUpdateQueue.await(updateFuture);
+        }
+    }
+
+    /**
+     * Gets a snapshot of the write-behind update queue metrics (batch sizes,
+     * coalesced updates and lag).
+     *
+     * @return The current update queue statistics
+     */
+    public SolrUpdateQueue.Stats getUpdateQueueStats() {
+        return updateQueue.getStats();
+    }
+
+    /**
+     * Gets a snapshot of the search result cache metrics (hits, misses,
+     * evictions and size).
+     *
+     * @return The current search cache statistics
+     */
+    public SearchResultCache.Stats getSearchCacheStats() {
+        return searchCache.getStats();
+    }
+
+    /**
+     * Drops all cached search results, e.g. when the user explicitly refreshes.
+     */
+    public void invalidateSearchCache() {
+        searchCache.invalidateAll("explicit invalidation");
+    }
+
+    /**
+     * Sends a request through the non-blocking Http2SolrClient API.
+     * The request is queued if the in-flight limit has been reached, and
+     * cancelling the returned future aborts the underlying HTTP exchange.
+     * Unlike the blocking methods, failures are not retried against another
+     * server; the caller decides whether to fall back.
+     *
+     * @param request       The Solr request to send
+     * @param mapper        Converts the raw response into the result type
+     * @param operationName A descriptive name for the operation (for logging)
+     * @return A future completed with the mapped response
+     */
+    private <T> CompletableFuture<T> executeAsync(SolrRequest<?> request,
+            Function<NamedList<Object>, T> mapper, String operationName) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        pendingAsyncRequests.add(() -> {
+            if (future.isDone()) { // Cancelled while waiting for a permit
+                releaseAsyncPermit();
+                return;
+            }
+            // Released exactly once: by the callbacks, or on cancellation, as
+            // Http2SolrClient calls neither listener method for a cancelled request
+            AtomicBoolean permitHeld = new AtomicBoolean(true);
+            Runnable releasePermit = () -> {
+                if (permitHeld.compareAndSet(true, false)) {
+                    releaseAsyncPermit();
+                }
+            };
+            try {
+                Http2SolrClient client = getAsyncClient();
+                Cancellable cancellable = client.asyncRequest(request, null, new AsyncListener<>() {
+                    @Override
+                    public void onSuccess(NamedList<Object> response) {
+                        releasePermit.run();
+                        try {
+                            future.complete(mapper.apply(response));
+                        } catch (Exception e) {
+                            future.completeExceptionally(e);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Throwable throwable) {
+                        releasePermit.run();
+                        log.warn("Async operation '{}' failed on server {}: {}",
+                                operationName, client.getBaseURL(), throwable.getMessage());
+                        future.completeExceptionally(throwable);
+                    }
+                });
+                future.whenComplete((result, error) -> {
+                    if (future.isCancelled()) {
+                        log.debug("Async operation '{}' cancelled", operationName);
+                        cancellable.cancel();
+                        releasePermit.run();
+                    }
+                });
+            } catch (Exception e) {
+                releasePermit.run();
+                log.warn("Async operation '{}' could not be dispatched: {}", operationName, e.getMessage());
+                future.completeExceptionally(e);
+            }
+        });
+        drainAsyncQueue();
+        return future;
+    }
+
+    /**
+     * Dispatches queued asynchronous requests while permits are available.
+     */
+    private void drainAsyncQueue() {
+        while (!pendingAsyncRequests.isEmpty() && asyncPermits.tryAcquire()) {
+            Runnable dispatch = pendingAsyncRequests.poll();
+            if (dispatch == null) {
+                // Another thread took the last entry; give the permit back and re-check
+                asyncPermits.release();
+                continue;
+            }
+            dispatch.run();
+        }
+    }
+
+    private void releaseAsyncPermit() {
+        asyncPermits.release();
+        drainAsyncQueue();
+    }
+
+    /**
+     * Returns the current client for an asynchronous request, reconnecting only
+     * when no connection exists. Skips the ping done by ensureConnected() so the
+     * calling thread is not blocked on a round trip.
+     */
+    private Http2SolrClient getAsyncClient() {
+        Http2SolrClient client = solrClient;
+        if (connected && client != null) {
+            return client;
+        }
+        ensureConnected();
+        return solrClient;
+    }
+
+    /**
+     * Runs a read-only query asynchronously with hedging and a deadline. If no
+     * answer has arrived after the tracker's p95 latency, or the first attempt
+     * fails, the same query is sent to the next Solr URL; whichever answers
+     * first wins and the other request is cancelled. The returned future fails
+     * with a TimeoutException once the deadline passes.
+     *
+     * @param query          The query; must not be modified afterwards
+     * @param mapper         Converts the winning response
+     * @param latency        Latency history of this kind of query
+     * @param deadlineMillis Overall time limit for the call
+     * @param operationName  A descriptive name for the operation (for logging)
+     * @return A future completed with the mapped response
+     */
+    private <T> CompletableFuture<T> executeHedgedQuery(SolrQuery query, Function<QueryResponse, T> mapper,
+            LatencyTracker latency, long deadlineMillis, String operationName) {
+        CompletableFuture<QueryResponse> response = new HedgedQuery(query, latency, operationName).start();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        response.whenComplete((r, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            try {
+                result.complete(mapper.apply(r));
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.orTimeout(deadlineMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((r, error) -> {
+            if (!response.isDone()) { // Cancelled or past the deadline
+                if (error instanceof TimeoutException) {
+                    log.warn("Operation '{}' exceeded its {} ms deadline", operationName, deadlineMillis);
+                }
+                response.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Waits for an asynchronous read, translating its failure into the
+     * exceptions thrown by the synchronous API.
+     */
+    private static <T> T awaitRead(CompletableFuture<T> future, String operationName)
+            throws SolrServerException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + operationName);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SolrServerException) {
+                throw (SolrServerException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof TimeoutException) {
+                throw new SolrServerException("Deadline exceeded for " + operationName, cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SolrServerException("Operation failed: " + operationName, cause);
+        }
+    }
+
+    /**
+     * @return true if the exception is a hedged read giving up at its deadline,
+     *         as thrown by {@link #awaitRead(CompletableFuture, String)}
+     */
+    private static boolean isDeadlineExceeded(Exception e) {
+        return e instanceof SolrServerException && e.getCause() instanceof TimeoutException;
+    }
+
+    /**
+     * @return true if Solr stopped early because of timeAllowed and the
+     *         response holds only part of the matches
+     */
+    private static boolean isPartial(QueryResponse response) {
+        NamedList<?> header = response.getResponseHeader();
+        return header != null && Boolean.TRUE.equals(header.get(PARAM_PARTIAL_RESULTS));
+    }
+
+    /**
+     * Limits how long Solr may spend on a query; past that it returns the
+     * matches collected so far instead of an error.
+     */
+    private static void limitQueryTime(SolrQuery query, int timeAllowedMillis) {
+        query.setTimeAllowed(timeAllowedMillis);
+        query.set(PARAM_PARTIAL_RESULTS, true);
+    }
+
+    /**
+     * One hedged read: the primary attempt, the optional hedge and the timer
+     * that fires the hedge.
+     */
+    private final class HedgedQuery {
+        private final SolrQuery query;
+        private final LatencyTracker latency;
+        private final String operationName;
+        private final String hedgeUrl;
+        private final CompletableFuture<QueryResponse> result = new CompletableFuture<>();
+        private final AtomicBoolean hedgeSent = new AtomicBoolean(false);
+        private final AtomicInteger failures = new AtomicInteger(0);
+        private volatile CompletableFuture<QueryResponse> primary;
+        private volatile CompletableFuture<QueryResponse> hedge;
+        private volatile ScheduledFuture<?> hedgeTimer;
+
+        HedgedQuery(SolrQuery query, LatencyTracker latency, String operationName) {
+            this.query = query;
+            this.latency = latency;
+            this.operationName = operationName;
+            this.hedgeUrl = solrUrls.length > 1 ? solrUrls[(currentSolrUrlIndex + 1) % solrUrls.length] : null;
+        }
+
+        CompletableFuture<QueryResponse> start() {
+            result.whenComplete((response, error) -> {
+                ScheduledFuture<?> timer = hedgeTimer;
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+                cancelIfRunning(primary);
+                cancelIfRunning(hedge);
+            });
+            primary = send(null);
+            if (hedgeUrl != null && !result.isDone()) {
+                long threshold = latency.hedgeThresholdMillis();
+                hedgeTimer = HEDGE_SCHEDULER.schedule(this::sendHedge, threshold, TimeUnit.MILLISECONDS);
+            }
+            return result;
+        }
+
+        private void sendHedge() {
+            if (result.isDone() || !hedgeSent.compareAndSet(false, true)) {
+                return;
+            }
+            log.debug("Hedging '{}' to {} after {} ms", operationName, hedgeUrl, latency.hedgeThresholdMillis());
+            hedge = send(hedgeUrl);
+        }
+
+        private CompletableFuture<QueryResponse> send(String baseUrl) {
+            QueryRequest request = new QueryRequest(query);
+            if (baseUrl != null) {
+                request.setBasePath(baseUrl);
+            }
+            long startNanos = System.nanoTime();
+            boolean isHedge = baseUrl != null;
+            CompletableFuture<QueryResponse> attempt = executeAsync(request,
+                    response -> new QueryResponse(response, solrClient),
+                    isHedge ? operationName + " [hedge]" : operationName);
+            attempt.whenComplete((response, error) -> {
+                if (error == null) {
+                    latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                    if (isPartial(response)) {
+                        log.warn("Operation '{}' hit its time limit; results are partial", operationName);
+                    }
+                    if (result.complete(response) && isHedge) {
+                        log.debug("Hedge for '{}' answered first", operationName);
+                    }
+                    return;
+                }
+                if (attempt.isCancelled() || result.isDone()) {
+                    return;
+                }
+                int failed = failures.incrementAndGet();
+                if (!isHedge && hedgeUrl != null && !hedgeSent.get()) {
+                    sendHedge(); // Fail over to the other replica straight away
+                    return;
+                }
+                if (failed >= (hedgeSent.get() ? 2 : 1)) {
+                    result.completeExceptionally(error);
+                }
+            });
+            return attempt;
+        }
+
+        private void cancelIfRunning(CompletableFuture<QueryResponse> attempt) {
+            if (attempt != null && !attempt.isDone()) {
+                attempt.cancel(true);
+            }
+        }
+    }
+
     /**
      * Generates a document ID for a user.
      * 
@@ -292,7 +853,8 @@ public class SolrClientManager {
 
     /**
      * Registers a user in the Solr index or updates an existing user.
-     * Sets the user status as online.
+     * Sets the user status as online. Sent as an atomic update so that an
+     * existing user's sync version survives re-registration.
      * 
      * @param username The username
      * @param ip       The user's IP address
@@ -306,14 +868,17 @@ public class SolrClientManager {
         executeWithRetryAndFailover(() -> {
             SolrInputDocument userDoc = new SolrInputDocument();
             userDoc.setField(FIELD_ID, getUserDocId(username));
-            userDoc.setField(FIELD_DOC_TYPE, DOC_TYPE_USER);
-            userDoc.setField(FIELD_USERNAME, username);
-            userDoc.setField(FIELD_IP, ip);
-            userDoc.setField(FIELD_PORT, port);
-            userDoc.setField(FIELD_STATUS, STATUS_ONLINE);
-
-            UpdateResponse response = solrClient.add(userDoc, 10000);
+            userDoc.setField(FIELD_DOC_TYPE, Map.of("set", DOC_TYPE_USER));
+            userDoc.setField(FIELD_USERNAME, Map.of("set", username));
+            userDoc.setField(FIELD_IP, Map.of("set", ip));
+            userDoc.setField(FIELD_PORT, Map.of("set", port));
+            userDoc.setField(FIELD_STATUS, Map.of("set", STATUS_ONLINE));
+            userDoc.setField(FIELD_LAST_UPDATED, Map.of("set", new Date()));
+            userDoc.setField(FIELD_LAST_SEEN, Map.of("set", SOLR_NOW));
+
+            UpdateResponse response = solrClient.add(userDoc, COMMIT_WITHIN_MS);
             handleUpdateResponse(response, "register user " + username);
+            searchCache.invalidateAll("user " + username + " registered");
             return null;
         }, "registerUser(" + username + ")");
     }
@@ -327,86 +892,326 @@ public class SolrClientManager {
      * @throws IOException         If an I/O error occurs
      */
     public void setUserStatus(String username, boolean online) throws SolrServerException, IOException {
+        SolrUpdateQueue.await(queueUserStatus(username, online));
+    }
+
+    /**
+     * Queues an atomic status update for a user without waiting for it to be
+     * sent.
+     *
+     * @param username The username
+     * @param online   True for online status, false for offline
+     * @return A future completed once the update has been acknowledged by Solr
+     */
+    private CompletableFuture<Void> queueUserStatus(String username, boolean online) {
         String status = online ? STATUS_ONLINE : STATUS_OFFLINE;
         log.info("Setting status for user '{}' to {}", username, status);
 
-        executeWithRetryAndFailover(() -> {
-            SolrInputDocument userDoc = new SolrInputDocument();
-            userDoc.setField(FIELD_ID, getUserDocId(username));
-            userDoc.setField(FIELD_STATUS, Map.of("set", status));
+        String docId = getUserDocId(username);
+        SolrInputDocument userDoc = new SolrInputDocument();
+        userDoc.setField(FIELD_ID, docId);
+        userDoc.setField(FIELD_STATUS, Map.of("set", status));
+        userDoc.setField(FIELD_LAST_UPDATED, Map.of("set", new Date()));
+        searchCache.invalidateAll("user " + username + " went " + status);
+        return updateQueue.partialUpdate(docId, userDoc);
+    }
 
-            UpdateResponse response = solrClient.add(userDoc, 10000);
-            handleUpdateResponse(response, "update user status " + username);
-            return null;
-        }, "setUserStatus(" + username + "," + online + ")");
+    /**
+     * Renews a user's presence lease by stamping last_seen_dt. The update goes
+     * through the write-behind queue, so it is coalesced with any other pending
+     * change to the user doc and shares a request with other queued updates. It
+     * deliberately leaves last_updated_dt alone so peer directories do not
+     * re-fetch every peer on every heartbeat.
+     *
+     * @param username The username
+     * @throws SolrServerException If a Solr-specific error occurs
+     * @throws IOException         If an I/O error occurs
+     */
+    public void heartbeat(String username) throws SolrServerException, IOException {
+        String docId = getUserDocId(username);
+        SolrInputDocument userDoc = new SolrInputDocument();
+        userDoc.setField(FIELD_ID, docId);
+        userDoc.setField(FIELD_LAST_SEEN, Map.of("set", SOLR_NOW));
+        log.debug("Sending heartbeat for user '{}'", username);
+        SolrUpdateQueue.await(updateQueue.partialUpdate(docId, userDoc));
+    }
+
+    /**
+     * Reads the sync version last stamped on a user's document by
+     * {@link #setSyncVersion(String, Long)}. Uses a real-time get, so it is a
+     * single lookup by ID that sees updates not yet committed.
+     *
+     * @param username The username
+     * @return The sync version, or null if none is set
+     * @throws SolrServerException If a Solr-specific error occurs
+     * @throws IOException         If an I/O error occurs
+     */
+    public Long getSyncVersion(String username) throws SolrServerException, IOException {
+        return getSyncVersion(username, "");
+    }
+
+    /**
+     * Reads the sync version of one of a user's share roots, as
+     * {@link #getSyncVersion(String)} does for the default one.
+     *
+     * @param username The username
+     * @param rootName The share root's name, or "" for the default root
+     * @return The sync version, or null if none is set
+     * @throws SolrServerException If a Solr-specific error occurs
+     * @throws IOException         If an I/O error occurs
+     */
+    public Long getSyncVersion(String username, String rootName) throws SolrServerException, IOException {
+        String docId = getUserDocId(username);
+        String field = getSyncVersionField(rootName);
+        return executeWithRetryAndFailover(() -> {
+            SolrDocument userDoc = solrClient.getById(docId, new ModifiableSolrParams().set(CommonParams.FL, field));
+            return userDoc != null ? getLongField(userDoc, field) : null;
+        }, "getSyncVersion(" + username + ", " + rootName + ")");
+    }
+
+    /**
+     * Stamps a user's document with the version of the file list the client
+     * last published. A client whose local manifest carries the same version
+     * knows the index still holds exactly that list. Anything that changes a
+     * user's files behind its back, such as {@link #removeUserFiles(String)},
+     * clears the version.
+     *
+     * @param username The username
+     * @param version  The new version, or null to clear it
+     * @throws SolrServerException If a Solr-specific error occurs
+     * @throws IOException         If an I/O error occurs
+     */
+    public void setSyncVersion(String username, Long version) throws SolrServerException, IOException {
+        setSyncVersion(username, "", version);
+    }
+
+    /**
+     * Stamps the version of one of a user's share roots, as
+     * {@link #setSyncVersion(String, Long)} does for the default one. Each
+     * root has its own version, so roots are synchronized independently.
+     *
+     * @param username The username
+     * @param rootName The share root's name, or "" for the default root
+     * @param version  The new version, or null to clear it
+     * @throws SolrServerException If a Solr-specific error occurs
+     * @throws IOException         If an I/O error occurs
+     */
+    public void setSyncVersion(String username, String rootName, Long version)
+            throws SolrServerException, IOException {
+        String docId = getUserDocId(username);
+        SolrInputDocument userDoc = new SolrInputDocument();
+        userDoc.setField(FIELD_ID, docId);
+        // A null "set" removes the field; Map.of does not take null values
+        userDoc.setField(getSyncVersionField(rootName), Collections.singletonMap("set", version));
+        log.debug("Setting sync version of user '{}', root '{}' to {}", username, rootName, version);
+        SolrUpdateQueue.await(updateQueue.partialUpdate(docId, userDoc));
+    }
+
+    /**
+     * Clears the sync versions of all of a user's share roots. The root fields
+     * present are found with a real-time get, as the root names are not known.
+     */
+    private void clearSyncVersions(String username) throws SolrServerException, IOException {
+        String docId = getUserDocId(username);
+        SolrDocument stamped = solrClient.getById(docId,
+                new ModifiableSolrParams().set(CommonParams.FL, FIELD_ROOT_SYNC_VERSION_PREFIX + "*"));
+        SolrInputDocument userDoc = new SolrInputDocument();
+        userDoc.setField(FIELD_ID, docId);
+        userDoc.setField(FIELD_SYNC_VERSION, Collections.singletonMap("set", null));
+        if (stamped != null) {
+            for (String field : stamped.getFieldNames()) {
+                userDoc.setField(field, Collections.singletonMap("set", null));
+            }
+        }
+        log.debug("Clearing sync versions of user '{}'", username);
+        SolrUpdateQueue.await(updateQueue.partialUpdate(docId, userDoc));
+    }
+
+    /**
+     * The user document field holding a share root's sync version. Root names
+     * may hold any character, so other roots' fields are named by the same
+     * 128-bit hash as file IDs.
+     */
+    private static String getSyncVersionField(String rootName) {
+        if (rootName.isEmpty()) {
+            return FIELD_SYNC_VERSION;
+        }
+        return FIELD_ROOT_SYNC_VERSION_PREFIX + FileDocIds.hashHex(rootName) + FIELD_ROOT_SYNC_VERSION_SUFFIX;
+    }
+
+    /**
+     * Marks peers whose lease has expired as offline and removes their files.
+     * Each peer is updated with optimistic concurrency on the version read by
+     * the sweep query, so a peer whose heartbeat lands in the meantime is left
+     * alone. Any number of peers may sweep concurrently; a peer already swept by
+     * someone else simply no longer matches.
+     *
+     * @param requestingUsername The sweeping user, who is never swept
+     * @return The number of peers marked offline
+     * @throws SolrServerException If a Solr-specific error occurs
+     * @throws IOException         If an I/O error occurs
+     */
+    public int sweepExpiredPeers(String requestingUsername) throws SolrServerException, IOException {
+        SolrQuery query = new SolrQuery(FIELD_DOC_TYPE + ":" + DOC_TYPE_USER);
+        query.addFilterQuery(FIELD_STATUS + ":" + STATUS_ONLINE);
+        query.addFilterQuery("-" + LIVE_LEASE_FILTER);
+        query.addFilterQuery("-" + FIELD_USERNAME + ":" + ClientUtils.escapeQueryChars(requestingUsername));
+        query.setFields(FIELD_ID, FIELD_USERNAME, FIELD_VERSION);
+
+        List<SolrDocument> expired = new ArrayList<>();
+        forEachDocWithCursor(query, expired::add, "findExpiredPeers");
+        if (expired.isEmpty()) {
+            return 0;
+        }
+
+        int swept = 0;
+        for (SolrDocument doc : expired) {
+            String username = (String) doc.getFieldValue(FIELD_USERNAME);
+            Long version = getLongField(doc, FIELD_VERSION);
+            if (username == null || version == null) {
+                continue;
+            }
+            if (markExpiredPeerOffline((String) doc.getFieldValue(FIELD_ID), username, version)) {
+                removeUserFiles(username);
+                swept++;
+            }
+        }
+        if (swept > 0) {
+            log.info("Swept {} peers with expired leases", swept);
+            searchCache.invalidateAll(swept + " expired peers swept");
+        }
+        return swept;
+    }
+
+    /**
+     * Sets an expired peer offline unless its document changed since it was read.
+     *
+     * @return false if the peer renewed its lease or re-registered in between
+     */
+    private boolean markExpiredPeerOffline(String docId, String username, long version)
+            throws SolrServerException, IOException {
+        SolrInputDocument userDoc = new SolrInputDocument();
+        userDoc.setField(FIELD_ID, docId);
+        userDoc.setField(FIELD_VERSION, version);
+        userDoc.setField(FIELD_STATUS, Map.of("set", STATUS_OFFLINE));
+        userDoc.setField(FIELD_LAST_UPDATED, Map.of("set", new Date()));
+        UpdateRequest request = new UpdateRequest();
+        request.add(userDoc);
+        request.setCommitWithin(COMMIT_WITHIN_MS);
+        return executeWithRetryAndFailover(() -> {
+            try {
+                handleUpdateResponse(request.process(solrClient), "expire user " + username);
+                log.info("Lease of user '{}' expired; marked offline", username);
+                return true;
+            } catch (RemoteSolrException e) {
+                if (e.code() != 409) {
+                    throw e;
+                }
+                log.debug("User '{}' renewed its lease during the sweep; leaving it online", username);
+                return false;
+            }
+        }, "markExpiredPeerOffline(" + username + ")");
     }
 
     /**
-     * Generates a document ID for a file.
+     * Generates a document ID for a file from its owner and relative path.
      * 
      * @param ownerUsername The username of the file owner
-     * @param filename      The filename
+     * @param relativePath  The path relative to the owner's publish directory
      * @return The document ID
      */
-    private String getFileDocId(String ownerUsername, String filename) {
-        if (ownerUsername == null || ownerUsername.trim().isEmpty() || filename == null || filename.trim().isEmpty()) {
-            throw new IllegalArgumentException(
-                    "Owner username and filename cannot be null or empty for generating file document ID.");
-        }
-        return FILE_ID_PREFIX + ownerUsername + "-" + Objects.hash(filename);
+    private String getFileDocId(String ownerUsername, String relativePath) {
+        return FileDocIds.forFile(ownerUsername, relativePath);
     }
 
     /**
-     * Prepares a file document for addition to Solr and adds it to the batch.
+     * Prepares a file document for addition to Solr.
      * 
      * @param ownerUsername The username of the file owner
      * @param file          The file metadata
-     * @param batch         The batch to add the document to
+     * @return The Solr input document
      */
-    private void publishFileToSolrBatch(String ownerUsername, FileMetaData file, List<SolrInputDocument> batch) {
-        if (file == null)
-            return;
+    private SolrInputDocument createFileDoc(String ownerUsername, FileMetaData file) {
         SolrInputDocument fileDoc = new SolrInputDocument();
-        String docId = getFileDocId(ownerUsername, file.getFilename());
-        file.setId(docId);
+        String docId = getFileDocId(ownerUsername, file.getRelativePath());
 
         fileDoc.setField(FIELD_ID, docId);
         fileDoc.setField(FIELD_DOC_TYPE, DOC_TYPE_FILE);
         fileDoc.setField(FIELD_OWNER_USERNAME, ownerUsername);
         fileDoc.setField(FIELD_FILENAME, file.getFilename());
-        fileDoc.setField(FIELD_FILENAME_SEARCH, file.getFilename());
+        fileDoc.setField(FIELD_PATH, file.getRelativePath());
+        // filename_txt_en and filename_prefix are filled from filename_s by copyField
         fileDoc.setField(FIELD_SIZE, file.getSize());
-        batch.add(fileDoc);
+        if (file.getLastModified() > 0) {
+            fileDoc.setField(FIELD_MODIFIED, new Date(file.getLastModified()));
+        }
+        String extension = file.getExtension();
+        if (!extension.isEmpty()) {
+            fileDoc.setField(FIELD_EXTENSION, extension);
+        }
         log.trace("Prepared ADD operation for file: {} (ID: {})", file.getFilename(), docId);
+        return fileDoc;
     }
 
     /**
-     * Prepares a file for removal from Solr and adds its ID to the batch.
+     * Prepares an atomic update of a file whose content changed: only its size
+     * and modification time are sent. The document must still exist; if it was
+     * removed in the meantime the update is dropped by Solr rather than
+     * creating a document holding just these fields.
      * 
-     * @param file           The file metadata
-     * @param deleteIdsBatch The batch to add the file ID to
+     * @param file The file metadata, with the ID of the indexed document
+     * @return The partial Solr input document
      */
-    private void removeFileFromSolrBatch(FileMetaData file, List<String> deleteIdsBatch) {
-        if (file == null)
-            return;
+    private SolrInputDocument createFileUpdateDoc(FileMetaData file) {
+        String docId = resolveFileDocId(file, "update");
+        SolrInputDocument fileDoc = new SolrInputDocument();
+        fileDoc.setField(FIELD_ID, docId);
+        fileDoc.setField(FIELD_VERSION, SolrUpdateQueue.VERSION_MUST_EXIST);
+        fileDoc.setField(FIELD_SIZE, Map.of("set", file.getSize()));
+        fileDoc.setField(FIELD_MODIFIED, Collections.singletonMap("set",
+                file.getLastModified() > 0 ? new Date(file.getLastModified()) : null));
+        log.trace("Prepared UPDATE operation for file ID: {}", docId);
+        return fileDoc;
+    }
+
+    /**
+     * Resolves the Solr ID of a file that is to be removed.
+     * 
+     * @param file The file metadata
+     * @return The document ID to delete
+     */
+    private String resolveFileDocIdForRemoval(FileMetaData file) {
+        String docId = resolveFileDocId(file, "removal");
+        log.trace("Prepared REMOVE operation for file ID: {}", docId);
+        return docId;
+    }
+
+    private String resolveFileDocId(FileMetaData file, String purpose) {
         String docId = file.getId();
-        if (docId == null || !docId.startsWith(FILE_ID_PREFIX)) {
-            log.warn("File '{}' missing Solr ID for removal, attempting to derive.", file.getFilename());
-            docId = getFileDocId(file.getOwnerUsername(), file.getFilename());
+        if (!FileDocIds.isFileDocId(docId)) {
+            log.warn("File '{}' missing Solr ID for {}, attempting to derive.", file.getFilename(), purpose);
+            docId = getFileDocId(file.getOwnerUsername(), file.getRelativePath());
         }
-        deleteIdsBatch.add(docId);
-        log.trace("Prepared REMOVE operation for file ID: {}", docId);
+        return docId;
     }
 
     /**
-     * Applies a batch of file updates (additions and removals) to the Solr index.
+     * Applies a batch of file updates (additions, modifications and removals) to
+     * the Solr index. The updates go through the shared write-behind queue, so
+     * they may be sent together with updates from other callers; this method
+     * returns once the batch holding them has been acknowledged.
+     * <p>
+     * Long lists are queued in chunks, with a bounded number of chunks awaiting
+     * acknowledgement, so only a few chunks of Solr documents exist at a time
+     * however many updates are passed in. Each chunk is retried with failover
+     * on its own; if one still fails, the chunks before it have been applied.
      * 
      * @param username The username of the file owner
      * @param updates  The list of update operations
      * @throws SolrServerException If a Solr-specific error occurs
      * @throws IOException         If an I/O error occurs
      */
-    public synchronized void applyFileUpdates(String username, List<UpdateOperation> updates)
+    public void applyFileUpdates(String username, List<UpdateOperation> updates)
             throws SolrServerException, IOException {
         if (updates == null || updates.isEmpty()) {
             log.info("No file updates to apply for user {}", username);
@@ -414,69 +1219,375 @@ public class SolrClientManager {
         }
         log.info("Applying {} file updates for user {}...", updates.size(), username);
 
-        executeWithRetryAndFailover(() -> {
-            List<SolrInputDocument> addBatch = new ArrayList<>();
-            List<String> deleteIdsBatch = new ArrayList<>();
-
-            for (UpdateOperation op : updates) {
-                if (op == null || op.getFileMetaData() == null)
-                    continue;
-
-                FileMetaData file = op.getFileMetaData();
-                if (op.getType() == UpdateOperation.Type.ADD) {
-                    publishFileToSolrBatch(username, file, addBatch);
-                } else if (op.getType() == UpdateOperation.Type.REMOVE) {
-                    removeFileFromSolrBatch(file, deleteIdsBatch);
-                }
-            }
-
-            if (!addBatch.isEmpty()) {
-                log.debug("Adding {} files to Solr for user {}", addBatch.size(), username);
-                UpdateResponse addResponse = solrClient.add(addBatch, 10000);
-                handleUpdateResponse(addResponse, "batch add files for " + username);
-            }
-            if (!deleteIdsBatch.isEmpty()) {
-                log.debug("Deleting {} files from Solr for user {}", deleteIdsBatch.size(), username);
-                UpdateResponse deleteResponse = solrClient.deleteById(deleteIdsBatch, 10000);
-                handleUpdateResponse(deleteResponse, "batch delete files for " + username);
+        Deque<Set<CompletableFuture<Void>>> inFlight = new ArrayDeque<>();
+        for (int from = 0; from < updates.size(); from += FILE_UPDATE_CHUNK_SIZE) {
+            List<UpdateOperation> chunk = updates.subList(from,
+                    Math.min(from + FILE_UPDATE_CHUNK_SIZE, updates.size()));
+            inFlight.add(queueFileUpdates(username, chunk));
+            if (inFlight.size() > MAX_FILE_UPDATE_CHUNKS_IN_FLIGHT) {
+                awaitUpdates(inFlight.poll());
             }
-
-            log.info("Successfully applied {} file updates for {}", updates.size(), username);
-            return null;
-        }, "applyFileUpdates(" + username + ", " + updates.size() + " updates)");
+        }
+        while (!inFlight.isEmpty()) {
+            awaitUpdates(inFlight.poll());
+        }
+        log.info("Successfully applied {} file updates for {}", updates.size(), username);
     }
 
     /**
-     * Finds all files belonging to a specific user.
-     * 
+     * Asynchronous variant of {@link #applyFileUpdates(String, List)}.
+     *
+     * @param username The username of the file owner
+     * @param updates  The list of update operations
+     * @return A future completed once Solr has acknowledged the update
+     */
+    public CompletableFuture<Void> applyFileUpdatesAsync(String username, List<UpdateOperation> updates) {
+        if (updates == null || updates.isEmpty()) {
+            log.info("No file updates to apply for user {}", username);
+            return CompletableFuture.completedFuture(null);
+        }
+        log.info("Applying {} file updates asynchronously for user {}...", updates.size(), username);
+
+        Set<CompletableFuture<Void>> updateFutures = queueFileUpdates(username, updates);
+        return CompletableFuture.allOf(updateFutures.toArray(new CompletableFuture<?>[0]))
+                .thenRun(() -> log.info("Successfully applied {} file updates for {}", updates.size(), username));
+    }
+
+    /**
+     * Queues file additions, modifications and removals on the write-behind queue.
+     *
+     * @return The futures of the queued updates
+     */
+    private Set<CompletableFuture<Void>> queueFileUpdates(String username, List<UpdateOperation> updates) {
+        Set<CompletableFuture<Void>> updateFutures = new LinkedHashSet<>();
+
+        for (UpdateOperation op : updates) {
+            if (op == null || op.getFileMetaData() == null)
+                continue;
+
+            FileMetaData file = op.getFileMetaData();
+            if (op.getType() == UpdateOperation.Type.ADD) {
+                SolrInputDocument fileDoc = createFileDoc(username, file);
+                updateFutures.add(updateQueue.add((String) fileDoc.getFieldValue(FIELD_ID), fileDoc));
+            } else if (op.getType() == UpdateOperation.Type.UPDATE) {
+                SolrInputDocument updateDoc = createFileUpdateDoc(file);
+                updateFutures.add(updateQueue.partialUpdate((String) updateDoc.getFieldValue(FIELD_ID), updateDoc));
+            } else if (op.getType() == UpdateOperation.Type.REMOVE) {
+                updateFutures.add(updateQueue.delete(resolveFileDocIdForRemoval(file)));
+            }
+        }
+        return updateFutures;
+    }
+
+    /**
+     * Finds all files belonging to a specific user.
+     * For users sharing many files prefer
+     * {@link #streamFilesByUser(String, Consumer)}, which does not hold the whole
+     * list in memory.
+     * 
      * @param username The username of the file owner
      * @return A list of file metadata
      * @throws SolrServerException If a Solr-specific error occurs
      * @throws IOException         If an I/O error occurs
      */
     public List<FileMetaData> findFilesByUser(String username) throws SolrServerException, IOException {
+        List<FileMetaData> userFiles = new ArrayList<>();
+        streamFilesByUser(username, userFiles::add);
+        return userFiles;
+    }
+
+    /**
+     * Streams all files belonging to a specific user to a callback, fetching
+     * them page by page with cursorMark deep paging. Memory use is bounded by
+     * one page regardless of how many files the user shares, and Solr never has
+     * to collect more than one page of top documents.
+     * Each page is retried with failover on its own, so a failure part way
+     * through does not replay files already delivered.
+     * 
+     * @param username The username of the file owner
+     * @param consumer Receives each indexed file, in ID order
+     * @return The number of files delivered
+     * @throws SolrServerException If a Solr-specific error occurs
+     * @throws IOException         If an I/O error occurs
+     */
+    public long streamFilesByUser(String username, Consumer<FileMetaData> consumer)
+            throws SolrServerException, IOException {
         log.debug("Querying Solr for files owned by user: {}", username);
 
-        return executeWithRetryAndFailover(() -> {
-            List<FileMetaData> userFiles = new ArrayList<>();
+        SolrQuery query = new SolrQuery(buildUserFilesQueryString(username));
+        query.set(ShardParams._ROUTE_, FileDocIds.routeKey(username)); // Only the owner's shard in SolrCloud
+        query.setFields(FIELD_ID, FIELD_FILENAME, FIELD_PATH, FIELD_SIZE, FIELD_MODIFIED, FIELD_OWNER_USERNAME);
+        long count = forEachDocWithCursor(query, doc -> consumer.accept(createFileMetaDataFromDoc(doc, null, 0)),
+                "streamFilesByUser(" + username + ")");
+        log.debug("Found {} indexed files for user '{}'", count, username);
+        return count;
+    }
+
+    /**
+     * Streams the files belonging to a user sorted by relative path, in the
+     * code point order of {@link com.mycompany.napsterclone.util.PathOrder}, so
+     * they can be merge-joined with a sorted local scan. Files with the same
+     * path (left by an ID scheme change) follow each other. Documents indexed
+     * before paths were stored have no path_s and are not returned; run
+     * {@link #migrateFileDocIds(Consumer)} to give them one.
+     *
+     * @param username The username of the file owner
+     * @param consumer Receives each indexed file, in path order
+     * @return The number of files delivered
+     * @throws SolrServerException If a Solr-specific error occurs
+     * @throws IOException         If an I/O error occurs
+     */
+    public long streamFilesByUserInPathOrder(String username, Consumer<FileMetaData> consumer)
+            throws SolrServerException, IOException {
+        return streamFilesByUserInPathOrder(username, null, consumer);
+    }
+
+    /**
+     * Streams the files belonging to a user from a given path on, sorted by
+     * relative path as {@link #streamFilesByUserInPathOrder(String, Consumer)}
+     * does. Used to resume an interrupted sync without fetching the files it
+     * already went through.
+     *
+     * @param username The username of the file owner
+     * @param fromPath The first relative path to return (inclusive), or null
+     *                 for all files
+     * @param consumer Receives each indexed file, in path order
+     * @return The number of files delivered
+     * @throws SolrServerException If a Solr-specific error occurs
+     * @throws IOException         If an I/O error occurs
+     */
+    public long streamFilesByUserInPathOrder(String username, String fromPath, Consumer<FileMetaData> consumer)
+            throws SolrServerException, IOException {
+        return streamFilesByUserInPathOrder(username, fromPath, null, consumer);
+    }
+
+    /**
+     * Streams the files belonging to a user within a range of paths, sorted
+     * by relative path as {@link #streamFilesByUserInPathOrder(String, Consumer)}
+     * does. Used to synchronize one share root, whose files share a path
+     * prefix, without fetching those of the others.
+     *
+     * @param username The username of the file owner
+     * @param fromPath The first relative path to return (inclusive), or null
+     *                 to start with the first file
+     * @param toPath   The path to stop at (exclusive), or null to go on to the
+     *                 last file
+     * @param consumer Receives each indexed file, in path order
+     * @return The number of files delivered
+     * @throws SolrServerException If a Solr-specific error occurs
+     * @throws IOException         If an I/O error occurs
+     */
+    public long streamFilesByUserInPathOrder(String username, String fromPath, String toPath,
+            Consumer<FileMetaData> consumer) throws SolrServerException, IOException {
+        SolrQuery query = new SolrQuery(buildUserFilesQueryString(username));
+        query.addFilterQuery(FIELD_PATH + ":[" + (fromPath == null ? "*" : quoteRangeBound(fromPath))
+                + " TO " + (toPath == null ? "*]" : quoteRangeBound(toPath) + "}"));
+        query.set(ShardParams._ROUTE_, FileDocIds.routeKey(username));
+        query.setFields(FIELD_ID, FIELD_FILENAME, FIELD_PATH, FIELD_SIZE, FIELD_MODIFIED, FIELD_OWNER_USERNAME);
+        query.setSort(FIELD_PATH, SolrQuery.ORDER.asc); // Strings sort by UTF-8 bytes, i.e. code points
+        long count = forEachDocWithCursor(query, doc -> consumer.accept(createFileMetaDataFromDoc(doc, null, 0)),
+                "streamFilesByUserInPathOrder(" + username + ")");
+        log.debug("Streamed {} indexed files in path order for user '{}'", count, username);
+        return count;
+    }
+
+    /**
+     * Quotes a string for use as a range query bound. Backslash escaping with
+     * {@link ClientUtils#escapeQueryChars(String)} is not enough there, as the
+     * query parser splits an unquoted bound at whitespace even when escaped.
+     */
+    private static String quoteRangeBound(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * Rewrites every file document whose ID does not follow the current
+     * path-based scheme (see {@link FileDocIds}): the document is re-added under
+     * its new ID and the old one deleted. Documents indexed before paths were
+     * stored use their filename as the path, which is what the publishing
+     * client reports for files at the top of its publish directory. Running it
+     * again is harmless, as already migrated documents are skipped.
+     *
+     * @param progress Receives the number of documents examined after each one
+     * @return The number of documents that were given a new ID
+     * @throws SolrServerException If a Solr-specific error occurs
+     * @throws IOException         If an I/O error occurs
+     */
+    public long migrateFileDocIds(Consumer<Long> progress) throws SolrServerException, IOException {
+        ensureConnected();
+        log.info("Migrating file document IDs to the path-based scheme...");
+
+        SolrQuery query = new SolrQuery(FIELD_DOC_TYPE + ":" + DOC_TYPE_FILE);
+        query.setFields(FIELD_ID, FIELD_FILENAME, FIELD_PATH, FIELD_SIZE, FIELD_MODIFIED, FIELD_OWNER_USERNAME);
+        Set<CompletableFuture<Void>> updateFutures = new LinkedHashSet<>();
+        long[] migrated = { 0 };
+        long examined = forEachDocWithCursor(query, new Consumer<SolrDocument>() {
+            long seen = 0;
+
+            @Override
+            public void accept(SolrDocument doc) {
+                progress.accept(++seen);
+                String oldId = (String) doc.getFieldValue(FIELD_ID);
+                String owner = (String) doc.getFieldValue(FIELD_OWNER_USERNAME);
+                if (owner == null || doc.getFieldValue(FIELD_FILENAME) == null) {
+                    log.warn("Skipping file document '{}' without owner or filename", oldId);
+                    return;
+                }
+                FileMetaData file = createFileMetaDataFromDoc(doc, null, 0);
+                SolrInputDocument newDoc = createFileDoc(owner, file);
+                String newId = (String) newDoc.getFieldValue(FIELD_ID);
+                if (newId.equals(oldId)) {
+                    return; // Already migrated
+                }
+                // Documents re-added here may show up again later in the cursor
+                // once committed; they then carry their new ID and are skipped
+                updateFutures.add(updateQueue.add(newId, newDoc));
+                updateFutures.add(updateQueue.delete(oldId));
+                if (updateFutures.size() >= 2 * UPDATE_QUEUE_MAX_BATCH) {
+                    // Only failures still need reporting at the end
+                    updateFutures.removeIf(f -> f.isDone() && !f.isCompletedExceptionally());
+                }
+                migrated[0]++;
+                log.trace("Migrating file document '{}' to '{}'", oldId, newId);
+            }
+        }, "migrateFileDocIds");
+        awaitUpdates(updateFutures);
+        if (migrated[0] > 0) {
+            searchCache.invalidateAll("file document IDs migrated");
+        }
+        log.info("File document ID migration complete: {} of {} documents rewritten", migrated[0], examined);
+        return migrated[0];
+    }
 
-            SolrQuery query = new SolrQuery();
-            query.setQuery(String.format("%s:%s AND %s:%s",
-                    FIELD_DOC_TYPE, DOC_TYPE_FILE,
-                    FIELD_OWNER_USERNAME, ClientUtils.escapeQueryChars(username)));
-            query.setRows(Integer.MAX_VALUE);
-            query.setFields(FIELD_ID, FIELD_FILENAME, FIELD_SIZE, FIELD_OWNER_USERNAME);
+    /**
+     * Pages through all documents matching a query using cursorMark, in the
+     * query's sort order with ID as the final tie-breaker, or sorted by ID if
+     * the query has no sort. Each page fetch goes through retry and failover
+     * individually.
+     *
+     * @param query         The query; rows, the ID sort and cursorMark are set here
+     * @param consumer      Receives each matching document
+     * @param operationName A descriptive name for the operation (for logging)
+     * @return The number of documents delivered
+     */
+    private long forEachDocWithCursor(SolrQuery query, Consumer<SolrDocument> consumer, String operationName)
+            throws SolrServerException, IOException {
+        query.setRows(CURSOR_PAGE_SIZE);
+        query.addSort(FIELD_ID, SolrQuery.ORDER.asc); // cursorMark requires a sort on the unique key
+
+        long delivered = 0;
+        String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+        while (true) {
+            query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+            QueryResponse response = executeWithRetryAndFailover(() -> solrClient.query(query), operationName);
+            SolrDocumentList page = response.getResults();
+            if (page != null) {
+                for (SolrDocument doc : page) {
+                    consumer.accept(doc);
+                    delivered++;
+                }
+            }
+            String nextCursorMark = response.getNextCursorMark();
+            if (nextCursorMark == null || nextCursorMark.equals(cursorMark)) {
+                return delivered;
+            }
+            cursorMark = nextCursorMark;
+        }
+    }
 
-            QueryResponse response = solrClient.query(query);
-            SolrDocumentList docList = response.getResults();
-            if (docList != null) {
-                for (SolrDocument doc : docList) {
-                    userFiles.add(createFileMetaDataFromDoc(doc, null, 0));
+    /**
+     * Loads the online peer directory and keeps it refreshed in the background.
+     * Once started, searches resolve file owners from the directory snapshot
+     * instead of querying Solr for online users on every search.
+     *
+     * @throws SolrServerException If the initial load fails
+     * @throws IOException         If an I/O error occurs
+     */
+    public void startPeerDirectory() throws SolrServerException, IOException {
+        ensureConnected();
+        peerDirectory.start();
+        peerDirectoryStarted = true;
+    }
+
+    /**
+     * Feeds the peer directory. A null {@code since} loads every online user;
+     * otherwise only users whose document changed since then are returned,
+     * whatever their status, so peers that went offline can be dropped.
+     */
+    private void fetchPeerChanges(Instant since, BiConsumer<PeerInfo, Boolean> sink)
+            throws SolrServerException, IOException {
+        SolrQuery query = new SolrQuery(FIELD_DOC_TYPE + ":" + DOC_TYPE_USER);
+        query.setFields(FIELD_ID, FIELD_USERNAME, FIELD_IP, FIELD_PORT, FIELD_STATUS);
+        if (since == null) {
+            query.addFilterQuery(FIELD_STATUS + ":" + STATUS_ONLINE);
+            query.addFilterQuery(LIVE_LEASE_FILTER);
+            forEachDocWithCursor(query, doc -> {
+                PeerInfo peer = toPeerInfo(doc);
+                if (peer != null) {
+                    sink.accept(peer, true);
                 }
+            }, "loadPeerDirectory");
+            return;
+        }
+
+        SolrQuery changedQuery = query.getCopy();
+        changedQuery.addFilterQuery(FIELD_LAST_UPDATED + ":[" + since.truncatedTo(ChronoUnit.MILLIS) + " TO *]");
+        forEachDocWithCursor(changedQuery, doc -> {
+            PeerInfo peer = toPeerInfo(doc);
+            if (peer != null) {
+                sink.accept(peer, STATUS_ONLINE.equals(doc.getFieldValue(FIELD_STATUS)));
+            }
+        }, "refreshPeerDirectory(" + since + ")");
+
+        // Peers whose lease ran out but that no sweeper has marked offline yet.
+        // Delivered last so they win over a stale online status from above.
+        SolrQuery expiredQuery = query.getCopy();
+        expiredQuery.addFilterQuery(FIELD_STATUS + ":" + STATUS_ONLINE);
+        expiredQuery.addFilterQuery("-" + LIVE_LEASE_FILTER);
+        forEachDocWithCursor(expiredQuery, doc -> {
+            PeerInfo peer = toPeerInfo(doc);
+            if (peer != null) {
+                sink.accept(peer, false);
+            }
+        }, "findExpiredPeers");
+    }
+
+    /**
+     * @return The online peers other than the requesting user from the peer
+     *         directory, or null if the directory has not been started
+     */
+    private Map<String, PeerInfo> getDirectoryPeers(String requestingUsername) {
+        Map<String, PeerInfo> snapshot = peerDirectoryStarted ? peerDirectory.snapshot() : null;
+        if (snapshot == null) {
+            return null;
+        }
+        DirectoryPeersView view = directoryPeersView;
+        if (view == null || view.snapshot != snapshot || !view.excludedUsername.equals(requestingUsername)) {
+            view = new DirectoryPeersView(snapshot, requestingUsername);
+            directoryPeersView = view;
+        }
+        return view.peers;
+    }
+
+    /**
+     * A peer directory snapshot with one user left out.
+     */
+    private static final class DirectoryPeersView {
+        final Map<String, PeerInfo> snapshot;
+        final String excludedUsername;
+        final Map<String, PeerInfo> peers;
+
+        DirectoryPeersView(Map<String, PeerInfo> snapshot, String excludedUsername) {
+            this.snapshot = snapshot;
+            this.excludedUsername = excludedUsername;
+            if (snapshot.containsKey(excludedUsername)) {
+                Map<String, PeerInfo> others = new HashMap<>(snapshot);
+                others.remove(excludedUsername);
+                this.peers = Collections.unmodifiableMap(others);
+            } else {
+                this.peers = snapshot;
             }
-            log.debug("Found {} indexed files for user '{}'", userFiles.size(), username);
-            return userFiles;
-        }, "findFilesByUser(" + username + ")");
+        }
     }
 
     /**
@@ -484,35 +1595,84 @@ public class SolrClientManager {
      * 
      * @param requestingUsername The username of the user making the request (to
      *                           exclude)
-     * @return A map of username to user document
+     * @return A map of username to peer connection details
      * @throws SolrServerException If a Solr-specific error occurs
      * @throws IOException         If an I/O error occurs
      */
-    private Map<String, SolrDocument> getOnlineUserDetails(String requestingUsername)
+    private Map<String, PeerInfo> getOnlineUserDetails(String requestingUsername)
             throws SolrServerException, IOException {
-        return executeWithRetryAndFailover(() -> {
-            SolrQuery userQuery = new SolrQuery();
-            userQuery.setQuery(String.format("%s:%s AND %s:%s AND -%s:%s",
-                    FIELD_DOC_TYPE, DOC_TYPE_USER,
-                    FIELD_STATUS, STATUS_ONLINE,
-                    FIELD_USERNAME, ClientUtils.escapeQueryChars(requestingUsername)));
-            userQuery.setRows(10000);
-            userQuery.setFields(FIELD_USERNAME, FIELD_IP, FIELD_PORT);
+        Map<String, PeerInfo> directoryPeers = getDirectoryPeers(requestingUsername);
+        if (directoryPeers != null) {
+            return directoryPeers;
+        }
+        String operationName = "getOnlineUserDetails(" + requestingUsername + ")";
+        return executeWithRetryAndFailover(() -> awaitRead(
+                executeHedgedQuery(buildOnlineUsersQuery(requestingUsername), this::toOnlineUserMap,
+                        lookupLatency, LOOKUP_DEADLINE_MS, operationName),
+                operationName), operationName);
+    }
 
-            QueryResponse userResponse = solrClient.query(userQuery);
-            SolrDocumentList onlineUsersDocs = userResponse.getResults();
+    /**
+     * Asynchronous variant of {@link #getOnlineUserDetails(String)}. Completes
+     * immediately when the peer directory is running.
+     */
+    private CompletableFuture<Map<String, PeerInfo>> getOnlineUserDetailsAsync(String requestingUsername) {
+        Map<String, PeerInfo> directoryPeers = getDirectoryPeers(requestingUsername);
+        if (directoryPeers != null) {
+            return CompletableFuture.completedFuture(directoryPeers);
+        }
+        return executeHedgedQuery(buildOnlineUsersQuery(requestingUsername), this::toOnlineUserMap,
+                lookupLatency, LOOKUP_DEADLINE_MS, "getOnlineUserDetailsAsync(" + requestingUsername + ")");
+    }
 
-            if (onlineUsersDocs == null) {
-                return Map.of();
+    /**
+     * Builds the query for all online users with a live lease, except the
+     * requesting user.
+     */
+    private SolrQuery buildOnlineUsersQuery(String requestingUsername) {
+        SolrQuery userQuery = new SolrQuery();
+        userQuery.setQuery(String.format("%s:%s AND %s:%s AND -%s:%s",
+                FIELD_DOC_TYPE, DOC_TYPE_USER,
+                FIELD_STATUS, STATUS_ONLINE,
+                FIELD_USERNAME, ClientUtils.escapeQueryChars(requestingUsername)));
+        userQuery.addFilterQuery(LIVE_LEASE_FILTER);
+        userQuery.setRows(10000);
+        userQuery.setFields(FIELD_ID, FIELD_USERNAME, FIELD_IP, FIELD_PORT);
+        return userQuery;
+    }
+
+    /**
+     * Converts an online-users response into a map of username to peer details.
+     */
+    private Map<String, PeerInfo> toOnlineUserMap(QueryResponse userResponse) {
+        SolrDocumentList onlineUsersDocs = userResponse.getResults();
+
+        if (onlineUsersDocs == null) {
+            return Map.of();
+        }
+
+        Map<String, PeerInfo> onlineUsers = new HashMap<>();
+        for (SolrDocument doc : onlineUsersDocs) {
+            PeerInfo peer = toPeerInfo(doc);
+            if (peer != null) {
+                onlineUsers.putIfAbsent(peer.getUsername(), peer);
             }
+        }
+        searchCache.onOnlinePeersObserved(onlineUsers);
+        return onlineUsers;
+    }
 
-            return onlineUsersDocs.stream()
-                    .filter(doc -> doc.getFieldValue(FIELD_USERNAME) != null)
-                    .collect(Collectors.toMap(
-                            doc -> (String) doc.getFieldValue(FIELD_USERNAME),
-                            doc -> doc,
-                            (doc1, doc2) -> doc1));
-        }, "getOnlineUserDetails(" + requestingUsername + ")");
+    /**
+     * @return The peer described by a user document, or null if it has no
+     *         username
+     */
+    private PeerInfo toPeerInfo(SolrDocument userDoc) {
+        String username = (String) userDoc.getFieldValue(FIELD_USERNAME);
+        if (username == null || username.trim().isEmpty()) {
+            return null;
+        }
+        Integer port = getIntegerField(userDoc, FIELD_PORT);
+        return new PeerInfo(username, (String) userDoc.getFieldValue(FIELD_IP), port != null ? port : 0);
     }
 
     /**
@@ -529,55 +1689,500 @@ public class SolrClientManager {
      */
     public List<FileMetaData> searchFiles(String queryString, String requestingUsername)
             throws SolrServerException, IOException {
-        log.info("Searching for files matching '{}', excluding user '{}'", queryString, requestingUsername);
+        return searchFiles(queryString, requestingUsername, FacetSelection.NONE);
+    }
 
-        return executeWithRetryAndFailover(() -> {
-            List<FileMetaData> results = new ArrayList<>();
+    /**
+     * Searches for files matching a query string, narrowed to the selected facet
+     * values. Each selected value becomes its own filter query, so Solr caches
+     * it independently of the query text.
+     *
+     * @param queryString        The search query
+     * @param requestingUsername The username of the user making the request (to
+     *                           exclude their files)
+     * @param selection          The facet values to narrow to
+     * @return A list of file metadata matching the query and the selection
+     * @throws SolrServerException If a Solr-specific error occurs
+     * @throws IOException         If an I/O error occurs
+     */
+    public List<FileMetaData> searchFiles(String queryString, String requestingUsername, FacetSelection selection)
+            throws SolrServerException, IOException {
+        log.info("Searching for files matching '{}' ({}), excluding user '{}'", queryString, selection,
+                requestingUsername);
+
+        String cacheKey = SearchResultCache.key(queryString, requestingUsername, SEARCH_RESULT_LIMIT, selection);
+        List<FileMetaData> cached = searchCache.get(cacheKey);
+        if (cached != null) {
+            log.info("Search for '{}' served from cache. Found {} matching files.", queryString, cached.size());
+            return cached;
+        }
 
-            Map<String, SolrDocument> onlineUserDetailsMap = getOnlineUserDetails(requestingUsername);
+        String operationName = "searchFiles(" + queryString + "," + requestingUsername + ")";
+        return executeWithRetryAndFailover(() -> {
+            Map<String, PeerInfo> onlineUserDetailsMap = getOnlineUserDetails(requestingUsername);
+            long cacheGeneration = searchCache.generation();
             if (onlineUserDetailsMap.isEmpty()) {
                 log.info("No other online users found. Search yields no results for query: {}", queryString);
-                return results;
+                return searchCache.put(cacheKey, new ArrayList<>(), cacheGeneration);
             }
 
             // Step 2: Search for files
-            SolrQuery fileQuery = new SolrQuery();
-            String ownerFilter = onlineUserDetailsMap.keySet().stream()
-                    .map(ClientUtils::escapeQueryChars)
-                    .collect(Collectors.joining(" OR "));
-
-            fileQuery.setQuery(String.format("%s:%s AND %s:(%s) AND %s:(%s)",
-                    FIELD_DOC_TYPE, DOC_TYPE_FILE,
-                    FIELD_OWNER_USERNAME, ownerFilter,
-                    FIELD_FILENAME_SEARCH, ClientUtils.escapeQueryChars(queryString)));
-            fileQuery.setRows(500);
-            fileQuery.setFields(FIELD_ID, FIELD_FILENAME, FIELD_SIZE, FIELD_OWNER_USERNAME);
-
-            QueryResponse fileResponse = solrClient.query(fileQuery);
-            SolrDocumentList fileDocs = fileResponse.getResults();
-            if (fileDocs != null) {
-                for (SolrDocument fileDoc : fileDocs) {
-                    String ownerUsername = (String) fileDoc.getFieldValue(FIELD_OWNER_USERNAME);
-                    SolrDocument ownerDetailsDoc = onlineUserDetailsMap.get(ownerUsername);
-                    if (ownerDetailsDoc != null) {
-                        String ownerIp = (String) ownerDetailsDoc.getFieldValue(FIELD_IP);
-                        Integer ownerPort = getIntegerField(ownerDetailsDoc, FIELD_PORT);
-
-                        if (ownerIp != null && ownerPort != null && ownerPort > 0) {
-                            results.add(createFileMetaDataFromDoc(fileDoc, ownerIp, ownerPort));
-                        } else {
-                            log.warn("Skipping file '{}' from user '{}' due to missing IP/Port details.",
-                                    fileDoc.getFieldValue(FIELD_FILENAME), ownerUsername);
+            QueryResponse fileResponse = awaitRead(executeHedgedQuery(
+                    buildFileSearchQuery(queryString, onlineUserDetailsMap, selection), response -> response,
+                    searchLatency, SEARCH_DEADLINE_MS, operationName), operationName);
+            List<FileMetaData> results = toSearchResults(fileResponse, onlineUserDetailsMap);
+            log.info("Search for '{}' completed. Found {} matching files.", queryString, results.size());
+            if (isPartial(fileResponse)) {
+                return results; // Incomplete, so not worth caching
+            }
+            return searchCache.put(cacheKey, results, cacheGeneration);
+        }, operationName);
+    }
+
+    /**
+     * Asynchronous variant of {@link #searchFiles(String, String)}. The online
+     * user lookup and the file query are chained without blocking the caller.
+     * Cancelling the returned future aborts whichever request is in flight, so a
+     * stale search can be dropped as soon as the user types a new query.
+     *
+     * @param queryString        The search query
+     * @param requestingUsername The username of the user making the request (to
+     *                           exclude their files)
+     * @return A future completed with the matching files
+     */
+    public CompletableFuture<List<FileMetaData>> searchFilesAsync(String queryString, String requestingUsername) {
+        log.info("Searching asynchronously for files matching '{}', excluding user '{}'", queryString,
+                requestingUsername);
+
+        String cacheKey = SearchResultCache.key(queryString, requestingUsername, SEARCH_RESULT_LIMIT,
+                FacetSelection.NONE);
+        List<FileMetaData> cached = searchCache.get(cacheKey);
+        if (cached != null) {
+            log.info("Search for '{}' served from cache. Found {} matching files.", queryString, cached.size());
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<Map<String, PeerInfo>> usersFuture = getOnlineUserDetailsAsync(requestingUsername);
+
+        CompletableFuture<List<FileMetaData>> result = new CompletableFuture<>();
+        usersFuture.whenComplete((onlineUserDetailsMap, userError) -> {
+            if (userError != null) {
+                result.completeExceptionally(userError);
+                return;
+            }
+            long cacheGeneration = searchCache.generation();
+            if (onlineUserDetailsMap.isEmpty()) {
+                log.info("No other online users found. Search yields no results for query: {}", queryString);
+                result.complete(searchCache.put(cacheKey, new ArrayList<>(), cacheGeneration));
+                return;
+            }
+            CompletableFuture<QueryResponse> filesFuture = executeHedgedQuery(
+                    buildFileSearchQuery(queryString, onlineUserDetailsMap, FacetSelection.NONE),
+                    response -> response, searchLatency, SEARCH_DEADLINE_MS,
+                    "searchFilesAsync(" + queryString + "," + requestingUsername + ")");
+            filesFuture.whenComplete((response, fileError) -> {
+                if (fileError != null) {
+                    result.completeExceptionally(fileError);
+                    return;
+                }
+                try {
+                    List<FileMetaData> files = toSearchResults(response, onlineUserDetailsMap);
+                    log.info("Search for '{}' completed. Found {} matching files.", queryString, files.size());
+                    result.complete(isPartial(response) ? files : searchCache.put(cacheKey, files, cacheGeneration));
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            });
+            // Propagate cancellation of the outer future to the file query
+            result.whenComplete((files, error) -> {
+                if (result.isCancelled()) {
+                    filesFuture.cancel(true);
+                }
+            });
+        });
+        result.whenComplete((files, error) -> {
+            if (result.isCancelled()) {
+                usersFuture.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Streams all files matching a query string to a callback, one page at a
+     * time as each page arrives, instead of returning a capped list at the end.
+     * Pages are fetched with cursorMark in relevance order, so there is no
+     * fixed limit on the number of results. Cancelling the returned future
+     * stops paging and aborts the request in flight; no batch is delivered
+     * after cancellation has been observed.
+     *
+     * @param queryString        The search query
+     * @param requestingUsername The username of the user making the request (to
+     *                           exclude their files)
+     * @param batchConsumer      Receives each non-empty page of results, called
+     *                           from a Solr client thread
+     * @return A future completed with the total number of files delivered
+     */
+    public CompletableFuture<Long> searchFilesStreaming(String queryString, String requestingUsername,
+            Consumer<List<FileMetaData>> batchConsumer) {
+        return searchFilesStreaming(queryString, requestingUsername, FacetSelection.NONE, batchConsumer);
+    }
+
+    /**
+     * Streaming search narrowed to the selected facet values; see
+     * {@link #searchFilesStreaming(String, String, Consumer)}.
+     *
+     * @param queryString        The search query
+     * @param requestingUsername The username of the user making the request (to
+     *                           exclude their files)
+     * @param selection          The facet values to narrow to
+     * @param batchConsumer      Receives each non-empty page of results, called
+     *                           from a Solr client thread
+     * @return A future completed with the total number of files delivered
+     */
+    public CompletableFuture<Long> searchFilesStreaming(String queryString, String requestingUsername,
+            FacetSelection selection, Consumer<List<FileMetaData>> batchConsumer) {
+        log.info("Streaming search for files matching '{}' ({}), excluding user '{}'", queryString, selection,
+                requestingUsername);
+
+        String cacheKey = SearchResultCache.key(queryString, requestingUsername, -1, selection);
+        List<FileMetaData> cached = searchCache.get(cacheKey);
+        if (cached != null) {
+            log.info("Search for '{}' served from cache. Found {} matching files.", queryString, cached.size());
+            if (!cached.isEmpty()) {
+                batchConsumer.accept(cached);
+            }
+            return CompletableFuture.completedFuture((long) cached.size());
+        }
+        return new StreamingSearch(queryString, requestingUsername, selection, batchConsumer, cacheKey).start();
+    }
+
+    /**
+     * State of one streaming search: the online user snapshot, the request in
+     * flight and the overall result future.
+     */
+    private final class StreamingSearch {
+        private final String queryString;
+        private final String requestingUsername;
+        private final FacetSelection selection;
+        private final Consumer<List<FileMetaData>> batchConsumer;
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+        private final AtomicReference<CompletableFuture<?>> inFlight = new AtomicReference<>();
+        private final String cacheKey;
+        // Everything delivered so far, kept for the cache until it outgrows the budget
+        private FileList cacheable = new FileList();
+        private long cacheGeneration;
+        private Map<String, PeerInfo> onlineUserDetailsMap;
+        private SolrQuery fileQuery;
+        private long delivered = 0;
+
+        StreamingSearch(String queryString, String requestingUsername, FacetSelection selection,
+                Consumer<List<FileMetaData>> batchConsumer, String cacheKey) {
+            this.queryString = queryString;
+            this.requestingUsername = requestingUsername;
+            this.selection = selection;
+            this.batchConsumer = batchConsumer;
+            this.cacheKey = cacheKey;
+        }
+
+        CompletableFuture<Long> start() {
+            result.whenComplete((count, error) -> {
+                if (result.isCancelled()) {
+                    CompletableFuture<?> current = inFlight.get();
+                    if (current != null) {
+                        current.cancel(true);
+                    }
+                }
+            });
+
+            CompletableFuture<Map<String, PeerInfo>> usersFuture = getOnlineUserDetailsAsync(requestingUsername);
+            track(usersFuture);
+            usersFuture.whenComplete((users, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                    return;
+                }
+                cacheGeneration = searchCache.generation();
+                if (users.isEmpty()) {
+                    log.info("No other online users found. Search yields no results for query: {}", queryString);
+                    searchCache.put(cacheKey, cacheable, cacheGeneration);
+                    result.complete(0L);
+                    return;
+                }
+                onlineUserDetailsMap = users;
+                fileQuery = buildFileSearchQuery(queryString, users, selection);
+                fileQuery.setRows(SEARCH_PAGE_SIZE);
+                // Solr rejects timeAllowed together with cursorMark; each page is
+                // bounded by the client deadline instead
+                fileQuery.remove(CommonParams.TIME_ALLOWED);
+                fileQuery.remove(PARAM_PARTIAL_RESULTS);
+                // cursorMark needs the unique key as the final tie-breaker
+                fileQuery.setSort("score", SolrQuery.ORDER.desc);
+                fileQuery.addSort(FIELD_ID, SolrQuery.ORDER.asc);
+                fetchPage(CursorMarkParams.CURSOR_MARK_START);
+            });
+            return result;
+        }
+
+        private void fetchPage(String cursorMark) {
+            if (result.isDone()) {
+                return;
+            }
+            SolrQuery pageQuery = fileQuery.getCopy();
+            pageQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+            CompletableFuture<QueryResponse> page = executeHedgedQuery(pageQuery, response -> response,
+                    searchLatency, SEARCH_DEADLINE_MS,
+                    "searchFilesStreaming(" + queryString + "," + requestingUsername + ")");
+            track(page);
+            page.whenComplete((response, error) -> {
+                if (result.isDone()) {
+                    return; // Cancelled while the page was in flight
+                }
+                if (error != null) {
+                    result.completeExceptionally(error);
+                    return;
+                }
+                List<FileMetaData> batch = toSearchResults(response, onlineUserDetailsMap);
+                if (!batch.isEmpty()) {
+                    delivered += batch.size();
+                    if (cacheable != null) {
+                        cacheable.addAll(batch);
+                        if (cacheable.size() > MAX_CACHED_STREAMING_RESULTS) {
+                            cacheable = null; // Too large to be worth caching
                         }
+                    }
+                    batchConsumer.accept(batch);
+                }
+                String nextCursorMark = response.getNextCursorMark();
+                if (nextCursorMark == null || nextCursorMark.equals(cursorMark)) {
+                    log.info("Search for '{}' completed. Streamed {} matching files.", queryString, delivered);
+                    if (cacheable != null) {
+                        searchCache.put(cacheKey, cacheable, cacheGeneration);
+                    }
+                    result.complete(delivered);
+                } else {
+                    fetchPage(nextCursorMark);
+                }
+            });
+        }
+
+        /**
+         * Records the request in flight, cancelling it straight away if the
+         * search was cancelled before it could be recorded.
+         */
+        private void track(CompletableFuture<?> request) {
+            inFlight.set(request);
+            if (result.isCancelled()) {
+                request.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Suggests distinct filenames for a partially typed query. Every word typed
+     * is matched as a prefix of some word in the filename, using the edge
+     * n-gram filename_prefix field, so the lookup is a handful of term queries
+     * and stays fast on large indexes. Unlike a search it does not check which
+     * owners are online; expired peers' files are removed by the sweeper anyway.
+     * Cancelling the returned future aborts the request.
+     *
+     * @param prefix             The text typed so far
+     * @param requestingUsername The user asking, whose own files are skipped
+     * @param limit              Maximum number of suggestions
+     * @return A future completed with up to {@code limit} filenames, best
+     *         first, flagged complete if every matching file was read and
+     *         none of their names was left out
+     */
+    public CompletableFuture<FilenameSuggestions> suggestFilenamesAsync(String prefix, String requestingUsername,
+            int limit) {
+        List<String> prefixes = FilenameTokens.tokenize(prefix);
+        if (prefixes.isEmpty() || limit < 1) {
+            return CompletableFuture.completedFuture(FilenameSuggestions.EMPTY);
+        }
+
+        SolrQuery query = new SolrQuery(prefixes.stream()
+                .map(p -> FIELD_FILENAME_PREFIX + ":" + ClientUtils.escapeQueryChars(p))
+                .collect(Collectors.joining(" AND ")));
+        query.addFilterQuery(FIELD_DOC_TYPE + ":" + DOC_TYPE_FILE);
+        query.addFilterQuery("-" + FIELD_OWNER_USERNAME + ":" + ClientUtils.escapeQueryChars(requestingUsername));
+        query.setFields(FIELD_FILENAME);
+        query.setRows(limit * SUGGESTION_OVERFETCH);
+        limitQueryTime(query, SUGGEST_TIME_ALLOWED_MS);
+
+        return executeHedgedQuery(query, response -> {
+            SolrDocumentList docs = response.getResults();
+            // Keyed case-insensitively so "Song.mp3" and "song.mp3" show up once
+            Map<String, String> distinct = new LinkedHashMap<>();
+            boolean leftOut = false;
+            if (docs != null) {
+                for (SolrDocument doc : docs) {
+                    String filename = (String) doc.getFieldValue(FIELD_FILENAME);
+                    if (filename == null) {
+                        continue;
+                    }
+                    String key = filename.toLowerCase(Locale.ROOT);
+                    if (distinct.size() < limit) {
+                        distinct.putIfAbsent(key, filename);
+                    } else if (!distinct.containsKey(key)) {
+                        leftOut = true;
+                    }
+                }
+            }
+            // Many peers share the same file, so a short list does not mean few
+            // matches; only the number found tells whether all were read
+            boolean complete = !leftOut && !isPartial(response)
+                    && (docs == null || docs.getNumFound() <= docs.size());
+            return new FilenameSuggestions(new ArrayList<>(distinct.values()), complete);
+        }, suggestLatency, SUGGEST_DEADLINE_MS, "suggestFilenames(" + prefix + ")");
+    }
+
+    /**
+     * Counts the files matching a query by extension, size range and owner, for
+     * drilling down into a search without re-running broad queries. Counts for
+     * each dimension ignore the value selected on it, so the alternatives stay
+     * visible. Cancelling the returned future aborts the request.
+     *
+     * @param queryString        The search query
+     * @param requestingUsername The username of the user making the request (to
+     *                           exclude their files)
+     * @param selection          The facet values currently selected
+     * @return A future completed with the facet counts
+     */
+    public CompletableFuture<SearchFacets> getSearchFacetsAsync(String queryString, String requestingUsername,
+            FacetSelection selection) {
+        CompletableFuture<Map<String, PeerInfo>> usersFuture = getOnlineUserDetailsAsync(requestingUsername);
+        CompletableFuture<SearchFacets> result = new CompletableFuture<>();
+        usersFuture.whenComplete((users, userError) -> {
+            if (userError != null) {
+                result.completeExceptionally(userError);
+                return;
+            }
+            if (users.isEmpty()) {
+                result.complete(SearchFacets.EMPTY);
+                return;
+            }
+            SolrQuery facetQuery = buildFileSearchQuery(queryString, users, selection);
+            facetQuery.setRows(0);
+            facetQuery.setFacet(true);
+            facetQuery.setFacetMinCount(1);
+            facetQuery.setFacetLimit(FACET_LIMIT);
+            facetQuery.addFacetField("{!ex=" + TAG_EXTENSION + "}" + FIELD_EXTENSION);
+            facetQuery.addFacetField("{!ex=" + TAG_OWNER + "}" + FIELD_OWNER_USERNAME);
+            for (SizeBucket bucket : SizeBucket.values()) {
+                facetQuery.addFacetQuery("{!key=" + bucket.name() + " ex=" + TAG_SIZE + "}" + sizeRangeQuery(bucket));
+            }
+            CompletableFuture<SearchFacets> facetsFuture = executeHedgedQuery(facetQuery, this::toSearchFacets,
+                    searchLatency, SEARCH_DEADLINE_MS,
+                    "getSearchFacets(" + queryString + "," + requestingUsername + ")");
+            facetsFuture.whenComplete((facets, facetError) -> {
+                if (facetError != null) {
+                    result.completeExceptionally(facetError);
+                } else {
+                    result.complete(facets);
+                }
+            });
+            result.whenComplete((facets, error) -> {
+                if (result.isCancelled()) {
+                    facetsFuture.cancel(true);
+                }
+            });
+        });
+        result.whenComplete((facets, error) -> {
+            if (result.isCancelled()) {
+                usersFuture.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private SearchFacets toSearchFacets(QueryResponse response) {
+        Map<SizeBucket, Long> sizeBuckets = new EnumMap<>(SizeBucket.class);
+        Map<String, Integer> facetQueries = response.getFacetQuery();
+        if (facetQueries != null) {
+            for (SizeBucket bucket : SizeBucket.values()) {
+                Integer count = facetQueries.get(bucket.name());
+                if (count != null && count > 0) {
+                    sizeBuckets.put(bucket, count.longValue());
+                }
+            }
+        }
+        long total = response.getResults() != null ? response.getResults().getNumFound() : 0;
+        return new SearchFacets(total, toFacetCounts(response.getFacetField(FIELD_EXTENSION)), sizeBuckets,
+                toFacetCounts(response.getFacetField(FIELD_OWNER_USERNAME)));
+    }
+
+    private static Map<String, Long> toFacetCounts(FacetField field) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        if (field != null && field.getValues() != null) {
+            for (FacetField.Count count : field.getValues()) {
+                counts.put(count.getName(), count.getCount());
+            }
+        }
+        return counts;
+    }
+
+    private static String sizeRangeQuery(SizeBucket bucket) {
+        String upper = bucket.isOpenEnded() ? "*]" : bucket.getMaxBytes() + "}";
+        return FIELD_SIZE + ":[" + bucket.getMinBytes() + " TO " + upper;
+    }
+
+    /**
+     * Builds the file query restricted to the given online owners. Selected
+     * facet values are added as separate tagged filter queries.
+     */
+    private SolrQuery buildFileSearchQuery(String queryString, Map<String, PeerInfo> onlineUserDetailsMap,
+            FacetSelection selection) {
+        SolrQuery fileQuery = new SolrQuery();
+        String ownerFilter = onlineUserDetailsMap.keySet().stream()
+                .map(ClientUtils::escapeQueryChars)
+                .collect(Collectors.joining(" OR "));
+
+        fileQuery.setQuery(String.format("%s:%s AND %s:(%s) AND %s:(%s)",
+                FIELD_DOC_TYPE, DOC_TYPE_FILE,
+                FIELD_OWNER_USERNAME, ownerFilter,
+                FIELD_FILENAME_SEARCH, ClientUtils.escapeQueryChars(queryString)));
+        if (selection.getExtension() != null) {
+            fileQuery.addFilterQuery("{!tag=" + TAG_EXTENSION + "}" + FIELD_EXTENSION + ":"
+                    + ClientUtils.escapeQueryChars(selection.getExtension()));
+        }
+        if (selection.getSizeBucket() != null) {
+            fileQuery.addFilterQuery("{!tag=" + TAG_SIZE + "}" + sizeRangeQuery(selection.getSizeBucket()));
+        }
+        if (selection.getOwner() != null) {
+            fileQuery.addFilterQuery("{!tag=" + TAG_OWNER + "}" + FIELD_OWNER_USERNAME + ":"
+                    + ClientUtils.escapeQueryChars(selection.getOwner()));
+        }
+        fileQuery.setRows(SEARCH_RESULT_LIMIT);
+        fileQuery.setFields(FIELD_ID, FIELD_FILENAME, FIELD_PATH, FIELD_SIZE, FIELD_OWNER_USERNAME);
+        limitQueryTime(fileQuery, SEARCH_TIME_ALLOWED_MS);
+        return fileQuery;
+    }
+
+    /**
+     * Joins file search hits with their owners' connection details, in a
+     * compact FileList that holds each owner's details once.
+     */
+    private FileList toSearchResults(QueryResponse fileResponse, Map<String, PeerInfo> onlineUserDetailsMap) {
+        SolrDocumentList fileDocs = fileResponse.getResults();
+        FileList results = new FileList(fileDocs != null ? fileDocs.size() : 0);
+        if (fileDocs != null) {
+            for (SolrDocument fileDoc : fileDocs) {
+                String ownerUsername = (String) fileDoc.getFieldValue(FIELD_OWNER_USERNAME);
+                PeerInfo owner = onlineUserDetailsMap.get(ownerUsername);
+                if (owner != null) {
+                    if (owner.isReachable()) {
+                        results.add(createFileMetaDataFromDoc(fileDoc, owner.getIp(), owner.getPort()));
                     } else {
-                        log.warn("File '{}' owner '{}' details not found in online map.",
+                        log.warn("Skipping file '{}' from user '{}' due to missing IP/Port details.",
                                 fileDoc.getFieldValue(FIELD_FILENAME), ownerUsername);
                     }
+                } else {
+                    log.warn("File '{}' owner '{}' details not found in online map.",
+                            fileDoc.getFieldValue(FIELD_FILENAME), ownerUsername);
                 }
             }
-            log.info("Search for '{}' completed. Found {} matching files.", queryString, results.size());
-            return results;
-        }, "searchFiles(" + queryString + "," + requestingUsername + ")");
+        }
+        return results;
     }
 
     /**
@@ -591,13 +2196,20 @@ public class SolrClientManager {
     private FileMetaData createFileMetaDataFromDoc(SolrDocument doc, String ownerIp, Integer ownerPort) {
         String id = (String) doc.getFieldValue(FIELD_ID);
         String filename = (String) doc.getFieldValue(FIELD_FILENAME);
+        String relativePath = (String) doc.getFieldValue(FIELD_PATH);
         Long size = getLongField(doc, FIELD_SIZE);
+        Object modified = doc.getFieldValue(FIELD_MODIFIED);
         String ownerUsername = (String) doc.getFieldValue(FIELD_OWNER_USERNAME);
 
+        if (filename == null) {
+            filename = "unknown-filename";
+        }
         return new FileMetaData(
                 id != null ? id : "unknown-id",
-                filename != null ? filename : "unknown-filename",
+                filename,
+                relativePath != null ? relativePath : filename, // Indexed before paths were stored
                 size != null ? size : 0L,
+                modified instanceof Date ? ((Date) modified).getTime() : 0L, // Indexed before times were stored
                 ownerUsername != null ? ownerUsername : "unknown-owner",
                 ownerIp,
                 (ownerPort != null ? ownerPort : 0));
@@ -697,7 +2309,8 @@ public class SolrClientManager {
      * @param username The username of the user whose files should be removed
      * @throws SolrServerException If a Solr-specific error occurs
      * @throws IOException         If an I/O error occurs
-     * @return The number of files removed
+     * @return The number of files removed, as far as committed files show; files
+     *         added within the commit interval are removed but not counted
      */
     public int removeUserFiles(String username) throws SolrServerException, IOException {
         if (username == null || username.trim().isEmpty()) {
@@ -706,42 +2319,105 @@ public class SolrClientManager {
 
         log.info("Removing all files for user '{}' from the index", username);
 
+        // Queued adds for this user must reach Solr before the bulk delete, or they
+        // would resurrect files after it
+        updateQueue.flush();
+
+        String userFilesQuery = buildUserFilesQueryString(username);
+        String route = FileDocIds.routeKey(username);
         return executeWithRetryAndFailover(() -> {
-            // First, get all file IDs for this user
-            SolrQuery query = new SolrQuery();
-            query.setQuery(String.format("%s:%s AND %s:%s",
-                    FIELD_DOC_TYPE, DOC_TYPE_FILE,
-                    FIELD_OWNER_USERNAME, ClientUtils.escapeQueryChars(username)));
-            query.setRows(Integer.MAX_VALUE);
-            query.setFields(FIELD_ID);
-
-            QueryResponse response = solrClient.query(query);
-            SolrDocumentList docList = response.getResults();
-
-            if (docList != null && !docList.isEmpty()) {
-                List<String> fileIds = new ArrayList<>(docList.size());
-                for (SolrDocument doc : docList) {
-                    String id = (String) doc.getFieldValue(FIELD_ID);
-                    if (id != null) {
-                        fileIds.add(id);
+            // Only for reporting: files added within the commit interval are not
+            // counted yet, but still have to be deleted
+            long fileCount = countMatchingDocs(userFilesQuery, route);
+            // The owner's sync manifests no longer describe the index
+            clearSyncVersions(username);
+
+            if (deleteByQueryAllowed) {
+                try {
+                    log.info("Deleting {} files owned by user '{}' by query", fileCount, username);
+                    UpdateRequest deleteRequest = new UpdateRequest();
+                    deleteRequest.deleteByQuery(userFilesQuery);
+                    deleteRequest.setCommitWithin(COMMIT_WITHIN_MS);
+                    deleteRequest.setParam(ShardParams._ROUTE_, route);
+                    handleUpdateResponse(deleteRequest.process(solrClient), "remove all files for user " + username);
+                    return (int) Math.min(fileCount, Integer.MAX_VALUE);
+                } catch (RemoteSolrException e) {
+                    if (!isDisallowedRequest(e)) {
+                        throw e;
                     }
+                    log.warn("deleteByQuery rejected by Solr ({}); falling back to paged deletion by ID.",
+                            e.getMessage());
+                    deleteByQueryAllowed = false;
                 }
+            }
+            return deleteMatchingDocsById(userFilesQuery, route, username);
+        }, "removeUserFiles(" + username + ")");
+    }
 
-                if (!fileIds.isEmpty()) {
-                    log.info("Deleting {} files owned by user '{}'", fileIds.size(), username);
-                    UpdateResponse deleteResponse = solrClient.deleteById(fileIds, 10000);
-                    handleUpdateResponse(deleteResponse, "remove all files for user " + username);
+    /**
+     * Builds the query string matching all file documents owned by a user.
+     */
+    private String buildUserFilesQueryString(String username) {
+        return String.format("%s:%s AND %s:%s",
+                FIELD_DOC_TYPE, DOC_TYPE_FILE,
+                FIELD_OWNER_USERNAME, ClientUtils.escapeQueryChars(username));
+    }
 
-                    // Commit to make changes visible immediately
-                    UpdateResponse commitResponse = solrClient.commit();
-                    handleUpdateResponse(commitResponse, "commit file deletion for user " + username);
-                    return fileIds.size();
-                }
-            }
+    /**
+     * Counts matching documents without fetching any of them.
+     *
+     * @param queryString The query to count
+     * @param route       The _route_ limiting the shards asked
+     * @return The number of matching documents
+     */
+    private long countMatchingDocs(String queryString, String route) throws SolrServerException, IOException {
+        SolrQuery countQuery = new SolrQuery(queryString);
+        countQuery.set(ShardParams._ROUTE_, route);
+        countQuery.setRows(0);
+        SolrDocumentList results = solrClient.query(countQuery).getResults();
+        return results != null ? results.getNumFound() : 0;
+    }
 
-            log.info("No files found to remove for user '{}'", username);
-            return 0;
-        }, "removeUserFiles(" + username + ")");
+    /**
+     * Whether Solr rejected a deleteByQuery as not permitted, as opposed to
+     * failing it. Deployments that block deleteByQuery answer 403 or 405, or
+     * 400 with a message saying so; any other 400 is a failure of this one
+     * request and must not turn deleteByQuery off for good.
+     */
+    static boolean isDisallowedRequest(RemoteSolrException e) {
+        int code = e.code();
+        if (code == 403 || code == 405) {
+            return true;
+        }
+        return code == 400 && e.getMessage() != null
+                && DELETE_BY_QUERY_DISABLED_MESSAGE.matcher(e.getMessage()).find();
+    }
+
+    /**
+     * Deletes matching documents by ID, paging through them with a cursor so
+     * only one page of IDs is held in memory at a time. Used where
+     * deleteByQuery is disallowed.
+     *
+     * @param queryString The query selecting documents to delete
+     * @param route       The _route_ limiting the shards asked
+     * @param username    The user whose files are deleted (for logging)
+     * @return The number of documents deleted
+     */
+    private int deleteMatchingDocsById(String queryString, String route, String username)
+            throws SolrServerException, IOException {
+        // Files added within the commit interval are only found once committed
+        solrClient.commit(true, true, true);
+        SolrQuery idQuery = new SolrQuery(queryString);
+        idQuery.set(ShardParams._ROUTE_, route);
+        idQuery.setFields(FIELD_ID);
+
+        long deleted = forEachDocWithCursor(idQuery,
+                doc -> updateQueue.delete((String) doc.getFieldValue(FIELD_ID)),
+                "deleteMatchingDocsById(" + username + ")");
+        // Send the last partial page now; visibility follows commitWithin
+        updateQueue.flush();
+        log.info("Deleted {} files owned by user '{}' by ID", deleted, username);
+        return (int) Math.min(deleted, Integer.MAX_VALUE);
     }
 
     /**
@@ -758,21 +2434,16 @@ public class SolrClientManager {
         StringBuilder summary = new StringBuilder();
 
         try {
-            // First set user as offline
-            setUserStatus(username, false);
-            summary.append("User status set to offline. ");
+            // Queue the offline status so it is sent in the same batch as the file removals
+            CompletableFuture<Void> statusUpdate = queueUserStatus(username, false);
 
-            // Then remove all their files
+            // Remove all their files; the queue, including the status update, is flushed first
             int filesRemoved = removeUserFiles(username);
+            updateQueue.flush();
+            SolrUpdateQueue.await(statusUpdate);
+            summary.append("User status set to offline. ");
             summary.append(filesRemoved).append(" files removed from index. ");
-
-            // Finally commit changes to make them immediately visible
-            executeWithRetryAndFailover(() -> {
-                UpdateResponse commitResponse = solrClient.commit();
-                handleUpdateResponse(commitResponse, "commit changes for user " + username + " exit");
-                return null;
-            }, "commitUserExitChanges(" + username + ")");
-            summary.append("Changes committed successfully.");
+            summary.append("Changes will be visible within ").append(COMMIT_WITHIN_MS / 1000).append("s.");
 
             log.info("Successfully completed cleanup for user '{}': {}", username, summary);
             return summary.toString();
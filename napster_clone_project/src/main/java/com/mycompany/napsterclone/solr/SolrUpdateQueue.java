@@ -0,0 +1,542 @@
+package com.mycompany.napsterclone.solr;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Write-behind queue that coalesces Solr updates from all callers into batched
+ * update requests sent with commitWithin instead of explicit commits.
+ * Updates are keyed by document ID, so a later add, delete or atomic update of
+ * the same document replaces (or is merged into) the pending one and only the
+ * final state goes over the wire.
+ * <p>
+ * Each document's update has its own outcome. If Solr rejects a batch as a
+ * bad request, the batch is split in halves and those sent again, down to
+ * single updates, so one malformed document fails only its own update.
+ */
+public class SolrUpdateQueue {
+    private static final Logger log = LoggerFactory.getLogger(SolrUpdateQueue.class);
+
+    /**
+     * _version_ value of an atomic update that only applies to an existing
+     * document. Batches are sent with failOnVersionConflicts=false, so such an
+     * update of a document that is gone is skipped instead of failing the batch.
+     */
+    public static final long VERSION_MUST_EXIST = 1L;
+    private static final String FIELD_VERSION = "_version_";
+
+    // The flush thread exits after this long without updates
+    private static final long FLUSH_THREAD_KEEP_ALIVE_MS = 60000;
+
+    /**
+     * Sends one coalesced batch to Solr. Implementations are expected to handle
+     * retries and failover themselves.
+     */
+    interface BatchSender {
+        void send(UpdateRequest request) throws SolrServerException, IOException;
+    }
+
+    private enum Kind {
+        ADD, PARTIAL, DELETE
+    }
+
+    /**
+     * Pending update for a single document. Updates coalesced into it share
+     * its future.
+     */
+    private static class PendingUpdate {
+        Kind kind;
+        SolrInputDocument doc; // null for DELETE
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        Exception failure; // Set on the flush thread if Solr did not take it
+
+        PendingUpdate(Kind kind, SolrInputDocument doc) {
+            this.kind = kind;
+            this.doc = doc;
+        }
+    }
+
+    private final BatchSender sender;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final int commitWithinMillis;
+    private final ScheduledThreadPoolExecutor flushExecutor;
+
+    // Guarded by this. The batch future completes once every update of the
+    // batch has an outcome, exceptionally if any of them failed.
+    private Map<String, PendingUpdate> pending = new LinkedHashMap<>();
+    private CompletableFuture<Void> pendingBatchFuture = new CompletableFuture<>();
+    private long oldestPendingNanos = -1;
+    private boolean flushScheduled = false;
+    private boolean shutdown = false;
+
+    // Metrics, guarded by this
+    private long batchesSent = 0;
+    private long updatesSent = 0;
+    private long updatesCoalesced = 0;
+    private int lastBatchSize = 0;
+    private int maxBatchSizeSeen = 0;
+    private long lastLagMillis = 0;
+    private long maxLagMillis = 0;
+    private long failedBatches = 0;
+    private long failedUpdates = 0;
+
+    /**
+     * @param sender             Sends a coalesced batch to Solr
+     * @param maxBatchSize       Pending document count that triggers an immediate
+     *                           flush
+     * @param lingerMillis       How long the first pending update may wait for
+     *                           others to join its batch
+     * @param commitWithinMillis commitWithin applied to every batch
+     */
+    SolrUpdateQueue(BatchSender sender, int maxBatchSize, long lingerMillis, int commitWithinMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Max batch size must be at least 1.");
+        }
+        this.sender = sender;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMillis = lingerMillis;
+        this.commitWithinMillis = commitWithinMillis;
+        this.flushExecutor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "SolrUpdateQueue-Flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        this.flushExecutor.setKeepAliveTime(FLUSH_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+        this.flushExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a full document add. Replaces any pending update for the same ID.
+     *
+     * @return A future completed once Solr has acknowledged the update, or
+     *         exceptionally if it was rejected or could not be sent
+     */
+    public synchronized CompletableFuture<Void> add(String id, SolrInputDocument doc) {
+        return enqueue(id, Kind.ADD, doc);
+    }
+
+    /**
+     * Queues an atomic (partial) update. If a full add for the same ID is
+     * pending, the "set" values are folded into that document instead.
+     *
+     * @return A future completed once Solr has acknowledged the update, or
+     *         exceptionally if it was rejected or could not be sent
+     */
+    public synchronized CompletableFuture<Void> partialUpdate(String id, SolrInputDocument partialDoc) {
+        PendingUpdate existing = pending.get(id);
+        if (existing == null) {
+            return enqueue(id, Kind.PARTIAL, partialDoc);
+        }
+        ensureRunning();
+        switch (existing.kind) {
+            case ADD:
+                applySetValues(existing.doc, partialDoc);
+                existing.doc.removeField(FIELD_VERSION); // The pending add creates the document anyway
+                break;
+            case PARTIAL:
+                for (SolrInputField field : partialDoc) {
+                    existing.doc.setField(field.getName(), field.getValue());
+                }
+                break;
+            case DELETE:
+                if (mustExist(partialDoc)) {
+                    break; // Solr would skip it after the delete
+                }
+                // Delete followed by an atomic update creates a new document holding
+                // only the updated fields, so send exactly that as a full add.
+                SolrInputDocument recreated = new SolrInputDocument();
+                applySetValues(recreated, partialDoc);
+                existing.kind = Kind.ADD;
+                existing.doc = recreated;
+                break;
+        }
+        updatesCoalesced++;
+        return existing.future;
+    }
+
+    /**
+     * Queues a delete by ID. Replaces any pending update for the same ID.
+     *
+     * @return A future completed once Solr has acknowledged the update, or
+     *         exceptionally if it was rejected or could not be sent
+     */
+    public synchronized CompletableFuture<Void> delete(String id) {
+        return enqueue(id, Kind.DELETE, null);
+    }
+
+    private void ensureRunning() {
+        if (shutdown) {
+            throw new IllegalStateException("Update queue has been shut down.");
+        }
+    }
+
+    private CompletableFuture<Void> enqueue(String id, Kind kind, SolrInputDocument doc) {
+        ensureRunning();
+        PendingUpdate update = pending.get(id);
+        if (update != null) {
+            update.kind = kind;
+            update.doc = doc;
+            updatesCoalesced++;
+        } else {
+            update = new PendingUpdate(kind, doc);
+            pending.put(id, update);
+        }
+        if (oldestPendingNanos < 0) {
+            oldestPendingNanos = System.nanoTime();
+        }
+        if (pending.size() >= maxBatchSize) {
+            flushExecutor.execute(this::flushPending);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            flushExecutor.schedule(this::flushPending, lingerMillis, TimeUnit.MILLISECONDS);
+        }
+        return update.future;
+    }
+
+    private static boolean mustExist(SolrInputDocument partialDoc) {
+        Object version = partialDoc.getFieldValue(FIELD_VERSION);
+        return version instanceof Number && ((Number) version).longValue() > 0;
+    }
+
+    private static void applySetValues(SolrInputDocument target, SolrInputDocument partialDoc) {
+        for (SolrInputField field : partialDoc) {
+            Object value = field.getValue();
+            if (value instanceof Map) {
+                Map<?, ?> modifier = (Map<?, ?>) value;
+                if (modifier.containsKey("set")) {
+                    value = modifier.get("set");
+                }
+            }
+            if (value == null) {
+                target.removeField(field.getName()); // A null "set" removes the field
+            } else {
+                target.setField(field.getName(), value);
+            }
+        }
+    }
+
+    /**
+     * Blocks until everything queued before this call has been sent to Solr.
+     *
+     * @throws SolrServerException If any of those updates failed
+     * @throws IOException         If an I/O error occurs
+     */
+    public void flush() throws SolrServerException, IOException {
+        CompletableFuture<Void> batchFuture;
+        synchronized (this) {
+            if (shutdown) {
+                return; // shutdown() already flushed everything
+            }
+            batchFuture = pending.isEmpty() ? null : pendingBatchFuture;
+        }
+        // The flush thread is single-threaded, so this also waits out any batch
+        // that was already being sent when flush() was called.
+        Future<?> barrier = flushExecutor.submit(this::flushPending);
+        try {
+            barrier.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing Solr update queue", e);
+        } catch (ExecutionException e) {
+            throw new SolrServerException("Solr update queue flush failed: " + e.getCause().getMessage(),
+                    e.getCause());
+        }
+        if (batchFuture != null) {
+            await(batchFuture);
+        }
+    }
+
+    /**
+     * Runs on the flush thread. Swaps out the pending map and sends it as one
+     * update request.
+     */
+    private void flushPending() {
+        Map<String, PendingUpdate> batch;
+        CompletableFuture<Void> batchFuture;
+        long enqueuedAtNanos;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            batchFuture = pendingBatchFuture;
+            enqueuedAtNanos = oldestPendingNanos;
+            pending = new LinkedHashMap<>();
+            pendingBatchFuture = new CompletableFuture<>();
+            oldestPendingNanos = -1;
+        }
+
+        List<Map.Entry<String, PendingUpdate>> updates = new ArrayList<>(batch.entrySet());
+        int[] failed = { 0 };
+        Exception failure = send(updates, failed);
+        long lagMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueuedAtNanos);
+        synchronized (this) {
+            updatesSent += batch.size() - failed[0];
+            if (failure == null) {
+                batchesSent++;
+                lastBatchSize = batch.size();
+                maxBatchSizeSeen = Math.max(maxBatchSizeSeen, batch.size());
+                lastLagMillis = lagMillis;
+                maxLagMillis = Math.max(maxLagMillis, lagMillis);
+            } else {
+                failedBatches++;
+                failedUpdates += failed[0];
+            }
+        }
+        // After the stats, so a caller woken by its update sees them
+        for (PendingUpdate update : batch.values()) {
+            if (update.failure == null) {
+                update.future.complete(null);
+            } else {
+                update.future.completeExceptionally(update.failure);
+            }
+        }
+        if (failure == null) {
+            log.debug("Flushed {} coalesced updates to Solr, lag {}ms", batch.size(), lagMillis);
+            batchFuture.complete(null);
+        } else {
+            log.error("Failed to flush {} of {} queued updates to Solr: {}", failed[0], batch.size(),
+                    failure.getMessage(), failure);
+            batchFuture.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * Sends updates as one request, recording the failure of those that could
+     * not be sent. A request Solr rejects as a bad request is split in halves,
+     * which are sent the same way, until the updates it rejects are found.
+     *
+     * @param updates The updates to send, each of a different document
+     * @param failed  Incremented by the number of updates that failed
+     * @return The first failure, or null if all updates were acknowledged
+     */
+    private Exception send(List<Map.Entry<String, PendingUpdate>> updates, int[] failed) {
+        UpdateRequest request = new UpdateRequest();
+        List<String> deleteIds = new ArrayList<>();
+        for (Map.Entry<String, PendingUpdate> entry : updates) {
+            PendingUpdate update = entry.getValue();
+            if (update.kind == Kind.DELETE) {
+                deleteIds.add(entry.getKey());
+            } else {
+                request.add(update.doc);
+            }
+        }
+        if (!deleteIds.isEmpty()) {
+            request.deleteById(deleteIds);
+        }
+        request.setCommitWithin(commitWithinMillis);
+        request.setParam("failOnVersionConflicts", "false"); // See VERSION_MUST_EXIST
+
+        try {
+            sender.send(request);
+        } catch (Exception e) {
+            if (updates.size() > 1 && isRejectedRequest(e)) {
+                log.warn("Solr rejected a batch of {} updates ({}); sending it again in halves",
+                        updates.size(), e.getMessage());
+                int half = updates.size() / 2;
+                Exception first = send(updates.subList(0, half), failed);
+                Exception second = send(updates.subList(half, updates.size()), failed);
+                return first != null ? first : second;
+            }
+            for (Map.Entry<String, PendingUpdate> entry : updates) {
+                entry.getValue().failure = e;
+            }
+            failed[0] += updates.size();
+            return e;
+        }
+        return null;
+    }
+
+    /**
+     * Whether Solr answered with a 4xx status, which sending the same request
+     * again would not change.
+     */
+    private static boolean isRejectedRequest(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SolrException) {
+                int code = ((SolrException) t).code();
+                return code >= 400 && code < 500;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Flushes all pending updates and stops the flush thread. Further updates
+     * are rejected.
+     *
+     * @param timeoutMillis Maximum time to wait for the final flush
+     */
+    public void shutdown(long timeoutMillis) {
+        CompletableFuture<Void> batchFuture;
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            batchFuture = pending.isEmpty() ? null : pendingBatchFuture;
+        }
+        if (batchFuture != null) {
+            log.info("Flushing queued Solr updates before shutdown...");
+            flushExecutor.execute(this::flushPending);
+            try {
+                batchFuture.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while flushing queued Solr updates on shutdown.");
+            } catch (ExecutionException | TimeoutException e) {
+                log.error("Queued Solr updates could not be flushed on shutdown: {}", e.getMessage());
+            }
+        }
+        flushExecutor.shutdown();
+        log.info("Solr update queue stopped. {}", getStats());
+    }
+
+    /**
+     * Waits for a batch future and unwraps Solr and I/O failures.
+     */
+    static void await(CompletableFuture<Void> batchFuture) throws SolrServerException, IOException {
+        try {
+            batchFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for Solr update batch", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SolrServerException) {
+                throw (SolrServerException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new SolrServerException("Queued Solr update failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * @return A snapshot of the queue metrics
+     */
+    public synchronized Stats getStats() {
+        long currentLagMillis = oldestPendingNanos < 0 ? 0
+                : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldestPendingNanos);
+        return new Stats(pending.size(), currentLagMillis, batchesSent, updatesSent, updatesCoalesced,
+                lastBatchSize, maxBatchSizeSeen, lastLagMillis, maxLagMillis, failedBatches, failedUpdates);
+    }
+
+    /**
+     * Immutable snapshot of the update queue metrics.
+     */
+    public static final class Stats {
+        private final int pendingUpdates;
+        private final long currentLagMillis;
+        private final long batchesSent;
+        private final long updatesSent;
+        private final long updatesCoalesced;
+        private final int lastBatchSize;
+        private final int maxBatchSize;
+        private final long lastLagMillis;
+        private final long maxLagMillis;
+        private final long failedBatches;
+        private final long failedUpdates;
+
+        Stats(int pendingUpdates, long currentLagMillis, long batchesSent, long updatesSent,
+                long updatesCoalesced, int lastBatchSize, int maxBatchSize, long lastLagMillis,
+                long maxLagMillis, long failedBatches, long failedUpdates) {
+            this.pendingUpdates = pendingUpdates;
+            this.currentLagMillis = currentLagMillis;
+            this.batchesSent = batchesSent;
+            this.updatesSent = updatesSent;
+            this.updatesCoalesced = updatesCoalesced;
+            this.lastBatchSize = lastBatchSize;
+            this.maxBatchSize = maxBatchSize;
+            this.lastLagMillis = lastLagMillis;
+            this.maxLagMillis = maxLagMillis;
+            this.failedBatches = failedBatches;
+            this.failedUpdates = failedUpdates;
+        }
+
+        public int getPendingUpdates() {
+            return pendingUpdates;
+        }
+
+        public long getCurrentLagMillis() {
+            return currentLagMillis;
+        }
+
+        public long getBatchesSent() {
+            return batchesSent;
+        }
+
+        public long getUpdatesSent() {
+            return updatesSent;
+        }
+
+        public long getUpdatesCoalesced() {
+            return updatesCoalesced;
+        }
+
+        public double getAverageBatchSize() {
+            return batchesSent == 0 ? 0 : (double) updatesSent / batchesSent;
+        }
+
+        public int getLastBatchSize() {
+            return lastBatchSize;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public long getLastLagMillis() {
+            return lastLagMillis;
+        }
+
+        public long getMaxLagMillis() {
+            return maxLagMillis;
+        }
+
+        public long getFailedBatches() {
+            return failedBatches;
+        }
+
+        public long getFailedUpdates() {
+            return failedUpdates;
+        }
+
+        @Override
+        public String toString() {
+            return "UpdateQueueStats{" +
+                    "pending=" + pendingUpdates +
+                    ", currentLagMs=" + currentLagMillis +
+                    ", batches=" + batchesSent +
+                    ", updates=" + updatesSent +
+                    ", coalesced=" + updatesCoalesced +
+                    ", avgBatch=" + String.format("%.1f", getAverageBatchSize()) +
+                    ", lastBatch=" + lastBatchSize +
+                    ", maxBatch=" + maxBatchSize +
+                    ", lastLagMs=" + lastLagMillis +
+                    ", maxLagMs=" + maxLagMillis +
+                    ", failedBatches=" + failedBatches +
+                    ", failedUpdates=" + failedUpdates +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.mycompany.napsterclone.ui;
+
+import com.mycompany.napsterclone.model.FacetSelection;
+import com.mycompany.napsterclone.model.SearchFacets;
+import com.mycompany.napsterclone.model.SizeBucket;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Shows facet counts for the current search (extension, size range, owner) and
+ * lets the user drill down by clicking a value. Clicking the selected value
+ * again clears that filter.
+ */
+public class FacetPanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * One clickable facet value with its count.
+     */
+    private static final class FacetEntry {
+        final Object value;
+        final String label;
+        final long count;
+
+        FacetEntry(Object value, String label, long count) {
+            this.value = value;
+            this.label = label;
+            this.count = count;
+        }
+
+        @Override
+        public String toString() {
+            return label + " (" + count + ")";
+        }
+    }
+
+    private final DefaultListModel<FacetEntry> extensionModel = new DefaultListModel<>();
+    private final DefaultListModel<FacetEntry> sizeModel = new DefaultListModel<>();
+    private final DefaultListModel<FacetEntry> ownerModel = new DefaultListModel<>();
+    private final JList<FacetEntry> extensionList = new JList<>(extensionModel);
+    private final JList<FacetEntry> sizeList = new JList<>(sizeModel);
+    private final JList<FacetEntry> ownerList = new JList<>(ownerModel);
+    private final JButton clearButton = new JButton("Clear Filters");
+
+    private FacetSelection selection = FacetSelection.NONE;
+    private Consumer<FacetSelection> selectionListener = s -> {
+    };
+
+    public FacetPanel() {
+        setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+        setBorder(BorderFactory.createTitledBorder("Refine"));
+        add(createSection("Type", extensionList));
+        add(createSection("Size", sizeList));
+        add(createSection("Owner", ownerList));
+        clearButton.setAlignmentX(Component.LEFT_ALIGNMENT);
+        clearButton.setEnabled(false);
+        clearButton.addActionListener(e -> changeSelection(FacetSelection.NONE));
+        add(clearButton);
+
+        extensionList.addMouseListener(toggleOn(extensionList, value -> {
+            String extension = (String) value;
+            return selection.withExtension(extension.equals(selection.getExtension()) ? null : extension);
+        }));
+        sizeList.addMouseListener(toggleOn(sizeList, value -> {
+            SizeBucket bucket = (SizeBucket) value;
+            return selection.withSizeBucket(bucket == selection.getSizeBucket() ? null : bucket);
+        }));
+        ownerList.addMouseListener(toggleOn(ownerList, value -> {
+            String owner = (String) value;
+            return selection.withOwner(owner.equals(selection.getOwner()) ? null : owner);
+        }));
+    }
+
+    /**
+     * @param listener Called on the EDT whenever the user changes the selection
+     */
+    public void setSelectionListener(Consumer<FacetSelection> listener) {
+        this.selectionListener = Objects.requireNonNull(listener);
+    }
+
+    public FacetSelection getSelection() {
+        return selection;
+    }
+
+    /**
+     * Replaces the shown counts and selection without notifying the listener.
+     *
+     * @param facets    The counts to show
+     * @param selection The values to highlight as selected
+     */
+    public void setFacets(SearchFacets facets, FacetSelection selection) {
+        this.selection = selection;
+        extensionModel.clear();
+        for (Map.Entry<String, Long> entry : facets.getExtensions().entrySet()) {
+            extensionModel.addElement(new FacetEntry(entry.getKey(), entry.getKey(), entry.getValue()));
+        }
+        sizeModel.clear();
+        for (Map.Entry<SizeBucket, Long> entry : facets.getSizeBuckets().entrySet()) {
+            sizeModel.addElement(new FacetEntry(entry.getKey(), entry.getKey().getLabel(), entry.getValue()));
+        }
+        ownerModel.clear();
+        for (Map.Entry<String, Long> entry : facets.getOwners().entrySet()) {
+            ownerModel.addElement(new FacetEntry(entry.getKey(), entry.getKey(), entry.getValue()));
+        }
+        highlight(extensionList, selection.getExtension());
+        highlight(sizeList, selection.getSizeBucket());
+        highlight(ownerList, selection.getOwner());
+        clearButton.setEnabled(!selection.isEmpty());
+    }
+
+    /**
+     * Clears the counts and the selection, e.g. when a new query is started.
+     */
+    public void clear() {
+        setFacets(SearchFacets.EMPTY, FacetSelection.NONE);
+    }
+
+    private JComponent createSection(String title, JList<FacetEntry> list) {
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setVisibleRowCount(6);
+        JScrollPane scrollPane = new JScrollPane(list);
+        scrollPane.setBorder(BorderFactory.createTitledBorder(title));
+        scrollPane.setAlignmentX(Component.LEFT_ALIGNMENT);
+        return scrollPane;
+    }
+
+    private MouseAdapter toggleOn(JList<FacetEntry> list, Function<Object, FacetSelection> toggle) {
+        return new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int index = list.locationToIndex(e.getPoint());
+                if (index >= 0 && list.getCellBounds(index, index).contains(e.getPoint())) {
+                    changeSelection(toggle.apply(list.getModel().getElementAt(index).value));
+                }
+            }
+        };
+    }
+
+    private void changeSelection(FacetSelection newSelection) {
+        if (newSelection.equals(selection)) {
+            return;
+        }
+        selection = newSelection;
+        highlight(extensionList, selection.getExtension());
+        highlight(sizeList, selection.getSizeBucket());
+        highlight(ownerList, selection.getOwner());
+        clearButton.setEnabled(!selection.isEmpty());
+        selectionListener.accept(newSelection);
+    }
+
+    private static void highlight(JList<FacetEntry> list, Object selectedValue) {
+        list.clearSelection();
+        if (selectedValue == null) {
+            return;
+        }
+        ListModel<FacetEntry> model = list.getModel();
+        for (int i = 0; i < model.getSize(); i++) {
+            if (selectedValue.equals(model.getElementAt(i).value)) {
+                list.setSelectedIndex(i);
+                return;
+            }
+        }
+    }
+}
@@ -1,26 +1,81 @@
 package com.mycompany.napsterclone.ui;
 
+import com.mycompany.napsterclone.model.FileList;
 import com.mycompany.napsterclone.model.FileMetaData;
 import com.mycompany.napsterclone.util.Bytes;
 
 import javax.swing.table.AbstractTableModel;
-import java.util.ArrayList;
 import java.util.List;
 
 public class FileTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
 
     private final String[] columnNames = { "Filename", "Size", "Owner", "IP Address", "Port" };
-    private List<FileMetaData> files;
+    // Compact, so long result lists stay small; cells are read straight from its columns.
+    // A list handed in by the caller is shown as it is and never modified; batches
+    // appended to it go into a list of the model's own.
+    private FileList files;
+    private boolean ownsFiles;
 
     public FileTableModel() {
-        this.files = new ArrayList<>();
+        clear();
     }
 
-    public void setFiles(List<FileMetaData> files) {
-        this.files = new ArrayList<>(files); // Make a copy
+    /**
+     * Shows the given files. The list is not copied, so the caller must not
+     * modify it afterwards.
+     *
+     * @param files The files to show
+     */
+    public void setFiles(FileList files) {
+        this.files = files;
+        this.ownsFiles = false;
         fireTableDataChanged(); // Notify the table view about the data change
     }
 
+    /**
+     * Removes all rows.
+     */
+    public void clear() {
+        this.files = new FileList();
+        this.ownsFiles = true;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Appends a batch of results, notifying the view of the inserted rows only.
+     * Used when search results are streamed in page by page. A first batch
+     * that is a {@link FileList} is shown without copying, as by
+     * {@link #setFiles(FileList)}.
+     *
+     * @param moreFiles The files to append
+     */
+    public void appendFiles(List<FileMetaData> moreFiles) {
+        if (moreFiles.isEmpty()) {
+            return;
+        }
+        int firstRow = files.size();
+        if (firstRow == 0 && moreFiles instanceof FileList) {
+            files = (FileList) moreFiles;
+            ownsFiles = false;
+        } else {
+            if (!ownsFiles) {
+                FileList own = new FileList(files.size() + moreFiles.size());
+                own.addAll(files);
+                files = own;
+                ownsFiles = true;
+            }
+            files.addAll(moreFiles);
+        }
+        fireTableRowsInserted(firstRow, files.size() - 1);
+    }
+
+    /**
+     * Creates the metadata of the file in a row, for downloading it. Cells
+     * are rendered from the columns of the list instead.
+     *
+     * @return The file, or null if there is no such row
+     */
     public FileMetaData getFileMetaDataAt(int rowIndex) {
         if (rowIndex >= 0 && rowIndex < files.size()) {
             return files.get(rowIndex);
@@ -48,18 +103,17 @@ public class FileTableModel extends AbstractTableModel {
         if (rowIndex < 0 || rowIndex >= files.size()) {
             return null; // Should not happen with proper checks
         }
-        FileMetaData file = files.get(rowIndex);
         switch (columnIndex) {
             case 0:
-                return file.getFilename();
+                return files.getFilename(rowIndex);
             case 1:
-                return Bytes.format(file.getSize()); // Format size for display
+                return Bytes.format(files.getSize(rowIndex)); // Format size for display
             case 2:
-                return file.getOwnerUsername();
+                return files.getOwnerUsername(rowIndex);
             case 3:
-                return file.getOwnerIp();
+                return files.getOwnerIp(rowIndex);
             case 4:
-                return file.getOwnerPort();
+                return files.getOwnerPort(rowIndex);
             default:
                 return null;
         }
@@ -1,9 +1,11 @@
 package com.mycompany.napsterclone.ui;
 
 import com.mycompany.napsterclone.client.ClientManager;
+import com.mycompany.napsterclone.client.ShareRoot;
 import com.mycompany.napsterclone.net.FileServer;
 import com.mycompany.napsterclone.solr.SolrClientManager;
 import com.mycompany.napsterclone.util.NetworkUtils;
+import org.apache.solr.client.solrj.SolrServerException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,8 +17,14 @@ import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Pattern;
 
 public class JoinForm extends JFrame {
+    private static final long serialVersionUID = 1L;
     private static final Logger log = LoggerFactory.getLogger(JoinForm.class);
 
     private JTextField usernameField;
@@ -89,7 +97,8 @@ public class JoinForm extends JFrame {
         gbc.gridwidth = 1;
         gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.weightx = 1.0;
-        publishDirField.setToolTipText("Select the folder containing files you want to share.");
+        publishDirField.setToolTipText("Select the folder containing files you want to share. Browse again to add"
+                + " another; several folders are separated by '" + File.pathSeparator + "'.");
         panel.add(publishDirField, gbc);
         gbc.gridx = 2;
         gbc.gridy = 1;
@@ -142,7 +151,8 @@ public class JoinForm extends JFrame {
         JFileChooser chooser = new JFileChooser();
         // Try to set a sensible starting directory
         try {
-            Path currentPath = Paths.get(publishDirField.getText());
+            List<Path> selected = parseDirectories(publishDirField.getText());
+            Path currentPath = selected.isEmpty() ? Paths.get("") : selected.get(selected.size() - 1);
             if (Files.isDirectory(currentPath)) {
                 chooser.setCurrentDirectory(currentPath.toFile());
             } else {
@@ -156,7 +166,10 @@ public class JoinForm extends JFrame {
         chooser.setDialogTitle("Select Directory to Share");
         int result = chooser.showOpenDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
-            publishDirField.setText(chooser.getSelectedFile().getAbsolutePath());
+            String current = publishDirField.getText().trim();
+            String chosen = chooser.getSelectedFile().getAbsolutePath();
+            // Add to the folders already chosen
+            publishDirField.setText(current.isEmpty() ? chosen : current + File.pathSeparator + chosen);
             log.debug("User selected publish directory: {}", chooser.getSelectedFile().getAbsolutePath());
         }
     }
@@ -170,7 +183,7 @@ public class JoinForm extends JFrame {
             return;
         }
 
-        Path publishPath = Paths.get(dirPathStr); // Already validated
+        List<Path> publishPaths = parseDirectories(dirPathStr); // Already validated
         int requestedPort = Integer.parseInt(portStr); // Already validated
 
         enableComponents(false);
@@ -190,9 +203,19 @@ public class JoinForm extends JFrame {
                     publish("Initializing...");
                     solrManagerInstance = new SolrClientManager(SOLR_URLS);
                     publish("Connecting to index server...");
-                    solrManagerInstance.connect();
+                    // The Solr connection is independent of the port probe and file server
+                    // start-up, so run it alongside them and join before registering.
+                    SolrClientManager solrManager = solrManagerInstance;
+                    CompletableFuture<Void> solrConnect = CompletableFuture.runAsync(() -> {
+                        try {
+                            solrManager.connect();
+                        } catch (IOException | SolrServerException e) {
+                            throw new CompletionException(e);
+                        }
+                    });
 
-                    clientManagerInstance = new ClientManager(username, publishPath);
+                    clientManagerInstance = new ClientManager(username, ShareRoot.forDirectories(publishPaths),
+                            ClientManager.loadSharingRules());
                     actualIp = clientManagerInstance.getLocalIpAddress();
 
                     publish("Determining server port...");
@@ -209,7 +232,7 @@ public class JoinForm extends JFrame {
                     log.info("Resolved FileServer details - IP: {}, Port: {}", actualIp, actualPort);
 
                     publish("Starting file server on port " + actualPort + "...");
-                    fileServerInstance = new FileServer(actualPort, clientManagerInstance.getPublishDirectory());
+                    fileServerInstance = new FileServer(actualPort, clientManagerInstance::findSharedFile);
                     Thread serverThread = new Thread(fileServerInstance, "FileServerThread-" + actualPort);
                     serverThread.setDaemon(true); // Important for clean exit
                     serverThread.start();
@@ -222,11 +245,32 @@ public class JoinForm extends JFrame {
                     }
                     log.info("FileServer reported as running.");
 
+                    publish("Waiting for index server connection...");
+                    try {
+                        solrConnect.join();
+                    } catch (CompletionException e) {
+                        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+
                     publish("Registering with network...");
                     solrManagerInstance.registerUser(username, actualIp, actualPort);
+                    // Heartbeats must run while the initial sync does, or a long
+                    // first publish lets the lease run out and the user is swept
+                    clientManagerInstance.startPresence(solrManagerInstance);
+                    solrManagerInstance.startPeerDirectory();
 
                     publish("Performing initial file synchronization...");
-                    clientManagerInstance.synchronizeFiles(solrManagerInstance);
+                    clientManagerInstance.synchronizeFiles(solrManagerInstance,
+                            (scanned, sent, acknowledged) -> publish(String.format(
+                                    "Synchronizing files: %,d found, %,d of %,d updates applied...",
+                                    scanned, acknowledged, sent)));
+                    try {
+                        clientManagerInstance.startLiveSync(solrManagerInstance);
+                    } catch (IOException e) {
+                        // Not fatal: manual sync and periodic presence still work
+                        log.warn("Could not watch all shared folders, live sync disabled for those: {}",
+                                e.getMessage());
+                    }
 
                     joinSuccess = true;
                     publish("Successfully joined the network!");
@@ -234,6 +278,8 @@ public class JoinForm extends JFrame {
                 } catch (Exception e) {
                     log.error("Join process failed for user '{}'", username, e);
                     // Cleanup partially started components
+                    if (clientManagerInstance != null)
+                        clientManagerInstance.stopPresence();
                     if (fileServerInstance != null)
                         fileServerInstance.shutdown();
                     if (solrManagerInstance != null)
@@ -258,7 +304,7 @@ public class JoinForm extends JFrame {
                     if (joinSuccess) {
                         updateStatus("Join successful! Launching main application...", Color.GREEN.darker());
                         log.info("User '{}' joined successfully. IP: {}, Port: {}, Sharing: {}",
-                                username, actualIp, actualPort, clientManagerInstance.getPublishDirectory());
+                                username, actualIp, actualPort, clientManagerInstance.describeShareRoots());
 
                         // Launch MainForm
                         MainForm mainForm = new MainForm(clientManagerInstance, solrManagerInstance,
@@ -307,22 +353,25 @@ public class JoinForm extends JFrame {
             return false;
         }
         try {
-            Path publishPath = Paths.get(dirPathStr);
-            if (!Files.isDirectory(publishPath)) {
-                showErrorDialog("The selected publish path is not a valid directory: " + dirPathStr);
+            List<Path> publishPaths = parseDirectories(dirPathStr);
+            if (publishPaths.isEmpty()) {
+                showErrorDialog("Publish directory cannot be empty. Please select a folder.");
                 return false;
             }
-            if (!Files.exists(publishPath)) { // Check if directory exists
-                // Optionally, offer to create it:
-                // int choice = JOptionPane.showConfirmDialog(this, "Directory does not exist.
-                // Create it?", "Create Directory", JOptionPane.YES_NO_OPTION);
-                // if (choice == JOptionPane.YES_OPTION) { try {
-                // Files.createDirectories(publishPath); } catch (IOException ex) {
-                // showErrorDialog("Could not create directory: " + ex.getMessage()); return
-                // false; }}
-                // else { return false; }
-                showErrorDialog("Selected publish directory does not exist: " + dirPathStr);
-                return false;
+            for (Path publishPath : publishPaths) {
+                if (!Files.isDirectory(publishPath)) {
+                    showErrorDialog("The selected publish path is not a valid directory: " + publishPath);
+                    return false;
+                }
+            }
+            // A folder inside another would publish its files twice
+            for (Path publishPath : publishPaths) {
+                for (Path other : publishPaths) {
+                    if (publishPath != other && publishPath.startsWith(other)) {
+                        showErrorDialog("Shared folders must not contain each other: " + publishPath);
+                        return false;
+                    }
+                }
             }
         } catch (InvalidPathException ipe) {
             showErrorDialog("Invalid publish directory path format: " + ipe.getMessage());
@@ -341,6 +390,21 @@ public class JoinForm extends JFrame {
         return true;
     }
 
+    /**
+     * Splits the share folder field into the folders to share.
+     *
+     * @throws InvalidPathException If a folder is not a valid path
+     */
+    private static List<Path> parseDirectories(String dirPathStr) {
+        List<Path> directories = new ArrayList<>();
+        for (String part : dirPathStr.split(Pattern.quote(File.pathSeparator))) {
+            if (!part.trim().isEmpty()) {
+                directories.add(Paths.get(part.trim()).toAbsolutePath().normalize());
+            }
+        }
+        return directories;
+    }
+
     private void enableComponents(boolean enabled) {
         SwingUtilities.invokeLater(() -> {
             usernameField.setEnabled(enabled);
@@ -1,7 +1,10 @@
 package com.mycompany.napsterclone.ui;
 
 import com.mycompany.napsterclone.client.ClientManager;
+import com.mycompany.napsterclone.model.FacetSelection;
 import com.mycompany.napsterclone.model.FileMetaData;
+import com.mycompany.napsterclone.model.FilenameSuggestions;
+import com.mycompany.napsterclone.model.SearchFacets;
 import com.mycompany.napsterclone.net.FileClient;
 import com.mycompany.napsterclone.net.FileServer;
 import com.mycompany.napsterclone.net.ProgressListener;
@@ -11,21 +14,32 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumn;
 import java.awt.*;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class MainForm extends JFrame {
+    private static final long serialVersionUID = 1L;
     private static final Logger log = LoggerFactory.getLogger(MainForm.class);
 
     private final ClientManager clientManager;
@@ -36,10 +50,12 @@ public class MainForm extends JFrame {
     private JTextField searchField;
     private JButton searchButton;
     private JButton syncButton;
+    private JCheckBox liveSyncCheckBox;
     private JButton downloadButton;
     private JTable resultsTable;
     private FileTableModel tableModel;
     private JScrollPane tableScrollPane;
+    private FacetPanel facetPanel;
 
     private JProgressBar overallProgressBar; // For general status like sync/search
     private JLabel statusLabel; // General status text
@@ -51,6 +67,27 @@ public class MainForm extends JFrame {
     private final Map<String, TransferProgressUI> activeTransfers = new ConcurrentHashMap<>();
     private boolean isShuttingDown = false;
 
+    // Search currently in flight and its query text, only touched on the EDT
+    private CompletableFuture<Long> currentSearch;
+    private String currentSearchQuery;
+    // Query the facet panel's counts and selection belong to, and the facet
+    // request in flight (EDT only)
+    private String facetQuery;
+    private CompletableFuture<SearchFacets> currentFacets;
+
+    // Type-ahead suggestions: requests are debounced while typing, a newer
+    // request cancels the older one, and recent answers are cached per prefix
+    private static final int SUGGESTION_LIMIT = 10;
+    private static final int SUGGESTION_MIN_CHARS = 2;
+    private static final int SUGGESTION_DEBOUNCE_MS = 120;
+    private final SuggestionCache suggestionCache = new SuggestionCache(200, 60000);
+    private Timer suggestionTimer;
+    private JWindow suggestionWindow;
+    private JList<String> suggestionList;
+    private DefaultListModel<String> suggestionModel;
+    private CompletableFuture<FilenameSuggestions> currentSuggestion; // EDT only
+    private boolean applyingSuggestion = false;
+
     public MainForm(ClientManager clientManager, SolrClientManager solrManager, FileServer fileServer) {
         super("Napster Clone - " + clientManager.getUsername());
         this.clientManager = clientManager;
@@ -75,7 +112,7 @@ public class MainForm extends JFrame {
 
         // Initial status
         updateStatus("Ready. IP: " + clientManager.getLocalIpAddress() + " Port: " + clientManager.getServerPort() +
-                " Sharing: " + clientManager.getPublishDirectory().toString());
+                " Sharing: " + clientManager.describeShareRoots());
 
         // Setup download location chooser
         downloadLocationChooser = new JFileChooser();
@@ -88,6 +125,8 @@ public class MainForm extends JFrame {
         searchField = new JTextField(30);
         searchButton = new JButton("Search");
         syncButton = new JButton("Sync Files");
+        liveSyncCheckBox = new JCheckBox("Live Sync", clientManager.isLiveSyncRunning());
+        liveSyncCheckBox.setToolTipText("Publish changes to the shared folder as they happen");
         downloadButton = new JButton("Download Selected");
         downloadButton.setEnabled(false); // Disable initially
 
@@ -97,6 +136,7 @@ public class MainForm extends JFrame {
         resultsTable.setAutoCreateRowSorter(true); // Enable sorting
         resultsTable.setFillsViewportHeight(true);
         tableScrollPane = new JScrollPane(resultsTable);
+        facetPanel = new FacetPanel();
 
         overallProgressBar = new JProgressBar(0, 100);
         overallProgressBar.setStringPainted(true);
@@ -105,6 +145,16 @@ public class MainForm extends JFrame {
         transferPanel = new JPanel();
         transferPanel.setLayout(new BoxLayout(transferPanel, BoxLayout.Y_AXIS)); // Vertical layout
         transferPanel.setBorder(BorderFactory.createTitledBorder("Active Transfers"));
+
+        suggestionModel = new DefaultListModel<>();
+        suggestionList = new JList<>(suggestionModel);
+        suggestionList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        suggestionList.setFocusable(false);
+        suggestionWindow = new JWindow(this);
+        suggestionWindow.setFocusableWindowState(false); // Keep typing in searchField
+        suggestionWindow.add(new JScrollPane(suggestionList));
+        suggestionTimer = new Timer(SUGGESTION_DEBOUNCE_MS, e -> requestSuggestions());
+        suggestionTimer.setRepeats(false);
     }
 
     private void layoutComponents() {
@@ -114,6 +164,7 @@ public class MainForm extends JFrame {
         topPanel.add(searchField);
         topPanel.add(searchButton);
         topPanel.add(syncButton);
+        topPanel.add(liveSyncCheckBox);
 
         // --- Center Panel (Results Table) ---
         // (tableScrollPane is already created)
@@ -140,7 +191,12 @@ public class MainForm extends JFrame {
 
         // --- Main Layout ---
         // Use JSplitPane for resizable areas
-        JSplitPane mainSplitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, tableScrollPane, transferScrollPane);
+        JPanel resultsPanel = new JPanel(new BorderLayout(5, 0));
+        JScrollPane facetScrollPane = new JScrollPane(facetPanel);
+        facetScrollPane.setPreferredSize(new Dimension(180, 0));
+        resultsPanel.add(facetScrollPane, BorderLayout.WEST);
+        resultsPanel.add(tableScrollPane, BorderLayout.CENTER);
+        JSplitPane mainSplitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, resultsPanel, transferScrollPane);
         mainSplitPane.setResizeWeight(0.75); // Give more space to the table initially
         mainSplitPane.setOneTouchExpandable(true); // Add arrows to collapse/expand
 
@@ -170,8 +226,78 @@ public class MainForm extends JFrame {
 
     private void setupActions() {
         searchButton.addActionListener(e -> performSearch());
-        searchField.addActionListener(e -> performSearch()); // Enter key in search field
+        searchField.addActionListener(e -> onSearchFieldEnter()); // Enter key in search field
+        // Editing the query makes the running search stale, so stop streaming its results
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                onSearchTextChanged();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                onSearchTextChanged();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                onSearchTextChanged();
+            }
+        });
+        searchField.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (!suggestionWindow.isVisible()) {
+                    return;
+                }
+                int selected = suggestionList.getSelectedIndex();
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_DOWN:
+                        suggestionList.setSelectedIndex(Math.min(selected + 1, suggestionModel.size() - 1));
+                        e.consume();
+                        break;
+                    case KeyEvent.VK_UP:
+                        if (selected <= 0) {
+                            suggestionList.clearSelection();
+                        } else {
+                            suggestionList.setSelectedIndex(selected - 1);
+                        }
+                        e.consume();
+                        break;
+                    case KeyEvent.VK_ESCAPE:
+                        hideSuggestions();
+                        e.consume();
+                        break;
+                    default:
+                        break;
+                }
+                suggestionList.ensureIndexIsVisible(suggestionList.getSelectedIndex());
+            }
+        });
+        searchField.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                hideSuggestions();
+            }
+        });
+        suggestionList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int index = suggestionList.locationToIndex(e.getPoint());
+                if (index >= 0) {
+                    applySuggestion(suggestionModel.get(index));
+                    performSearch();
+                }
+            }
+        });
+        // Drilling down re-runs the last query with the new filters
+        facetPanel.setSelectionListener(selection -> {
+            if (facetQuery != null) {
+                runSearch(facetQuery, selection);
+            }
+        });
         syncButton.addActionListener(e -> performSync());
+        liveSyncCheckBox.addActionListener(e -> toggleLiveSync(liveSyncCheckBox.isSelected()));
         downloadButton.addActionListener(e -> startDownload());
 
         // Enable download button only when a row is selected
@@ -182,6 +308,95 @@ public class MainForm extends JFrame {
         });
     }
 
+    private void onSearchTextChanged() {
+        if (currentSearchQuery != null && !currentSearchQuery.equals(searchField.getText().trim())) {
+            cancelCurrentSearch("query text changed");
+        }
+        if (!applyingSuggestion) {
+            suggestionTimer.restart();
+        }
+    }
+
+    private void onSearchFieldEnter() {
+        if (suggestionWindow.isVisible() && suggestionList.getSelectedValue() != null) {
+            applySuggestion(suggestionList.getSelectedValue());
+        }
+        performSearch();
+    }
+
+    /**
+     * Looks up suggestions for the current search text once typing has paused.
+     * Served from the prefix cache when possible, otherwise from Solr.
+     */
+    private void requestSuggestions() {
+        if (currentSuggestion != null) {
+            currentSuggestion.cancel(true); // Superseded by what was typed since
+            currentSuggestion = null;
+        }
+        String text = searchField.getText();
+        if (text.trim().length() < SUGGESTION_MIN_CHARS || !searchField.hasFocus()) {
+            hideSuggestions();
+            return;
+        }
+        List<String> cached = suggestionCache.get(text);
+        if (cached != null) {
+            showSuggestions(cached);
+            return;
+        }
+
+        CompletableFuture<FilenameSuggestions> request = solrManager.suggestFilenamesAsync(text,
+                clientManager.getUsername(), SUGGESTION_LIMIT);
+        currentSuggestion = request;
+        request.whenComplete((suggestions, error) -> SwingUtilities.invokeLater(() -> {
+            if (request != currentSuggestion) {
+                return; // Cancelled or superseded
+            }
+            currentSuggestion = null;
+            if (error != null) {
+                log.debug("Suggestions for '{}' failed: {}", text, error.getMessage());
+                return;
+            }
+            suggestionCache.put(text, suggestions);
+            if (text.equals(searchField.getText())) {
+                showSuggestions(suggestions.getFilenames());
+            }
+        }));
+    }
+
+    private void showSuggestions(List<String> suggestions) {
+        if (suggestions.isEmpty() || !searchField.isShowing()) {
+            hideSuggestions();
+            return;
+        }
+        suggestionModel.clear();
+        for (String suggestion : suggestions) {
+            suggestionModel.addElement(suggestion);
+        }
+        suggestionList.setVisibleRowCount(Math.min(suggestions.size(), SUGGESTION_LIMIT));
+        Point location = searchField.getLocationOnScreen();
+        suggestionWindow.setLocation(location.x, location.y + searchField.getHeight());
+        suggestionWindow.pack();
+        suggestionWindow.setSize(Math.max(searchField.getWidth(), suggestionWindow.getWidth()),
+                suggestionWindow.getHeight());
+        suggestionWindow.setVisible(true);
+    }
+
+    private void hideSuggestions() {
+        suggestionTimer.stop();
+        suggestionWindow.setVisible(false);
+        suggestionList.clearSelection();
+    }
+
+    private void applySuggestion(String suggestion) {
+        applyingSuggestion = true;
+        try {
+            searchField.setText(suggestion);
+        } finally {
+            applyingSuggestion = false;
+        }
+        hideSuggestions();
+    }
+
     private void updateStatus(String message) {
         SwingUtilities.invokeLater(() -> statusLabel.setText("Status: " + message));
         log.info("Status update: {}", message);
@@ -204,42 +419,135 @@ public class MainForm extends JFrame {
         if (query.isEmpty()) {
             // Optionally clear results or show all online files
             updateStatus("Enter a search term.");
-            // tableModel.setFiles(new ArrayList<>()); // Clear table
+            // tableModel.clear();
             return;
         }
 
+        hideSuggestions();
+        if (currentSuggestion != null) {
+            currentSuggestion.cancel(true);
+            currentSuggestion = null;
+        }
+        // A new query starts unfiltered; repeating the same one keeps the filters
+        if (!query.equals(facetQuery)) {
+            facetQuery = query;
+            facetPanel.clear();
+        }
+        runSearch(query, facetPanel.getSelection());
+    }
+
+    /**
+     * Streams the results of a query into the table and fetches its facet
+     * counts alongside.
+     */
+    private void runSearch(String query, FacetSelection selection) {
+        // Drop any search still in flight; its results would be stale
+        cancelCurrentSearch("starting '" + query + "'");
+
         updateStatus("Searching for '" + query + "'...");
         showOverallProgress(true, "Searching...");
+        tableModel.clear();
+
+        // Results are appended page by page as they arrive. Own files are excluded.
+        // Batches are delivered via invokeLater, so they run after currentSearch is set below
+        AtomicReference<CompletableFuture<Long>> searchRef = new AtomicReference<>();
+        CompletableFuture<Long> search = solrManager.searchFilesStreaming(query, clientManager.getUsername(),
+                selection, batch -> SwingUtilities.invokeLater(() -> {
+                    if (searchRef.get() != currentSearch) {
+                        return; // Cancelled or superseded
+                    }
+                    tableModel.appendFiles(batch);
+                    updateStatus("Found " + tableModel.getRowCount() + " file(s) so far for '" + query + "'...");
+                }));
+        searchRef.set(search);
+        currentSearch = search;
+        currentSearchQuery = query;
+        requestFacets(query, selection);
+        search.whenComplete((total, error) -> SwingUtilities.invokeLater(() -> {
+            if (search != currentSearch) {
+                return; // Superseded by a newer search
+            }
+            currentSearch = null;
+            currentSearchQuery = null;
+            showOverallProgress(false, "Idle");
+            if (search.isCancelled()) {
+                return;
+            }
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error;
+                log.error("Search failed for query: {}", query, cause);
+                updateStatus("Search failed: " + cause.getMessage());
+                JOptionPane.showMessageDialog(MainForm.this,
+                        "Search failed: " + cause.getMessage(),
+                        "Search Error", JOptionPane.ERROR_MESSAGE);
+                tableModel.clear(); // Clear table on error
+                return;
+            }
+            updateStatus("Found " + tableModel.getRowCount() + " file(s) for '" + query + "'.");
+            setColumnWidths(); // Re-apply widths after data changes
+        }));
+    }
+
+    private void requestFacets(String query, FacetSelection selection) {
+        CompletableFuture<SearchFacets> request = solrManager.getSearchFacetsAsync(query,
+                clientManager.getUsername(), selection);
+        currentFacets = request;
+        request.whenComplete((facets, error) -> SwingUtilities.invokeLater(() -> {
+            if (request != currentFacets) {
+                return; // Cancelled or superseded
+            }
+            currentFacets = null;
+            if (error != null) {
+                log.warn("Facet counts for '{}' failed: {}", query, error.getMessage());
+                return;
+            }
+            facetPanel.setFacets(facets, selection);
+        }));
+    }
 
-        SwingWorker<List<FileMetaData>, Void> worker = new SwingWorker<>() {
+    /**
+     * Cancels the search in flight, if any. Must be called on the EDT.
+     *
+     * @param reason Why the search is being cancelled (for logging)
+     */
+    private void cancelCurrentSearch(String reason) {
+        if (currentFacets != null) {
+            currentFacets.cancel(true);
+            currentFacets = null;
+        }
+        CompletableFuture<Long> search = currentSearch;
+        if (search != null && !search.isDone()) {
+            log.debug("Cancelling search for '{}': {}", currentSearchQuery, reason);
+            search.cancel(true);
+            updateStatus("Search cancelled.");
+        }
+    }
+
+    private void toggleLiveSync(boolean enable) {
+        liveSyncCheckBox.setEnabled(false);
+        SwingWorker<Void, Void> worker = new SwingWorker<>() {
             @Override
-            protected List<FileMetaData> doInBackground() throws Exception {
-                try {
-                    return solrManager.searchFiles(query, clientManager.getUsername()); // Exclude own files from search
-                                                                                        // results
-                } catch (Exception e) {
-                    log.error("Search failed for query: {}", query, e);
-                    throw e; // Propagate to done()
+            protected Void doInBackground() throws Exception {
+                if (enable) {
+                    clientManager.startLiveSync(solrManager);
+                } else {
+                    clientManager.stopLiveSync();
                 }
+                return null;
             }
 
             @Override
             protected void done() {
+                liveSyncCheckBox.setEnabled(true);
                 try {
-                    List<FileMetaData> results = get(); // Get results or exception
-                    SwingUtilities.invokeLater(() -> {
-                        tableModel.setFiles(results);
-                        updateStatus("Found " + results.size() + " file(s) for '" + query + "'.");
-                        setColumnWidths(); // Re-apply widths after data changes
-                    });
+                    get();
+                    updateStatus(enable ? "Live sync enabled." : "Live sync disabled.");
                 } catch (Exception e) {
-                    updateStatus("Search failed: " + e.getMessage());
-                    JOptionPane.showMessageDialog(MainForm.this,
-                            "Search failed: " + e.getMessage(),
-                            "Search Error", JOptionPane.ERROR_MESSAGE);
-                    SwingUtilities.invokeLater(() -> tableModel.setFiles(new ArrayList<>())); // Clear table on error
-                } finally {
-                    showOverallProgress(false, "Idle");
+                    log.error("Failed to {} live sync", enable ? "start" : "stop", e);
+                    liveSyncCheckBox.setSelected(clientManager.isLiveSyncRunning());
+                    updateStatus("Live sync could not be started: " + e.getMessage());
                 }
             }
         };
@@ -250,11 +558,12 @@ public class MainForm extends JFrame {
         updateStatus("Starting file synchronization...");
         showOverallProgress(true, "Synchronizing...");
 
-        SwingWorker<Void, Void> worker = new SwingWorker<>() {
+        SwingWorker<Void, String> worker = new SwingWorker<>() {
             @Override
             protected Void doInBackground() throws Exception {
                 try {
-                    clientManager.synchronizeFiles(solrManager);
+                    clientManager.synchronizeFiles(solrManager, (scanned, sent, acknowledged) -> publish(
+                            String.format("Synchronizing: %,d files, %,d/%,d updates", scanned, acknowledged, sent)));
                 } catch (Exception e) {
                     log.error("Synchronization failed", e);
                     throw e;
@@ -262,6 +571,12 @@ public class MainForm extends JFrame {
                 return null;
             }
 
+            @Override
+            protected void process(List<String> chunks) {
+                // Only the latest progress matters
+                overallProgressBar.setString(chunks.get(chunks.size() - 1));
+            }
+
             @Override
             protected void done() {
                 showOverallProgress(false, "Idle");
@@ -339,7 +654,7 @@ public class MainForm extends JFrame {
         fileClient.downloadFile(
                 fileToDownload.getOwnerIp(),
                 fileToDownload.getOwnerPort(),
-                fileToDownload.getFilename(), // Request filename
+                fileToDownload.getRelativePath(), // Request path under the owner's publish directory
                 downloadPath,
                 fileToDownload.getSize(), // Provide expected size for progress calculation
                 new ProgressListener() {
@@ -556,6 +871,9 @@ public class MainForm extends JFrame {
                         Thread.sleep(2000); // Simple delay, replace with actual waiting if needed
                     }
 
+                    clientManager.stopLiveSync();
+                    clientManager.stopPresence();
+
                     publish("Removing all files from index...");
                     if (solrManager != null) {
                         try {
@@ -578,10 +896,10 @@ public class MainForm extends JFrame {
                         fileClient.shutdown(); // Shuts down the executor service
                     }
 
-                    publish("Disconnecting from Solr...");
+                    publish("Flushing pending index updates and disconnecting from Solr...");
                     if (solrManager != null) {
                         try {
-                            solrManager.disconnect();
+                            solrManager.shutdown();
                         } catch (Exception e) {
                             publish("ERROR: Problem disconnecting from Solr: " + e.getMessage());
                             log.error("Error during Solr disconnect: {}", e.getMessage(), e);
@@ -0,0 +1,95 @@
+package com.mycompany.napsterclone.ui;
+
+import com.mycompany.napsterclone.model.FilenameSuggestions;
+import com.mycompany.napsterclone.util.FilenameTokens;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small LRU cache of type-ahead suggestions, keyed by the normalized text
+ * typed. A list Solr reported complete holds every match for its prefix, so
+ * suggestions for anything typed after it are filtered locally without asking
+ * Solr. Only used on the EDT.
+ */
+class SuggestionCache {
+    private static final class CachedSuggestions {
+        final FilenameSuggestions suggestions;
+        final long expiresAtNanos;
+
+        CachedSuggestions(FilenameSuggestions suggestions, long expiresAtNanos) {
+            this.suggestions = suggestions;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private final long ttlNanos;
+    private final LinkedHashMap<String, CachedSuggestions> entries;
+
+    /**
+     * @param maxEntries Number of prefixes kept
+     * @param ttlMillis  How long fetched suggestions stay valid
+     */
+    SuggestionCache(int maxEntries, long ttlMillis) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedSuggestions> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return The suggestions for the text, from an exact entry or by filtering
+     *         a complete entry for a shorter prefix, or null if Solr must be
+     *         asked
+     */
+    List<String> get(String text) {
+        String key = key(text);
+        long now = System.nanoTime();
+        for (int length = key.length(); length > 0; length--) {
+            String candidate = key.substring(0, length);
+            CachedSuggestions entry = entries.get(candidate);
+            if (entry == null) {
+                continue;
+            }
+            if (now - entry.expiresAtNanos >= 0) {
+                entries.remove(candidate);
+                continue;
+            }
+            if (length == key.length()) {
+                return entry.suggestions.getFilenames();
+            }
+            // Every match for the longer text also matches this shorter prefix
+            if (entry.suggestions.isComplete()) {
+                List<String> prefixes = FilenameTokens.tokenize(key);
+                List<String> narrowed = new ArrayList<>();
+                for (String suggestion : entry.suggestions.getFilenames()) {
+                    if (FilenameTokens.matchesAllPrefixes(suggestion, prefixes)) {
+                        narrowed.add(suggestion);
+                    }
+                }
+                entries.put(key, new CachedSuggestions(new FilenameSuggestions(narrowed, true),
+                        entry.expiresAtNanos));
+                return narrowed;
+            }
+        }
+        return null;
+    }
+
+    void put(String text, FilenameSuggestions suggestions) {
+        entries.put(key(text), new CachedSuggestions(suggestions, System.nanoTime() + ttlNanos));
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    private static String key(String text) {
+        return String.join(" ", FilenameTokens.tokenize(text));
+    }
+}
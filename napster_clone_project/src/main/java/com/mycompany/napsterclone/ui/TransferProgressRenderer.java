@@ -6,6 +6,7 @@ import java.awt.*;
 
 // --- NOT CURRENTLY USED --- Example of rendering progress in a table cell
 public class TransferProgressRenderer extends JProgressBar implements TableCellRenderer {
+    private static final long serialVersionUID = 1L;
 
     public TransferProgressRenderer() {
         super(0, 100);
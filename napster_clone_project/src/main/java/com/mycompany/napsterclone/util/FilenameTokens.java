@@ -0,0 +1,57 @@
+package com.mycompany.napsterclone.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+public class FilenameTokens {
+
+    // Must match the tokenizer of the text_prefix field type in the Solr schema
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /**
+     * Splits text into lowercase words the same way the filename_prefix field
+     * is analyzed, e.g. "My_Song (Live).mp3" becomes [my, song, live, mp3].
+     *
+     * @param text The text to split.
+     * @return The words, possibly empty.
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : SEPARATORS.split(text.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Checks whether every prefix starts some word of the filename, which is how
+     * a type-ahead query against filename_prefix matches.
+     *
+     * @param filename The filename to test.
+     * @param prefixes Lowercase prefixes, as returned by {@link #tokenize}.
+     * @return true if the filename would match a query for those prefixes.
+     */
+    public static boolean matchesAllPrefixes(String filename, List<String> prefixes) {
+        List<String> words = tokenize(filename);
+        for (String prefix : prefixes) {
+            boolean found = false;
+            for (String word : words) {
+                if (word.startsWith(prefix)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
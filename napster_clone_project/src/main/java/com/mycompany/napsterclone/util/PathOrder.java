@@ -0,0 +1,54 @@
+package com.mycompany.napsterclone.util;
+
+import java.util.Comparator;
+
+public class PathOrder {
+
+    /**
+     * Orders relative paths by Unicode code point, which is how Solr sorts
+     * string fields such as path_s (by their UTF-8 bytes). String.compareTo
+     * differs for characters above U+FFFF, which it sees as surrogate pairs.
+     */
+    public static final Comparator<String> COMPARATOR = PathOrder::compare;
+
+    // Sorts after every path starting with the same prefix
+    private static final String MAX_CODE_POINT = new String(Character.toChars(Character.MAX_CODE_POINT));
+
+    /**
+     * Compares two strings by code point.
+     *
+     * @return A negative number, zero or a positive number as a sorts before,
+     *         with or after b.
+     */
+    public static int compare(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(i);
+            if (ca != cb) {
+                if (ca >= Character.MIN_SURROGATE && cb >= Character.MIN_SURROGATE) {
+                    // Move surrogates above U+E000..U+FFFF, where their code points are
+                    ca = fixUp(ca);
+                    cb = fixUp(cb);
+                }
+                return ca - cb;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    /**
+     * Returns a string that sorts after every path starting with the prefix and
+     * before any other path that sorts after it, as the exclusive end of a range
+     * covering a directory's contents.
+     *
+     * @param prefix A path prefix, e.g. "music/".
+     */
+    public static String endOfPrefix(String prefix) {
+        return prefix + MAX_CODE_POINT;
+    }
+
+    private static char fixUp(char c) {
+        return (char) (c >= 0xE000 ? c - 0x800 : c + 0x2000);
+    }
+}
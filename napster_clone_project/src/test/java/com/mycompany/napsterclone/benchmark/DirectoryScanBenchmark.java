@@ -0,0 +1,159 @@
+package com.mycompany.napsterclone.benchmark;
+
+import com.mycompany.napsterclone.client.ParallelDirectoryScanner;
+import com.mycompany.napsterclone.model.FileMetaData;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares the single-threaded {@link Files#walkFileTree} scan the client used
+ * to do with {@link ParallelDirectoryScanner} at several parallelism levels,
+ * both unordered and in path order as the sync uses it. All variants build
+ * the FileMetaData the sync needs, so the numbers include that work; the
+ * ordered scan hands them on one at a time instead of collecting them.
+ * Prints to stdout.
+ * <p>
+ * A synthetic tree of empty files, nested like a music library, is created
+ * under the given root on the first run and reused afterwards. Point the root
+ * at a network mount to see the difference on a NAS; on a local disk the
+ * directory cache makes every run after the first one a pure CPU test.
+ *
+ * <pre>
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.mycompany.napsterclone.benchmark.DirectoryScanBenchmark \
+ *     -Dexec.args="[root] [fileCount] [filesPerDirectory]"
+ * </pre>
+ */
+public class DirectoryScanBenchmark {
+    private static final String DEFAULT_ROOT = System.getProperty("java.io.tmpdir") + "/napster-scan-bench";
+    private static final int DEFAULT_FILE_COUNT = 1_000_000;
+    private static final int DEFAULT_FILES_PER_DIRECTORY = 50;
+    private static final int DIRECTORIES_PER_PARENT = 20;
+    private static final int[] PARALLELISM_LEVELS = { 1, 4, 16, 64 };
+    private static final int ROUNDS = 3;
+    private static final String OWNER = "benchmark-user";
+    private static final String COMPLETE_MARKER = ".complete";
+
+    private interface Scan {
+        int run(Path root) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path root = Paths.get(args.length > 0 ? args[0] : DEFAULT_ROOT);
+        int fileCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_FILE_COUNT;
+        int filesPerDirectory = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_FILES_PER_DIRECTORY;
+
+        Path tree = root.resolve(fileCount + "-" + filesPerDirectory);
+        if (!Files.exists(tree.resolve(COMPLETE_MARKER))) {
+            System.out.printf("Creating %,d files in %s...%n", fileCount, tree);
+            long started = System.nanoTime();
+            createTree(tree, fileCount, filesPerDirectory);
+            System.out.printf("Created in %,d ms%n", (System.nanoTime() - started) / 1_000_000);
+        }
+
+        System.out.printf("Scanning %,d files in %s, best of %d rounds%n", fileCount, tree, ROUNDS);
+        measure("walkFileTree", tree, fileCount, DirectoryScanBenchmark::walkFileTree);
+        for (int parallelism : PARALLELISM_LEVELS) {
+            measure("parallel x" + parallelism, tree, fileCount, t -> parallelScan(t, parallelism));
+        }
+        for (int parallelism : PARALLELISM_LEVELS) {
+            measure("ordered x" + parallelism, tree, fileCount, t -> orderedScan(t, parallelism));
+        }
+    }
+
+    private static void measure(String name, Path tree, int expectedFiles, Scan scan) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long started = System.nanoTime();
+            int found = scan.run(tree);
+            best = Math.min(best, System.nanoTime() - started);
+            if (found != expectedFiles) {
+                throw new IllegalStateException(name + " found " + found + " files, expected " + expectedFiles);
+            }
+        }
+        System.out.printf("%-16s best %,8d ms  %,12.0f files/s%n", name, best / 1_000_000,
+                expectedFiles / (best / 1e9));
+    }
+
+    /**
+     * The scan as it was before the parallel scanner.
+     */
+    private static int walkFileTree(Path tree) throws IOException {
+        Set<FileMetaData> files = new HashSet<>();
+        Files.walkFileTree(tree, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !file.getFileName().toString().equals(COMPLETE_MARKER)) {
+                    String relativePath = tree.relativize(file).toString().replace('\\', '/');
+                    files.add(new FileMetaData(file.getFileName().toString(), relativePath, attrs.size(),
+                            attrs.lastModifiedTime().toMillis(), OWNER));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files.size();
+    }
+
+    private static int parallelScan(Path tree, int parallelism) {
+        Map<String, FileMetaData> files = new ConcurrentHashMap<>();
+        new ParallelDirectoryScanner(parallelism).scan(tree, (relativePath, file, attrs) -> {
+            if (!relativePath.equals(COMPLETE_MARKER)) {
+                files.put(relativePath, new FileMetaData(file.getFileName().toString(), relativePath,
+                        attrs.size(), attrs.lastModifiedTime().toMillis(), OWNER));
+            }
+        });
+        return files.size();
+    }
+
+    private static int orderedScan(Path tree, int parallelism) {
+        int count = 0;
+        long sizes = 0;
+        try (ParallelDirectoryScanner.OrderedScan scan = new ParallelDirectoryScanner(parallelism)
+                .scanInPathOrder(tree)) {
+            while (scan.hasNext()) {
+                ParallelDirectoryScanner.ScannedFile file = scan.next();
+                if (!file.getRelativePath().equals(COMPLETE_MARKER)) {
+                    FileMetaData metaData = new FileMetaData(file.getFile().getFileName().toString(),
+                            file.getRelativePath(), file.getAttributes().size(),
+                            file.getAttributes().lastModifiedTime().toMillis(), OWNER);
+                    sizes += metaData.getSize();
+                    count++;
+                }
+            }
+        }
+        return sizes >= 0 ? count : -1;
+    }
+
+    /**
+     * Creates fileCount empty files, filesPerDirectory to a leaf directory, with
+     * DIRECTORIES_PER_PARENT leaves per parent, e.g.
+     * "Artist 0003/Album 07/Track 0012.mp3".
+     */
+    private static void createTree(Path tree, int fileCount, int filesPerDirectory) throws IOException {
+        for (int i = 0; i < fileCount; i++) {
+            int leaf = i / filesPerDirectory;
+            Path directory = tree.resolve(String.format("Artist %04d", leaf / DIRECTORIES_PER_PARENT))
+                    .resolve(String.format("Album %02d", leaf % DIRECTORIES_PER_PARENT));
+            if (i % filesPerDirectory == 0) {
+                Files.createDirectories(directory);
+            }
+            try {
+                Files.createFile(directory.resolve(String.format("Track %04d.mp3", i % filesPerDirectory)));
+            } catch (FileAlreadyExistsException e) {
+                // Left by an interrupted run
+            }
+        }
+        Files.createFile(tree.resolve(COMPLETE_MARKER));
+    }
+}
@@ -0,0 +1,85 @@
+package com.mycompany.napsterclone.benchmark;
+
+import com.mycompany.napsterclone.solr.FileDocIds;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * Measures file document ID generation for a large synthetic library and counts
+ * ID collisions, comparing the path-based scheme with the old 32-bit filename
+ * hash. Prints to stdout; no Solr is needed.
+ *
+ * <pre>
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.mycompany.napsterclone.benchmark.FileDocIdBenchmark \
+ *     -Dexec.args="[fileCount]"
+ * </pre>
+ */
+public class FileDocIdBenchmark {
+    private static final int DEFAULT_FILE_COUNT = 1_000_000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final String OWNER = "benchmark-user";
+
+    public static void main(String[] args) {
+        int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FILE_COUNT;
+        String[] paths = syntheticPaths(fileCount);
+        System.out.printf("Generating IDs for %,d files (%d warm-up, %d measured rounds)%n",
+                fileCount, WARMUP_ROUNDS, MEASURED_ROUNDS);
+
+        run("path-based 128-bit", paths, FileDocIds::forFile);
+        run("legacy 32-bit", paths, (owner, path) -> FileDocIds.legacyForFile(owner, fileName(path)));
+    }
+
+    private static void run(String scheme, String[] paths, BiFunction<String, String, String> idFunction) {
+        long sink = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            sink += generateAll(paths, idFunction);
+        }
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long started = System.nanoTime();
+            sink += generateAll(paths, idFunction);
+            best = Math.min(best, System.nanoTime() - started);
+        }
+
+        Set<String> ids = new HashSet<>(paths.length * 2);
+        for (String path : paths) {
+            ids.add(idFunction.apply(OWNER, path));
+        }
+        int collisions = paths.length - ids.size();
+
+        System.out.printf("%-20s best %,8.1f ms total, %6.1f ns/ID, %,d collisions (checksum %d)%n",
+                scheme, best / 1e6, (double) best / paths.length, collisions, sink);
+    }
+
+    private static long generateAll(String[] paths, BiFunction<String, String, String> idFunction) {
+        long length = 0;
+        for (String path : paths) {
+            length += idFunction.apply(OWNER, path).length();
+        }
+        return length;
+    }
+
+    /**
+     * Builds paths shaped like a music library with unique filenames, e.g.
+     * "Artist 0042/Album 07/0008403 Track 03.mp3", so any legacy collision is a
+     * hash collision rather than the same name in two folders.
+     */
+    private static String[] syntheticPaths(int count) {
+        String[] paths = new String[count];
+        for (int i = 0; i < count; i++) {
+            int track = i % 20;
+            int album = (i / 20) % 10;
+            int artist = i / 200;
+            paths[i] = String.format("Artist %04d/Album %02d/%07d Track %02d.mp3", artist, album, i, track);
+        }
+        return paths;
+    }
+
+    private static String fileName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+}
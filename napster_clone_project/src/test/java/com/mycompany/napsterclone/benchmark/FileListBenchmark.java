@@ -0,0 +1,117 @@
+package com.mycompany.napsterclone.benchmark;
+
+import com.mycompany.napsterclone.model.FileList;
+import com.mycompany.napsterclone.model.FileMetaData;
+import com.mycompany.napsterclone.solr.FileDocIds;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the heap retained by search results held as a list of FileMetaData,
+ * as they were before, with the same results in a {@link FileList}, and the
+ * time to build each and to read every row the way the results table does.
+ * Owner names are copied per file, as each Solr document carries its own.
+ * Prints to stdout; run with a fixed heap (e.g. -Xms2g -Xmx2g) for steadier
+ * numbers.
+ *
+ * <pre>
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.mycompany.napsterclone.benchmark.FileListBenchmark \
+ *     -Dexec.args="[fileCount] [owners]"
+ * </pre>
+ */
+public class FileListBenchmark {
+    private static final int DEFAULT_FILE_COUNT = 1_000_000;
+    private static final int DEFAULT_OWNERS = 200;
+    private static final int ROUNDS = 3;
+
+    private interface Build {
+        List<FileMetaData> run(int fileCount, int owners);
+    }
+
+    public static void main(String[] args) {
+        int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FILE_COUNT;
+        int owners = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_OWNERS;
+
+        System.out.printf("%,d results from %,d owners, best of %d rounds%n", fileCount, owners, ROUNDS);
+        measure("FileMetaData list", fileCount, owners, FileListBenchmark::objectList);
+        measure("FileList", fileCount, owners, FileListBenchmark::fileList);
+    }
+
+    private static void measure(String name, int fileCount, int owners, Build build) {
+        long bestBuild = Long.MAX_VALUE;
+        long bestRead = Long.MAX_VALUE;
+        long retained = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = usedHeap();
+            long started = System.nanoTime();
+            List<FileMetaData> files = build.run(fileCount, owners);
+            bestBuild = Math.min(bestBuild, System.nanoTime() - started);
+            retained = usedHeap() - before;
+
+            started = System.nanoTime();
+            long checksum = readAll(files);
+            bestRead = Math.min(bestRead, System.nanoTime() - started);
+            if (checksum == 42) {
+                System.out.println(); // Keeps the reads from being optimized away
+            }
+        }
+        System.out.printf("%-18s retained %,6d MB (%,4d bytes/file)  build %,6d ms  read %,6d ms%n", name,
+                retained >> 20, retained / fileCount, bestBuild / 1_000_000, bestRead / 1_000_000);
+    }
+
+    private static List<FileMetaData> objectList(int fileCount, int owners) {
+        List<FileMetaData> files = new ArrayList<>(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+            files.add(result(i, owners));
+        }
+        return files;
+    }
+
+    private static List<FileMetaData> fileList(int fileCount, int owners) {
+        FileList files = new FileList(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+            files.add(result(i, owners));
+        }
+        return files;
+    }
+
+    private static FileMetaData result(int i, int owners) {
+        int owner = i % owners;
+        String username = new String("peer-" + owner);
+        String relativePath = String.format("Artist %04d/Album %02d/Track %04d.mp3", i / 1000, (i / 50) % 20,
+                i % 50);
+        return new FileMetaData(FileDocIds.forFile(username, relativePath),
+                relativePath.substring(relativePath.lastIndexOf('/') + 1), relativePath, 3_000_000L + i,
+                1_700_000_000_000L + i, username, "10.0." + (owner / 250) + "." + (owner % 250), 6000 + owner);
+    }
+
+    /**
+     * Reads the columns the results table shows.
+     */
+    private static long readAll(List<FileMetaData> files) {
+        long checksum = 0;
+        if (files instanceof FileList) {
+            FileList fileList = (FileList) files;
+            for (int i = 0; i < fileList.size(); i++) {
+                checksum += fileList.getFilename(i).length() + fileList.getSize(i)
+                        + fileList.getOwnerUsername(i).length() + fileList.getOwnerPort(i);
+            }
+        } else {
+            for (FileMetaData file : files) {
+                checksum += file.getFilename().length() + file.getSize() + file.getOwnerUsername().length()
+                        + file.getOwnerPort();
+            }
+        }
+        return checksum;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,213 @@
+package com.mycompany.napsterclone.benchmark;
+
+import com.mycompany.napsterclone.model.FileMetaData;
+import com.mycompany.napsterclone.model.UpdateOperation;
+import com.mycompany.napsterclone.solr.EmbeddedSolr;
+import com.mycompany.napsterclone.solr.SolrClientManager;
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks the index layer through {@link SolrClientManager}: loads synthetic
+ * peers and files into an {@link EmbeddedSolr} core, then reports latency percentiles and
+ * the calling thread's allocation for applyFileUpdates, searchFiles,
+ * findFilesByUser and removeUserFiles. Prints to stdout.
+ * <p>
+ * The core has the schema of the performance profile and is kept in memory,
+ * so the numbers leave out disk I/O and the network:
+ *
+ * <pre>
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test -Dexec.cleanupDaemonThreads=false \
+ *     -Dexec.mainClass=com.mycompany.napsterclone.benchmark.IndexBenchmark \
+ *     -Dexec.args="[peers] [filesPerPeer] [iterations]"
+ * </pre>
+ */
+public class IndexBenchmark {
+    private static final int DEFAULT_PEERS = 50;
+    private static final int DEFAULT_FILES_PER_PEER = 2000;
+    private static final int DEFAULT_ITERATIONS = 200;
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int UPDATE_BATCH_SIZE = 500;
+    private static final long VISIBILITY_TIMEOUT_MS = 60000;
+    private static final long SEED = 42;
+
+    private static final String PEER_PREFIX = "bench-peer-";
+    private static final String SEARCHER = "bench-searcher";
+    private static final String[] WORDS = { "love", "night", "live", "remix", "dance", "blue", "rain", "summer",
+            "heart", "fire", "dream", "city", "road", "home", "light", "moon", "river", "story", "wild", "gold" };
+    private static final String[] EXTENSIONS = { "mp3", "mp3", "mp3", "flac", "ogg", "wav", "mp4", "pdf" };
+
+    private static final ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Latency and allocation samples of one operation.
+     */
+    private static final class Samples {
+        final String name;
+        final List<Long> nanos = new ArrayList<>();
+        long allocatedBytes = 0;
+        long totalNanos = 0;
+
+        Samples(String name) {
+            this.name = name;
+        }
+
+        void print() {
+            long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+            if (sorted.length == 0) {
+                System.out.printf("%-18s no samples%n", name);
+                return;
+            }
+            System.out.printf("%-18s n=%-6d p50 %8.2f ms  p90 %8.2f ms  p99 %8.2f ms  max %8.2f ms  "
+                    + "%,10d B/op  %8.1f MB/s%n",
+                    name, sorted.length, millis(percentile(sorted, 0.50)), millis(percentile(sorted, 0.90)),
+                    millis(percentile(sorted, 0.99)), millis(sorted[sorted.length - 1]),
+                    allocatedBytes / sorted.length,
+                    totalNanos == 0 ? 0.0 : allocatedBytes / (1024.0 * 1024.0) / (totalNanos / 1e9));
+        }
+
+        private static long percentile(long[] sorted, double p) {
+            return sorted[Math.max(0, (int) Math.ceil(p * sorted.length) - 1)];
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+
+    private interface Call {
+        void run() throws Exception;
+    }
+
+    private interface Operation {
+        void run(int iteration) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int peers = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PEERS;
+        int filesPerPeer = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_FILES_PER_PEER;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ITERATIONS;
+
+        try (EmbeddedSolr solr = new EmbeddedSolr()) {
+            SolrClientManager solrManager = new SolrClientManager(new String[] { solr.getCoreUrl() });
+            try {
+                solrManager.connect();
+                System.out.printf("Index benchmark against %s: %d peers x %,d files, %d iterations%n",
+                        solr.getCoreUrl(), peers, filesPerPeer, iterations);
+                run(solrManager, peers, filesPerPeer, iterations);
+            } finally {
+                solrManager.shutdown();
+            }
+        }
+    }
+
+    private static void run(SolrClientManager solrManager, int peers, int filesPerPeer, int iterations)
+            throws Exception {
+        Random random = new Random(SEED);
+
+        // Load: every peer registers and publishes its files in batches, each
+        // batch being one applyFileUpdates sample
+        Samples apply = new Samples("applyFileUpdates");
+        for (int p = 0; p < peers; p++) {
+            String peer = PEER_PREFIX + p;
+            solrManager.registerUser(peer, "127.0.0.1", 7000 + p);
+            List<FileMetaData> files = syntheticFiles(peer, filesPerPeer, random);
+            for (int from = 0; from < files.size(); from += UPDATE_BATCH_SIZE) {
+                List<UpdateOperation> batch = new ArrayList<>();
+                for (FileMetaData file : files.subList(from, Math.min(files.size(), from + UPDATE_BATCH_SIZE))) {
+                    batch.add(new UpdateOperation(UpdateOperation.Type.ADD, file));
+                }
+                measure(apply, () -> solrManager.applyFileUpdates(peer, batch));
+            }
+        }
+        awaitVisible(solrManager, PEER_PREFIX + (peers - 1), filesPerPeer);
+
+        // Leases are 90 seconds; renew them so every peer counts as online
+        for (int p = 0; p < peers; p++) {
+            solrManager.heartbeat(PEER_PREFIX + p);
+        }
+
+        Samples search = new Samples("searchFiles");
+        repeat(search, iterations, i -> {
+            solrManager.invalidateSearchCache(); // Measure Solr, not the client-side cache
+            solrManager.searchFiles(WORDS[i % WORDS.length] + " " + WORDS[(i / WORDS.length) % WORDS.length],
+                    SEARCHER);
+        });
+
+        Samples find = new Samples("findFilesByUser");
+        repeat(find, Math.min(iterations, peers * 4), i -> {
+            List<FileMetaData> files = solrManager.findFilesByUser(PEER_PREFIX + (i % peers));
+            if (files.isEmpty()) {
+                throw new IllegalStateException("No files indexed for " + PEER_PREFIX + (i % peers));
+            }
+        });
+
+        Samples remove = new Samples("removeUserFiles");
+        for (int p = 0; p < peers; p++) {
+            String peer = PEER_PREFIX + p;
+            measure(remove, () -> solrManager.removeUserFiles(peer));
+            solrManager.setUserStatus(peer, false);
+        }
+
+        System.out.println();
+        apply.print();
+        search.print();
+        find.print();
+        remove.print();
+        System.out.println("Allocation counts the calling thread only; Solr client I/O threads are not included.");
+    }
+
+    private static void repeat(Samples samples, int iterations, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.run(i);
+        }
+        for (int i = 0; i < iterations; i++) {
+            int iteration = WARMUP_ITERATIONS + i;
+            measure(samples, () -> operation.run(iteration));
+        }
+    }
+
+    private static void measure(Samples samples, Call call) throws Exception {
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long started = System.nanoTime();
+        call.run();
+        long elapsed = System.nanoTime() - started;
+        samples.allocatedBytes += threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        samples.totalNanos += elapsed;
+        samples.nanos.add(elapsed);
+    }
+
+    /**
+     * Waits for commitWithin to make the last peer's files searchable.
+     */
+    private static void awaitVisible(SolrClientManager solrManager, String peer, int expectedFiles)
+            throws Exception {
+        long deadline = System.currentTimeMillis() + VISIBILITY_TIMEOUT_MS;
+        while (solrManager.findFilesByUser(peer).size() < expectedFiles) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Files of " + peer + " did not become visible in time");
+            }
+            Thread.sleep(500);
+        }
+    }
+
+    private static List<FileMetaData> syntheticFiles(String owner, int count, Random random) {
+        List<FileMetaData> files = new ArrayList<>(count);
+        for (int f = 0; f < count; f++) {
+            String extension = EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+            String filename = String.join(" ", Arrays.asList(WORDS[random.nextInt(WORDS.length)],
+                    WORDS[random.nextInt(WORDS.length)], WORDS[random.nextInt(WORDS.length)])) + " " + f + "."
+                    + extension;
+            String relativePath = "album " + random.nextInt(100) + "/" + filename;
+            long size = (long) Math.exp(8 + random.nextDouble() * 13);
+            files.add(new FileMetaData(filename, relativePath, size, owner));
+        }
+        return files;
+    }
+}
@@ -0,0 +1,133 @@
+package com.mycompany.napsterclone.benchmark;
+
+import com.mycompany.napsterclone.client.SharingRules;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Measures what checking files against {@link SharingRules} adds to a scan:
+ * the time to decide on every file of a synthetic library, nested like the one
+ * {@link DirectoryScanBenchmark} creates and with some temporary files mixed
+ * in, for rule sets from none to a few globs that need regular expressions.
+ * Only the checks are timed; the directories are checked once per directory
+ * as during a scan. Prints to stdout.
+ *
+ * <pre>
+ * mvn -q test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.mycompany.napsterclone.benchmark.SharingRulesBenchmark \
+ *     -Dexec.args="[fileCount]"
+ * </pre>
+ */
+public class SharingRulesBenchmark {
+    private static final int DEFAULT_FILE_COUNT = 1_000_000;
+    private static final int FILES_PER_DIRECTORY = 50;
+    private static final int DIRECTORIES_PER_PARENT = 20;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FILE_COUNT;
+        String[] directories = new String[(fileCount + FILES_PER_DIRECTORY - 1) / FILES_PER_DIRECTORY];
+        String[] names = new String[fileCount];
+        String[] paths = new String[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            int leaf = i / FILES_PER_DIRECTORY;
+            if (i % FILES_PER_DIRECTORY == 0) {
+                directories[leaf] = String.format("Artist %04d/Album %02d", leaf / DIRECTORIES_PER_PARENT,
+                        leaf % DIRECTORIES_PER_PARENT);
+            }
+            names[i] = i % 100 == 99 ? String.format("Track %04d.mp3.part", i % FILES_PER_DIRECTORY)
+                    : String.format("Track %04d.mp3", i % FILES_PER_DIRECTORY);
+            paths[i] = directories[leaf] + "/" + names[i];
+        }
+        BasicFileAttributes attrs = new Attributes(3_000_000L);
+
+        System.out.printf("%,d files in %,d directories, best of %d rounds%n", fileCount, directories.length,
+                ROUNDS);
+        measure("everything", SharingRules.EVERYTHING, directories, names, paths, attrs);
+        measure("hidden only", SharingRules.EVERYTHING.withHiddenFiles(false), directories, names, paths, attrs);
+        measure("default", SharingRules.DEFAULT, directories, names, paths, attrs);
+        measure("default + includes", SharingRules.DEFAULT.withInclude("*.mp3").withInclude("*.flac"),
+                directories, names, paths, attrs);
+        measure("default + globs", SharingRules.DEFAULT.withExclude("Artist 09*/").withExclude("**/Live/**")
+                .withExclude("*.mp3.bak").withSizeRange(1, Long.MAX_VALUE), directories, names, paths, attrs);
+    }
+
+    private static void measure(String name, SharingRules rules, String[] directories, String[] names,
+            String[] paths, BasicFileAttributes attrs) {
+        long best = Long.MAX_VALUE;
+        int shared = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long started = System.nanoTime();
+            shared = 0;
+            for (String directory : directories) {
+                if (rules.isDirectoryShared(directory, directory.substring(directory.lastIndexOf('/') + 1),
+                        attrs)) {
+                    shared++;
+                }
+            }
+            for (int i = 0; i < paths.length; i++) {
+                if (rules.isFileShared(paths[i], names[i], attrs)) {
+                    shared++;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - started);
+        }
+        System.out.printf("%-20s best %,6d ms  %,6.0f ns/file  (%,d shared)%n", name, best / 1_000_000,
+                (double) best / paths.length, shared - directories.length);
+    }
+
+    private static final class Attributes implements BasicFileAttributes {
+        private static final FileTime TIME = FileTime.fromMillis(1_700_000_000_000L);
+        private final long size;
+
+        Attributes(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return TIME;
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return TIME;
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return TIME;
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.mycompany.napsterclone.client;
+
+import com.mycompany.napsterclone.model.FileMetaData;
+import com.mycompany.napsterclone.model.UpdateOperation;
+import com.mycompany.napsterclone.solr.EmbeddedSolr;
+import com.mycompany.napsterclone.solr.SolrClientManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Synchronizes share roots with an embedded core.
+ */
+class ClientManagerTest {
+    private static final String FIRST_ROOT = "File Directory of user 1";
+    private static final String SECOND_ROOT = "X (2)";
+
+    @TempDir
+    Path dir;
+
+    private EmbeddedSolr solr;
+    private SolrClientManager solrManager;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        solr = new EmbeddedSolr();
+        solrManager = new SolrClientManager(new String[]{solr.getCoreUrl()});
+        solrManager.connect();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (solrManager != null) {
+            solrManager.shutdown();
+        }
+        if (solr != null) {
+            solr.close();
+        }
+    }
+
+    private Path share(String name, String... relativePaths) throws Exception {
+        Path root = dir.resolve("shares").resolve(name);
+        for (String relativePath : relativePaths) {
+            Path file = root.resolve(relativePath);
+            Files.createDirectories(file.getParent());
+            Files.write(file, new byte[]{1, 2, 3});
+        }
+        Files.createDirectories(root);
+        return root;
+    }
+
+    private void publish(String owner, String... relativePaths) throws Exception {
+        List<UpdateOperation> updates = new ArrayList<>();
+        for (String relativePath : relativePaths) {
+            String filename = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+            updates.add(new UpdateOperation(UpdateOperation.Type.ADD,
+                    new FileMetaData(filename, relativePath, 3, owner)));
+        }
+        solrManager.applyFileUpdates(owner, updates);
+        solr.commit();
+    }
+
+    private Set<String> publishedPaths(String owner) throws Exception {
+        solr.commit();
+        Set<String> paths = new TreeSet<>();
+        for (FileMetaData file : solrManager.findFilesByUser(owner)) {
+            paths.add(file.getRelativePath());
+        }
+        return paths;
+    }
+
+    @Test
+    void rootsWithSpacesInTheirNamesSyncTheirOwnRanges() throws Exception {
+        // Left by an earlier client: a file since deleted from each root, and
+        // one of a root that is no longer shared
+        publish("alice", FIRST_ROOT + "/deleted.mp3", SECOND_ROOT + "/deleted.mp3", "Old Root/song.mp3");
+        publish("bob", FIRST_ROOT + "/a.mp3");
+
+        List<ShareRoot> roots = List.of(
+                new ShareRoot(FIRST_ROOT, share(FIRST_ROOT, "a.mp3", "sub dir/b.mp3")),
+                new ShareRoot(SECOND_ROOT, share(SECOND_ROOT, "c.mp3")));
+        ClientManager clientManager = new ClientManager("alice", roots, SharingRules.DEFAULT,
+                dir.resolve("manifests"));
+        clientManager.synchronizeFiles(solrManager);
+
+        assertEquals(Set.of(FIRST_ROOT + "/a.mp3", FIRST_ROOT + "/sub dir/b.mp3", SECOND_ROOT + "/c.mp3"),
+                publishedPaths("alice"));
+        assertEquals(Set.of(FIRST_ROOT + "/a.mp3"), publishedPaths("bob"));
+
+        // Again from the manifests, after a file was added to the second root
+        share(SECOND_ROOT, "d e.mp3");
+        clientManager.synchronizeFiles(solrManager);
+
+        assertEquals(Set.of(FIRST_ROOT + "/a.mp3", FIRST_ROOT + "/sub dir/b.mp3", SECOND_ROOT + "/c.mp3",
+                SECOND_ROOT + "/d e.mp3"), publishedPaths("alice"));
+    }
+}
@@ -0,0 +1,218 @@
+package com.mycompany.napsterclone.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SharingRulesTest {
+
+    /**
+     * Attributes of a regular file of the given size.
+     */
+    private static final class Attrs implements BasicFileAttributes {
+        private final long size;
+
+        Attrs(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.fromMillis(0);
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return FileTime.fromMillis(0);
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return FileTime.fromMillis(0);
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+
+    private static final BasicFileAttributes FILE = new Attrs(1000);
+
+    private static boolean shared(SharingRules rules, String relativePath) {
+        return rules.isShared(relativePath, FILE);
+    }
+
+    @Test
+    void defaultsLeaveOutTemporarySystemAndHiddenFiles() {
+        SharingRules rules = SharingRules.DEFAULT;
+        assertTrue(shared(rules, "music/song.mp3"));
+        assertFalse(shared(rules, "music/song.mp3.part"));
+        assertFalse(shared(rules, "music/SONG.PART"), "globs ignore case");
+        assertFalse(shared(rules, "~$report.docx"));
+        assertFalse(shared(rules, "backup~"));
+        assertFalse(shared(rules, "photos/Thumbs.db"));
+        assertFalse(shared(rules, "photos/thumbs.DB"));
+        assertFalse(shared(rules, "$RECYCLE.BIN/song.mp3"));
+        assertFalse(shared(rules, "System Volume Information/x"));
+        assertFalse(shared(rules, ".cache/song.mp3"));
+        assertFalse(shared(rules, "music/.hidden.mp3"));
+    }
+
+    @Test
+    void everythingSharesHiddenAndTemporaryFiles() {
+        assertTrue(shared(SharingRules.EVERYTHING, ".cache/song.mp3.part"));
+        assertTrue(shared(SharingRules.EVERYTHING, "Thumbs.db"));
+    }
+
+    @Test
+    void directoryOnlyGlobsDoNotMatchFiles() {
+        SharingRules rules = SharingRules.EVERYTHING.withExclude("lost+found/");
+        assertFalse(rules.isDirectoryShared("lost+found", "lost+found", null));
+        assertFalse(shared(rules, "lost+found/file"));
+        assertTrue(shared(rules, "lost+found"), "a file of the same name is shared");
+    }
+
+    @Test
+    void nameGlobsMatchAtAnyDepth() {
+        SharingRules rules = SharingRules.EVERYTHING.withExclude("*.iso").withExclude("draft*")
+                .withExclude("track??.wav").withExclude("[!a-c]*.txt");
+        assertFalse(shared(rules, "disc.iso"));
+        assertFalse(shared(rules, "a/b/c/disc.ISO"));
+        assertTrue(shared(rules, "a/disc.iso.mp3"));
+        assertFalse(shared(rules, "docs/Draft notes.doc"));
+        assertTrue(shared(rules, "docs/final draft.doc"));
+        assertFalse(shared(rules, "cd/track01.wav"));
+        assertTrue(shared(rules, "cd/track1.wav"));
+        assertTrue(shared(rules, "cd/track001.wav"));
+        assertFalse(shared(rules, "notes/x.txt"));
+        assertTrue(shared(rules, "notes/b.txt"));
+    }
+
+    @Test
+    void pathGlobsMatchTheWholeRelativePath() {
+        SharingRules rules = SharingRules.EVERYTHING.withExclude("incoming/**").withExclude("docs/*.pdf");
+        assertFalse(rules.isDirectoryShared("incoming", "incoming", null));
+        assertFalse(shared(rules, "incoming/a/b.mp3"));
+        assertTrue(shared(rules, "music/incoming/b.mp3"), "path globs are anchored");
+        assertFalse(shared(rules, "docs/manual.pdf"));
+        assertTrue(shared(rules, "docs/old/manual.pdf"), "'*' stays within one path element");
+    }
+
+    @Test
+    void doubleStarSlashAlsoMatchesNoDirectory() {
+        SharingRules rules = SharingRules.EVERYTHING.withExclude("**/cache/*.dat").withExclude("/top.txt");
+        assertFalse(shared(rules, "cache/x.dat"));
+        assertFalse(shared(rules, "a/b/cache/x.dat"));
+        assertTrue(shared(rules, "a/b/cache/sub/x.dat"));
+        assertFalse(shared(rules, "top.txt"));
+        assertTrue(shared(rules, "sub/top.txt"), "a leading '/' anchors the glob");
+    }
+
+    @Test
+    void includesLimitSharedFilesButNotDirectories() {
+        SharingRules rules = SharingRules.DEFAULT.withInclude("*.mp3").withInclude("*.flac");
+        assertTrue(shared(rules, "music/a/song.mp3"));
+        assertTrue(shared(rules, "music/a/song.FLAC"));
+        assertFalse(shared(rules, "music/a/cover.jpg"));
+        assertTrue(rules.isDirectoryShared("music", "music", null));
+        assertFalse(shared(rules, "music/song.mp3.part"), "excludes win over includes");
+    }
+
+    @Test
+    void sizeRangeIsInclusive() {
+        SharingRules rules = SharingRules.EVERYTHING.withSizeRange(10, 20);
+        assertFalse(rules.isShared("a", new Attrs(9)));
+        assertTrue(rules.isShared("a", new Attrs(10)));
+        assertTrue(rules.isShared("a", new Attrs(20)));
+        assertFalse(rules.isShared("a", new Attrs(21)));
+        assertThrows(IllegalArgumentException.class, () -> SharingRules.EVERYTHING.withSizeRange(20, 10));
+        assertThrows(IllegalArgumentException.class, () -> SharingRules.EVERYTHING.withSizeRange(-1, 10));
+    }
+
+    @Test
+    void regexCharactersInGlobsAreLiteral() {
+        SharingRules rules = SharingRules.EVERYTHING.withExclude("a+b (1).*").withExclude("x/[.]y");
+        assertFalse(shared(rules, "a+b (1).txt"));
+        assertTrue(shared(rules, "aab (1).txt"));
+        assertFalse(shared(rules, "x/.y"));
+        assertTrue(shared(rules, "x/zy"));
+    }
+
+    @Test
+    void malformedGlobsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> SharingRules.EVERYTHING.withExclude("[abc"));
+        assertThrows(IllegalArgumentException.class, () -> SharingRules.EVERYTHING.withExclude("/"));
+        assertThrows(IllegalArgumentException.class, () -> SharingRules.EVERYTHING.withInclude(" "));
+    }
+
+    @Test
+    void loadAddsRulesToDefaultsAndSkipsBadLines(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("sharing.rules");
+        Files.write(file, List.of(
+                "# Shared music only",
+                "",
+                "include *.mp3",
+                "exclude Downloads/Incomplete/",
+                "min-size 1K",
+                "max-size 4G",
+                "hidden share",
+                "max-size lots",
+                "exclude [oops",
+                "share everything"), StandardCharsets.UTF_8);
+
+        SharingRules rules = SharingRules.load(file);
+        assertEquals(List.of("*.mp3"), rules.getIncludes());
+        assertTrue(rules.getExcludes().contains("Downloads/Incomplete/"));
+        assertTrue(rules.getExcludes().containsAll(SharingRules.DEFAULT.getExcludes()));
+        assertEquals(1024, rules.getMinSize());
+        assertEquals(4L << 30, rules.getMaxSize());
+        assertTrue(rules.isShareHidden());
+        assertFalse(rules.isShared("Downloads/Incomplete/a.mp3", new Attrs(2048)));
+        assertTrue(rules.isShared(".music/a.mp3", new Attrs(2048)));
+        assertFalse(rules.isShared(".music/a.mp3", new Attrs(1023)));
+    }
+
+    @Test
+    void missingRulesFileYieldsDefaults(@TempDir Path dir) {
+        assertSame(SharingRules.DEFAULT, SharingRules.load(dir.resolve("missing.rules")));
+    }
+}
@@ -0,0 +1,145 @@
+package com.mycompany.napsterclone.client;
+
+import com.mycompany.napsterclone.model.FileMetaData;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SortedFileDiffTest {
+    private static final String FULLWIDTH_A = "\uFF21";
+    // U+1F3B5, which sorts after U+FF21 by code point but before it as UTF-16
+    private static final String NOTE = new String(Character.toChars(0x1F3B5));
+
+    /**
+     * Records outcomes as "local:path", "published:path" or "both:path".
+     */
+    private static final class Recorder implements SortedFileDiff.Listener {
+        final List<String> outcomes = new ArrayList<>();
+        final List<FileMetaData[]> pairs = new ArrayList<>();
+
+        @Override
+        public void localOnly(FileMetaData localFile) {
+            outcomes.add("local:" + localFile.getRelativePath());
+        }
+
+        @Override
+        public void publishedOnly(FileMetaData publishedFile) {
+            outcomes.add("published:" + publishedFile.getRelativePath());
+        }
+
+        @Override
+        public void both(FileMetaData localFile, FileMetaData publishedFile) {
+            outcomes.add("both:" + localFile.getRelativePath());
+            pairs.add(new FileMetaData[]{localFile, publishedFile});
+        }
+    }
+
+    private static FileMetaData file(String relativePath) {
+        String name = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+        return new FileMetaData(name, relativePath, 100, "alice");
+    }
+
+    private static List<FileMetaData> files(String... relativePaths) {
+        List<FileMetaData> files = new ArrayList<>();
+        for (String relativePath : relativePaths) {
+            files.add(file(relativePath));
+        }
+        return files;
+    }
+
+    private static List<String> diff(List<FileMetaData> local, List<FileMetaData> published) {
+        Recorder recorder = new Recorder();
+        SortedFileDiff diff = new SortedFileDiff(local.iterator(), recorder);
+        for (FileMetaData publishedFile : published) {
+            diff.acceptPublished(publishedFile);
+        }
+        diff.finish();
+        return recorder.outcomes;
+    }
+
+    @Test
+    void reportsEveryPathOnceInPathOrder() {
+        List<String> outcomes = diff(
+                files("a.mp3", "b/c.mp3", "b/d.mp3", "e.mp3"),
+                files("a.mp3", "b/a.mp3", "b/d.mp3", "z.mp3"));
+        assertEquals(List.of("both:a.mp3", "published:b/a.mp3", "local:b/c.mp3", "both:b/d.mp3",
+                "local:e.mp3", "published:z.mp3"), outcomes);
+    }
+
+    @Test
+    void pairsTheLocalAndPublishedFile() {
+        FileMetaData local = file("a.mp3");
+        FileMetaData published = file("a.mp3");
+        Recorder recorder = new Recorder();
+        SortedFileDiff diff = new SortedFileDiff(List.of(local).iterator(), recorder);
+        diff.acceptPublished(published);
+        diff.finish();
+
+        assertEquals(1, recorder.pairs.size());
+        assertSame(local, recorder.pairs.get(0)[0]);
+        assertSame(published, recorder.pairs.get(0)[1]);
+    }
+
+    @Test
+    void emptySides() {
+        assertEquals(List.of(), diff(files(), files()));
+        assertEquals(List.of("local:a", "local:b"), diff(files("a", "b"), files()));
+        assertEquals(List.of("published:a", "published:b"), diff(files(), files("a", "b")));
+    }
+
+    @Test
+    void duplicatePublishedPathIsPublishedOnly() {
+        List<String> outcomes = diff(files("a", "b"), files("a", "a", "b"));
+        assertEquals(List.of("both:a", "published:a", "both:b"), outcomes);
+    }
+
+    @Test
+    void duplicatePublishedPathMissingLocallyIsPublishedOnlyTwice() {
+        List<String> outcomes = diff(files("b"), files("a", "a", "b"));
+        assertEquals(List.of("published:a", "published:a", "both:b"), outcomes);
+    }
+
+    @Test
+    void usesCodePointOrderLikeSolr() {
+        // Sorted by code point, as Solr returns path_s; String.compareTo would swap them
+        List<String> outcomes = diff(files(FULLWIDTH_A, NOTE), files(FULLWIDTH_A, NOTE));
+        assertEquals(List.of("both:" + FULLWIDTH_A, "both:" + NOTE), outcomes);
+    }
+
+    @Test
+    void rejectsPublishedFilesOutOfOrder() {
+        Recorder recorder = new Recorder();
+        SortedFileDiff diff = new SortedFileDiff(files("a", "b").iterator(), recorder);
+        diff.acceptPublished(file("b"));
+        assertThrows(IllegalStateException.class, () -> diff.acceptPublished(file("a")));
+    }
+
+    @Test
+    void pullsLocalFilesOnlyAsFarAsNeeded() {
+        List<String> pulled = new ArrayList<>();
+        Iterator<FileMetaData> source = files("a", "b", "c", "d").iterator();
+        Iterator<FileMetaData> local = new Iterator<FileMetaData>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public FileMetaData next() {
+                FileMetaData next = source.next();
+                pulled.add(next.getRelativePath());
+                return next;
+            }
+        };
+        SortedFileDiff diff = new SortedFileDiff(local, new Recorder());
+        assertEquals(List.of("a"), pulled);
+        diff.acceptPublished(file("b"));
+        assertEquals(List.of("a", "b", "c"), pulled);
+    }
+}
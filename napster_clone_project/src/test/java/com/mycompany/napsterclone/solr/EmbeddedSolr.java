@@ -0,0 +1,142 @@
+package com.mycompany.napsterclone.solr;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.embedded.JettyConfig;
+import org.apache.solr.embedded.JettySolrRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * An in-process napster_clone core for tests and benchmarks. The Solr home is
+ * created in a temporary directory and deleted on close; the index itself is
+ * kept in memory. The core starts from the field types of the _default
+ * configset and gets the client's schema from SolrConfig/napster_clone-schema.json
+ * through the Schema API, as CreateNapsterCloneCores sets up a real core.
+ * <p>
+ * The core is served over HTTP, so a {@link SolrClientManager} can connect to
+ * {@link #getCoreUrl()}; {@link #getClient()} talks to it directly.
+ */
+public final class EmbeddedSolr implements AutoCloseable {
+    public static final String CORE_NAME = "napster_clone";
+
+    private static final String[] CONFIG_FILES = {"solrconfig.xml", "managed-schema.xml", "protwords.txt",
+            "synonyms.txt", "lang/stopwords_en.txt"};
+    private static final String SCHEMA_RESOURCE = "/solr/napster_clone-schema.json";
+
+    private final Path solrHome;
+    private final JettySolrRunner jetty;
+    private final EmbeddedSolrServer server;
+
+    public EmbeddedSolr() throws Exception {
+        solrHome = Files.createTempDirectory("napster-solr");
+        copyResource("/solr/solr.xml", solrHome.resolve("solr.xml"));
+        Path coreDir = solrHome.resolve(CORE_NAME);
+        Path confDir = coreDir.resolve("conf");
+        for (String name : CONFIG_FILES) {
+            Path target = confDir.resolve(name);
+            Files.createDirectories(target.getParent());
+            copyResource("/solr/" + CORE_NAME + "/conf/" + name, target);
+        }
+        Files.write(coreDir.resolve("core.properties"), ("name=" + CORE_NAME + "\n").getBytes(StandardCharsets.UTF_8));
+
+        jetty = new JettySolrRunner(solrHome.toString(), JettyConfig.builder().setPort(0).build());
+        try {
+            jetty.start();
+            applySchema();
+        } catch (Exception e) {
+            jetty.stop();
+            deleteSolrHome();
+            throw e;
+        }
+        server = new EmbeddedSolrServer(jetty.getCoreContainer(), CORE_NAME);
+    }
+
+    private static void copyResource(String resource, Path target) throws IOException {
+        try (InputStream in = EmbeddedSolr.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("Missing test resource " + resource);
+            }
+            Files.copy(in, target);
+        }
+    }
+
+    private void applySchema() throws IOException, InterruptedException {
+        byte[] schema;
+        try (InputStream in = EmbeddedSolr.class.getResourceAsStream(SCHEMA_RESOURCE)) {
+            if (in == null) {
+                throw new IOException("Missing test resource " + SCHEMA_RESOURCE);
+            }
+            schema = in.readAllBytes();
+        }
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(getCoreUrl() + "/schema"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(schema))
+                .build();
+        HttpResponse<String> response = HttpClient.newHttpClient().send(request,
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200 || response.body().contains("\"errors\"")) {
+            throw new IOException("Schema update failed: " + response.body());
+        }
+    }
+
+    /**
+     * The URL of the core, as listed in a client's Solr URLs.
+     */
+    public String getCoreUrl() {
+        return jetty.getBaseUrl() + "/" + CORE_NAME;
+    }
+
+    /**
+     * A client that sends requests to the core in-process.
+     */
+    public EmbeddedSolrServer getClient() {
+        return server;
+    }
+
+    /**
+     * Commits pending updates and fetches a document by ID.
+     *
+     * @return The stored document, or null if there is none
+     */
+    public SolrDocument getCommitted(String id) throws SolrServerException, IOException {
+        server.commit();
+        return server.getById(id);
+    }
+
+    /**
+     * Makes everything sent so far searchable, instead of waiting for
+     * commitWithin.
+     */
+    public void commit() throws SolrServerException, IOException {
+        server.commit();
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            server.close();
+            jetty.stop();
+        } finally {
+            deleteSolrHome();
+        }
+    }
+
+    private void deleteSolrHome() throws IOException {
+        try (Stream<Path> paths = Files.walk(solrHome)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
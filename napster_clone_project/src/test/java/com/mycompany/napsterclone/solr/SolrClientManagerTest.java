@@ -0,0 +1,224 @@
+package com.mycompany.napsterclone.solr;
+
+import com.mycompany.napsterclone.model.FileMetaData;
+import com.mycompany.napsterclone.model.FilenameSuggestions;
+import com.mycompany.napsterclone.model.UpdateOperation;
+import org.apache.solr.client.solrj.impl.BaseHttpSolrClient.RemoteSolrException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the index operations of {@link SolrClientManager} against an embedded
+ * core with the client's real schema.
+ */
+class SolrClientManagerTest {
+    private EmbeddedSolr solr;
+    private SolrClientManager solrManager;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        solr = new EmbeddedSolr();
+        solrManager = new SolrClientManager(new String[]{solr.getCoreUrl()});
+        solrManager.connect();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (solrManager != null) {
+            solrManager.shutdown();
+        }
+        if (solr != null) {
+            solr.close();
+        }
+    }
+
+    private static FileMetaData file(String owner, String relativePath, long size) {
+        String filename = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+        return new FileMetaData(filename, relativePath, size, 1700000000000L, owner);
+    }
+
+    private void publish(String owner, FileMetaData... files) throws Exception {
+        List<UpdateOperation> updates = new ArrayList<>();
+        for (FileMetaData file : files) {
+            updates.add(new UpdateOperation(UpdateOperation.Type.ADD, file));
+        }
+        solrManager.applyFileUpdates(owner, updates);
+        solr.commit();
+    }
+
+    private Map<String, Long> sizesByPath(String owner) throws Exception {
+        Map<String, Long> sizes = new TreeMap<>();
+        for (FileMetaData file : solrManager.findFilesByUser(owner)) {
+            sizes.put(file.getRelativePath(), file.getSize());
+        }
+        return sizes;
+    }
+
+    private List<String> search(String query, String requestingUsername) throws Exception {
+        solrManager.invalidateSearchCache();
+        List<String> found = new ArrayList<>();
+        for (FileMetaData file : solrManager.searchFiles(query, requestingUsername)) {
+            found.add(file.getOwnerUsername() + ":" + file.getRelativePath());
+        }
+        found.sort(null);
+        return found;
+    }
+
+    @Test
+    void publishedFilesAreFoundByOwner() throws Exception {
+        publish("alice", file("alice", "Blue Moon.mp3", 100), file("alice", "albums/Red Sky.flac", 200));
+        publish("bob", file("bob", "Blue Moon.mp3", 300));
+
+        List<FileMetaData> files = solrManager.findFilesByUser("alice");
+        assertEquals(Map.of("Blue Moon.mp3", 100L, "albums/Red Sky.flac", 200L), sizesByPath("alice"));
+        for (FileMetaData file : files) {
+            assertEquals("alice", file.getOwnerUsername());
+            assertEquals(1700000000000L, file.getLastModified());
+        }
+    }
+
+    @Test
+    void updatesAndRemovalsApplyToPublishedFiles() throws Exception {
+        publish("alice", file("alice", "a.mp3", 100), file("alice", "b.mp3", 200));
+
+        solrManager.applyFileUpdates("alice", List.of(
+                new UpdateOperation(UpdateOperation.Type.UPDATE, file("alice", "a.mp3", 150)),
+                new UpdateOperation(UpdateOperation.Type.REMOVE, file("alice", "b.mp3", 200)),
+                // Updates of files that are not indexed are skipped
+                new UpdateOperation(UpdateOperation.Type.UPDATE, file("alice", "gone.mp3", 1))));
+        solr.commit();
+
+        assertEquals(Map.of("a.mp3", 150L), sizesByPath("alice"));
+    }
+
+    @Test
+    void searchMatchesFilenameWordsOfOtherOnlinePeers() throws Exception {
+        solrManager.registerUser("alice", "10.0.0.1", 7001);
+        solrManager.registerUser("bob", "10.0.0.2", 7002);
+        solrManager.registerUser("carol", "10.0.0.3", 7003);
+        publish("alice", file("alice", "music/Blue Moon.mp3", 100), file("alice", "Red Sky.flac", 200));
+        publish("bob", file("bob", "Blue Moons Live.mp3", 300));
+        publish("carol", file("carol", "Blue Note.mp3", 400));
+        solrManager.setUserStatus("carol", false);
+        solr.commit();
+
+        // Stemmed text matching, files of offline peers and of the searcher left out
+        assertEquals(List.of("bob:Blue Moons Live.mp3"), search("moon", "alice"));
+        assertEquals(List.of("alice:music/Blue Moon.mp3", "bob:Blue Moons Live.mp3"), search("blue", "dave"));
+        assertEquals(List.of(), search("note", "alice"));
+
+        FileMetaData hit = solrManager.searchFiles("red", "bob").get(0);
+        assertEquals("10.0.0.1", hit.getOwnerIp());
+        assertEquals(7001, hit.getOwnerPort());
+        assertEquals(200, hit.getSize());
+    }
+
+    @Test
+    void suggestionsMatchWordPrefixes() throws Exception {
+        publish("alice", file("alice", "Blue Moon.mp3", 100), file("alice", "Blues Brothers.mp3", 200),
+                file("alice", "Red Sky.flac", 300));
+        publish("bob", file("bob", "Bluegrass.ogg", 400));
+
+        FilenameSuggestions suggestions = solrManager.suggestFilenamesAsync("blu", "bob", 10)
+                .get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("Blue Moon.mp3", "Blues Brothers.mp3"), sorted(suggestions.getFilenames()));
+        assertTrue(suggestions.isComplete());
+
+        suggestions = solrManager.suggestFilenamesAsync("blu mo", "bob", 10).get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("Blue Moon.mp3"), suggestions.getFilenames());
+
+        suggestions = solrManager.suggestFilenamesAsync("blu", "bob", 1).get(10, TimeUnit.SECONDS);
+        assertEquals(1, suggestions.getFilenames().size());
+        assertFalse(suggestions.isComplete(), "a list cut short by the limit is not complete");
+    }
+
+    @Test
+    void streamingPagesThroughAllFilesOfTheOwner() throws Exception {
+        // More than two cursor pages
+        FileMetaData[] files = new FileMetaData[2500];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = file("alice", "dir" + (i % 7) + "/track " + i + ".mp3", i);
+        }
+        publish("alice", files);
+        publish("bob", file("bob", "dir0/track 0.mp3", 1));
+
+        Set<String> paths = new HashSet<>();
+        long count = solrManager.streamFilesByUser("alice", file -> {
+            assertEquals("alice", file.getOwnerUsername());
+            assertTrue(paths.add(file.getRelativePath()), "each file is delivered once");
+        });
+        assertEquals(files.length, count);
+        assertEquals(files.length, paths.size());
+        assertEquals(files.length, solrManager.findFilesByUser("alice").size());
+    }
+
+    private List<String> pathsInOrder(String owner, String fromPath, String toPath) throws Exception {
+        List<String> paths = new ArrayList<>();
+        solrManager.streamFilesByUserInPathOrder(owner, fromPath, toPath, file -> paths.add(file.getRelativePath()));
+        return paths;
+    }
+
+    @Test
+    void pathOrderStreamResumesFromPathsWithSpacesAndQuotes() throws Exception {
+        publish("alice", file("alice", "My Music/a.mp3", 1), file("alice", "My Music/b c.mp3", 2),
+                file("alice", "My Musicals/\"Cats\" (1981).mp3", 3), file("alice", "back\\slash.mp3", 4),
+                file("alice", "z.mp3", 5));
+
+        assertEquals(List.of("My Music/b c.mp3", "My Musicals/\"Cats\" (1981).mp3", "back\\slash.mp3", "z.mp3"),
+                pathsInOrder("alice", "My Music/b c.mp3", null));
+        assertEquals(List.of("My Musicals/\"Cats\" (1981).mp3"),
+                pathsInOrder("alice", "My Musicals/\"Cats\" (1981).mp3", "back\\slash.mp3"));
+        assertEquals(List.of("back\\slash.mp3", "z.mp3"), pathsInOrder("alice", "back\\slash.mp3", null));
+    }
+
+    @Test
+    void removeUserFilesDeletesOnlyThatUsersFiles() throws Exception {
+        publish("alice", file("alice", "a.mp3", 100), file("alice", "b.mp3", 200));
+        publish("bob", file("bob", "a.mp3", 300));
+        solrManager.setSyncVersion("alice", 5L);
+
+        assertEquals(2, solrManager.removeUserFiles("alice"));
+        solr.commit();
+
+        assertEquals(Map.of(), sizesByPath("alice"));
+        assertEquals(Map.of("a.mp3", 300L), sizesByPath("bob"));
+        assertNull(solrManager.getSyncVersion("alice"), "the owner's sync manifests no longer match");
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> copy = new ArrayList<>(values);
+        copy.sort(null);
+        return copy;
+    }
+
+    @Test
+    void onlyRejectionsAsNotPermittedTurnOffDeleteByQuery() {
+        assertTrue(SolrClientManager.isDisallowedRequest(new RemoteSolrException("host", 403, "Forbidden", null)));
+        assertTrue(SolrClientManager.isDisallowedRequest(
+                new RemoteSolrException("host", 405, "Method Not Allowed", null)));
+        assertTrue(SolrClientManager.isDisallowedRequest(
+                new RemoteSolrException("host", 400, "Delete-by-query is disabled on this collection", null)));
+        assertTrue(SolrClientManager.isDisallowedRequest(
+                new RemoteSolrException("host", 400, "deleteByQuery not allowed", null)));
+
+        assertFalse(SolrClientManager.isDisallowedRequest(new RemoteSolrException("host", 400,
+                "org.apache.solr.search.SyntaxError: Cannot parse 'owner_username_s:a b'", null)),
+                "a malformed request says nothing about deleteByQuery being allowed");
+        assertFalse(SolrClientManager.isDisallowedRequest(new RemoteSolrException("host", 400, null, null)));
+        assertFalse(SolrClientManager.isDisallowedRequest(new RemoteSolrException("host", 500, "Server Error", null)));
+    }
+}
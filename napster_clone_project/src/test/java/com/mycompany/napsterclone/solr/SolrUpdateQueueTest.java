@@ -0,0 +1,280 @@
+package com.mycompany.napsterclone.solr;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that updates coalesced by {@link SolrUpdateQueue} leave the index in
+ * the same state as sending them one by one would.
+ */
+class SolrUpdateQueueTest {
+    // Long enough that only flush() or a full batch sends anything
+    private static final long LINGER_MS = TimeUnit.HOURS.toMillis(1);
+    private static final int MAX_BATCH = 100;
+    private static final int COMMIT_WITHIN_MS = 10000;
+
+    private EmbeddedSolr solr;
+    private final List<UpdateRequest> sentBatches = new CopyOnWriteArrayList<>();
+    private SolrUpdateQueue queue;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        solr = new EmbeddedSolr();
+        queue = newQueue(MAX_BATCH);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (queue != null) {
+            queue.shutdown(5000);
+        }
+        if (solr != null) {
+            solr.close();
+        }
+    }
+
+    private SolrUpdateQueue newQueue(int maxBatchSize) {
+        return new SolrUpdateQueue(request -> {
+            sentBatches.add(request);
+            request.process(solr.getClient());
+        }, maxBatchSize, LINGER_MS, COMMIT_WITHIN_MS);
+    }
+
+    private static SolrInputDocument userDoc(String id, String status) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.setField("id", id);
+        doc.setField("doc_type_s", "user");
+        doc.setField("status_s", status);
+        doc.setField("port_i", 6699);
+        return doc;
+    }
+
+    private static SolrInputDocument setField(String id, String field, Object value) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.setField("id", id);
+        doc.setField(field, Collections.singletonMap("set", value));
+        return doc;
+    }
+
+    private static SolrInputDocument setFieldIfExists(String id, String field, Object value) {
+        SolrInputDocument doc = setField(id, field, value);
+        doc.setField("_version_", SolrUpdateQueue.VERSION_MUST_EXIST);
+        return doc;
+    }
+
+    private void index(SolrInputDocument doc) throws Exception {
+        solr.getClient().add(doc);
+        solr.getClient().commit();
+    }
+
+    @Test
+    void updatesOfOneDocumentAreSentOnce() throws Exception {
+        CompletableFuture<Void> add = queue.add("u1", userDoc("u1", "ONLINE"));
+        CompletableFuture<Void> update = queue.partialUpdate("u1", setField("u1", "status_s", "AWAY"));
+        queue.add("u2", userDoc("u2", "ONLINE"));
+        CompletableFuture<Void> lastUpdate = queue.partialUpdate("u1", setField("u1", "status_s", "OFFLINE"));
+        queue.flush();
+
+        assertSame(add, update, "coalesced updates share one outcome");
+        assertSame(add, lastUpdate);
+
+        assertEquals(1, sentBatches.size());
+        assertEquals(2, sentBatches.get(0).getDocuments().size());
+        assertEquals(Integer.valueOf(COMMIT_WITHIN_MS), sentBatches.get(0).getCommitWithin());
+        SolrUpdateQueue.Stats stats = queue.getStats();
+        assertEquals(2, stats.getUpdatesCoalesced());
+        assertEquals(2, stats.getUpdatesSent());
+
+        SolrDocument u1 = solr.getCommitted("u1");
+        assertEquals("OFFLINE", u1.getFieldValue("status_s"));
+        assertEquals(6699, u1.getFieldValue("port_i"));
+        assertEquals("ONLINE", solr.getCommitted("u2").getFieldValue("status_s"));
+    }
+
+    @Test
+    void partialUpdateFoldedIntoAddMayRemoveFields() throws Exception {
+        queue.add("u1", userDoc("u1", "ONLINE"));
+        queue.partialUpdate("u1", setFieldIfExists("u1", "port_i", null));
+        queue.flush();
+
+        SolrDocument u1 = solr.getCommitted("u1");
+        assertNotNull(u1, "the pending add creates the document despite the version constraint");
+        assertNull(u1.getFieldValue("port_i"));
+        assertEquals("ONLINE", u1.getFieldValue("status_s"));
+    }
+
+    @Test
+    void partialUpdatesAreMergedAndKeepOtherFields() throws Exception {
+        index(userDoc("u1", "ONLINE"));
+
+        queue.partialUpdate("u1", setField("u1", "status_s", "AWAY"));
+        queue.partialUpdate("u1", setField("u1", "last_seen_dt", "2024-01-01T00:00:00Z"));
+        queue.flush();
+
+        assertEquals(1, queue.getStats().getUpdatesCoalesced());
+        SolrDocument u1 = solr.getCommitted("u1");
+        assertEquals("AWAY", u1.getFieldValue("status_s"));
+        assertNotNull(u1.getFieldValue("last_seen_dt"));
+        assertEquals(6699, u1.getFieldValue("port_i"));
+    }
+
+    @Test
+    void deleteReplacesPendingAdd() throws Exception {
+        index(userDoc("u1", "ONLINE"));
+
+        queue.add("u1", userDoc("u1", "AWAY"));
+        queue.delete("u1");
+        queue.flush();
+
+        UpdateRequest batch = sentBatches.get(0);
+        assertNull(batch.getDocuments());
+        assertEquals(List.of("u1"), batch.getDeleteById());
+        assertNull(solr.getCommitted("u1"));
+    }
+
+    @Test
+    void addAfterDeleteRecreatesDocument() throws Exception {
+        index(userDoc("u1", "ONLINE"));
+
+        queue.delete("u1");
+        queue.add("u1", userDoc("u1", "AWAY"));
+        queue.flush();
+
+        assertEquals("AWAY", solr.getCommitted("u1").getFieldValue("status_s"));
+    }
+
+    @Test
+    void mustExistUpdateAfterDeleteIsDropped() throws Exception {
+        index(userDoc("u1", "ONLINE"));
+
+        queue.delete("u1");
+        queue.partialUpdate("u1", setFieldIfExists("u1", "status_s", "AWAY"));
+        queue.flush();
+
+        assertNull(solr.getCommitted("u1"));
+    }
+
+    @Test
+    void partialUpdateAfterDeleteCreatesDocumentWithUpdatedFieldsOnly() throws Exception {
+        index(userDoc("u1", "ONLINE"));
+
+        queue.delete("u1");
+        queue.partialUpdate("u1", setField("u1", "status_s", "AWAY"));
+        queue.flush();
+
+        SolrDocument u1 = solr.getCommitted("u1");
+        assertEquals("AWAY", u1.getFieldValue("status_s"));
+        assertNull(u1.getFieldValue("port_i"));
+        assertNull(u1.getFieldValue("doc_type_s"));
+    }
+
+    @Test
+    void mustExistUpdateOfMissingDocumentDoesNotFailBatch() throws Exception {
+        CompletableFuture<Void> update = queue.partialUpdate("gone", setFieldIfExists("gone", "status_s", "AWAY"));
+        CompletableFuture<Void> add = queue.add("u1", userDoc("u1", "ONLINE"));
+        queue.flush();
+
+        assertEquals(1, sentBatches.size());
+        assertTrue(update.isDone());
+        assertFalse(update.isCompletedExceptionally());
+        assertFalse(add.isCompletedExceptionally());
+        assertNull(solr.getCommitted("gone"));
+        assertNotNull(solr.getCommitted("u1"));
+        assertEquals(0, queue.getStats().getFailedBatches());
+    }
+
+    @Test
+    void fullBatchIsSentWithoutWaitingForLinger() throws Exception {
+        queue.shutdown(5000);
+        queue = newQueue(3);
+
+        CompletableFuture<Void> batch = null;
+        for (int i = 0; i < 3; i++) {
+            batch = queue.add("u" + i, userDoc("u" + i, "ONLINE"));
+        }
+        batch.get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, sentBatches.size());
+        assertEquals(3, queue.getStats().getLastBatchSize());
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(solr.getCommitted("u" + i));
+        }
+    }
+
+    @Test
+    void shutdownFlushesAndRejectsFurtherUpdates() throws Exception {
+        CompletableFuture<Void> add = queue.add("u1", userDoc("u1", "ONLINE"));
+        queue.shutdown(5000);
+
+        assertTrue(add.isDone());
+        assertNotNull(solr.getCommitted("u1"));
+        assertThrows(IllegalStateException.class, () -> queue.delete("u1"));
+        assertThrows(IllegalStateException.class,
+                () -> queue.partialUpdate("u1", setField("u1", "status_s", "AWAY")));
+    }
+
+    @Test
+    void rejectedUpdateFailsAloneInItsBatch() throws Exception {
+        CompletableFuture<Void> good1 = queue.add("u1", userDoc("u1", "ONLINE"));
+        // port_i is an int field, so Solr rejects any request holding this one
+        CompletableFuture<Void> bad = queue.add("u2", setField("u2", "port_i", "not a number"));
+        CompletableFuture<Void> good2 = queue.add("u3", userDoc("u3", "ONLINE"));
+        CompletableFuture<Void> delete = queue.delete("u4");
+
+        assertThrows(SolrServerException.class, queue::flush, "flush reports the failed update");
+        assertTrue(bad.isCompletedExceptionally());
+        assertThrows(SolrServerException.class, () -> SolrUpdateQueue.await(bad));
+        for (CompletableFuture<Void> update : List.of(good1, good2, delete)) {
+            assertTrue(update.isDone());
+            assertFalse(update.isCompletedExceptionally());
+        }
+        assertNotNull(solr.getCommitted("u1"));
+        assertNotNull(solr.getCommitted("u3"));
+        assertNull(solr.getCommitted("u2"));
+
+        SolrUpdateQueue.Stats stats = queue.getStats();
+        assertEquals(1, stats.getFailedBatches());
+        assertEquals(1, stats.getFailedUpdates());
+        assertEquals(3, stats.getUpdatesSent());
+        // The whole batch, its halves and the halves of the half holding u2
+        assertEquals(5, sentBatches.size());
+    }
+
+    @Test
+    void failureToReachSolrFailsTheWholeBatch() throws Exception {
+        queue.shutdown(5000);
+        queue = new SolrUpdateQueue(request -> {
+            sentBatches.add(request);
+            throw new IOException("Connection refused");
+        }, MAX_BATCH, LINGER_MS, COMMIT_WITHIN_MS);
+
+        CompletableFuture<Void> first = queue.add("u1", userDoc("u1", "ONLINE"));
+        CompletableFuture<Void> second = queue.add("u2", userDoc("u2", "ONLINE"));
+
+        assertThrows(IOException.class, queue::flush);
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+        assertEquals(1, sentBatches.size(), "only requests Solr rejected are split");
+        assertEquals(2, queue.getStats().getFailedUpdates());
+    }
+}
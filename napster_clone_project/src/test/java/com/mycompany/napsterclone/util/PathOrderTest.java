@@ -0,0 +1,65 @@
+package com.mycompany.napsterclone.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PathOrderTest {
+    // Fullwidth A, near the top of the basic plane
+    private static final String BMP_HIGH = "\uFF21";
+    // First code point above the surrogates
+    private static final String PRIVATE_USE = "\uE000";
+    // U+1F3B5, a musical note, stored as the surrogate pair D83C DFB5
+    private static final String SUPPLEMENTARY = new String(Character.toChars(0x1F3B5));
+
+    @Test
+    void ordersAsciiLikeStringCompareTo() {
+        String[] paths = {"a", "a/b", "a.txt", "A", "a/", "", "b/a", "ab"};
+        for (String a : paths) {
+            for (String b : paths) {
+                assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(PathOrder.compare(a, b)), a + " vs " + b);
+            }
+        }
+    }
+
+    @Test
+    void supplementaryCharactersSortAfterTheBasicPlane() {
+        // String.compareTo puts the surrogate pair before U+FF21
+        assertTrue(SUPPLEMENTARY.compareTo(BMP_HIGH) < 0);
+        assertTrue(PathOrder.compare(SUPPLEMENTARY, BMP_HIGH) > 0);
+        assertTrue(PathOrder.compare(SUPPLEMENTARY, PRIVATE_USE) > 0);
+        assertTrue(PathOrder.compare(PRIVATE_USE, SUPPLEMENTARY) < 0);
+        assertTrue(PathOrder.compare("\uD7FF", SUPPLEMENTARY) < 0);
+    }
+
+    @Test
+    void matchesUtf8ByteOrder() {
+        List<String> paths = new ArrayList<>(List.of("music/" + SUPPLEMENTARY, "music/" + BMP_HIGH,
+                "music/" + PRIVATE_USE, "music/z", "music/\u00E9", "music", "music/" + SUPPLEMENTARY + "a",
+                "m\uD7FF", "music/\uFFFF"));
+        List<String> byBytes = new ArrayList<>(paths);
+        byBytes.sort((a, b) -> Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8),
+                b.getBytes(StandardCharsets.UTF_8)));
+        paths.sort(PathOrder.COMPARATOR);
+        assertEquals(byBytes, paths);
+    }
+
+    @Test
+    void endOfPrefixBoundsTheDirectoryContents() {
+        String end = PathOrder.endOfPrefix("music/");
+        for (String inside : List.of("music/", "music/a", "music/" + SUPPLEMENTARY, "music/\uFFFF/x")) {
+            assertTrue(PathOrder.compare("music/", inside) <= 0, inside);
+            assertTrue(PathOrder.compare(inside, end) < 0, inside);
+        }
+        for (String outside : List.of("music0", "musicA", "music" + SUPPLEMENTARY, "video/a")) {
+            assertTrue(PathOrder.compare(outside, end) > 0, outside);
+        }
+        assertTrue(PathOrder.compare("music", "music/") < 0);
+    }
+}